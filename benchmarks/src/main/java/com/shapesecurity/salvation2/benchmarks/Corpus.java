@@ -0,0 +1,54 @@
+package com.shapesecurity.salvation2.benchmarks;
+
+import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.PolicyList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// corpus.txt holds one serialized CSP list per line: real-world headers (from src/test/resources/csp.txt), followed by
+// the policies used in ParserTest and QueryingTest.
+final class Corpus {
+	private static final List<String> HEADERS = load();
+
+	private Corpus() {}
+
+	static List<String> headers() {
+		return HEADERS;
+	}
+
+	static List<Policy> policies() {
+		List<Policy> policies = new ArrayList<>();
+		for (String header : HEADERS) {
+			PolicyList list = Policy.parseSerializedCSPList(header, Policy.PolicyListErrorConsumer.ignored);
+			policies.addAll(list.policies);
+		}
+		return policies;
+	}
+
+	private static List<String> load() {
+		InputStream in = Corpus.class.getResourceAsStream("corpus.txt");
+		if (in == null) {
+			throw new IllegalStateException("corpus.txt is missing from the classpath");
+		}
+		List<String> headers = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					headers.add(line);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return Collections.unmodifiableList(headers);
+	}
+}
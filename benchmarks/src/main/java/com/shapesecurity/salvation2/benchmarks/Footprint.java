@@ -0,0 +1,61 @@
+package com.shapesecurity.salvation2.benchmarks;
+
+import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.PolicyList;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+// Reports the heap retained per parsed policy, as a cache of many policies would hold them. Not a JMH benchmark; run with
+//   java -cp target/benchmarks.jar com.shapesecurity.salvation2.benchmarks.Footprint
+// Each form is measured by parsing the corpus enough times to dwarf the noise, and comparing heap usage after a full GC.
+public final class Footprint {
+	private static final int ROUNDS = 50;
+
+	private Footprint() {}
+
+	public static void main(String[] args) {
+		report("Policy", p -> p);
+		report("ImmutablePolicy", Policy::toImmutable);
+	}
+
+	private static void report(String name, Function<Policy, Object> form) {
+		// Once unmeasured, so that the string pool and class loading are not counted
+		retain(form);
+		long before = usedAfterGc();
+		List<Object> retained = retain(form);
+		long after = usedAfterGc();
+		System.out.printf("%-16s %6d bytes per policy%n", name, (after - before) / retained.size());
+	}
+
+	private static List<Object> retain(Function<Policy, Object> form) {
+		List<Object> retained = new ArrayList<>();
+		for (int i = 0; i < ROUNDS; ++i) {
+			for (String header : Corpus.headers()) {
+				PolicyList list = Policy.parseSerializedCSPList(header, Policy.PolicyListErrorConsumer.ignored);
+				for (Policy policy : list.policies) {
+					retained.add(form.apply(policy));
+				}
+			}
+		}
+		return retained;
+	}
+
+	private static long usedAfterGc() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		// Keep collecting until nothing more is freed
+		for (int i = 0; i < 10; ++i) {
+			System.gc();
+			long now = memory.getHeapMemoryUsage().getUsed();
+			if (now >= used) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+}
@@ -0,0 +1,76 @@
+package com.shapesecurity.salvation2.benchmarks;
+
+import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.PolicyMatcher;
+import com.shapesecurity.salvation2.URLs.URI;
+import com.shapesecurity.salvation2.URLs.URLWithScheme;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Matches URLs against a script-src listing `hostCount` CDN-style hosts, half of them wildcards.
+// `miss` is the worst case for a linear scan, since every host-source has to be rejected.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HostMatchingBenchmark {
+	@Param({"4", "32", "300"})
+	public int hostCount;
+
+	private Policy policy;
+	private PolicyMatcher matcher;
+	private Optional<URLWithScheme> origin;
+	private Optional<URLWithScheme> hit;
+	private Optional<URLWithScheme> miss;
+
+	@Setup
+	public void setup() {
+		StringBuilder serialized = new StringBuilder("script-src 'self'");
+		for (int i = 0; i < this.hostCount; ++i) {
+			if (i % 2 == 0) {
+				serialized.append(" https://*.cdn").append(i).append(".example.com");
+			} else {
+				serialized.append(" https://static").append(i).append(".example.net/js/");
+			}
+		}
+		this.policy = Policy.parseSerializedCSP(serialized.toString(), Policy.PolicyErrorConsumer.ignored);
+		this.matcher = this.policy.compile();
+		this.origin = URI.parseURI("https://example.org").map(u -> u);
+		this.hit = URI.parseURI("https://static" + (this.hostCount - 1) + ".example.net/js/app.js").map(u -> u);
+		this.miss = URI.parseURI("https://assets.a.b.evil.example.com/js/app.js").map(u -> u);
+	}
+
+	@Benchmark
+	public boolean policyHit() {
+		return this.policy.allowsExternalScript(Optional.empty(), Optional.empty(), this.hit, Optional.empty(), this.origin);
+	}
+
+	@Benchmark
+	public boolean policyMiss() {
+		return this.policy.allowsExternalScript(Optional.empty(), Optional.empty(), this.miss, Optional.empty(), this.origin);
+	}
+
+	@Benchmark
+	public boolean compiledHit() {
+		return this.matcher.allowsExternalScript(Optional.empty(), Optional.empty(), this.hit, Optional.empty(), this.origin);
+	}
+
+	@Benchmark
+	public boolean compiledMiss() {
+		return this.matcher.allowsExternalScript(Optional.empty(), Optional.empty(), this.miss, Optional.empty(), this.origin);
+	}
+}
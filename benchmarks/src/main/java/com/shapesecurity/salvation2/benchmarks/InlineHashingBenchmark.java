@@ -0,0 +1,66 @@
+package com.shapesecurity.salvation2.benchmarks;
+
+import com.shapesecurity.salvation2.InlineSource;
+import com.shapesecurity.salvation2.Policy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Checks one inline script against several hash-based policies, as an HTML rewriter enforcing a PolicyList would.
+// `string` hashes the source once per policy; `inlineSource` hashes it once in total.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InlineHashingBenchmark {
+	private Policy[] policies;
+	private String source;
+
+	@Setup
+	public void setup() {
+		this.policies = new Policy[4];
+		for (int i = 0; i < this.policies.length; ++i) {
+			StringBuilder serialized = new StringBuilder("script-src 'strict-dynamic'");
+			for (int j = 0; j < 20; ++j) {
+				serialized.append(" 'sha256-").append(String.format("%043d", i * 100 + j)).append("='");
+			}
+			this.policies[i] = Policy.parseSerializedCSP(serialized.toString(), Policy.PolicyErrorConsumer.ignored);
+		}
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 100; ++i) {
+			source.append("window.dataLayer.push({event: 'view', id: ").append(i).append("});\n");
+		}
+		this.source = source.toString();
+	}
+
+	@Benchmark
+	public boolean string() {
+		boolean allowed = true;
+		for (Policy policy : this.policies) {
+			allowed &= policy.allowsInlineScript(Optional.empty(), Optional.of(this.source), Optional.empty());
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public boolean inlineSource() {
+		InlineSource inlineSource = new InlineSource(this.source);
+		boolean allowed = true;
+		for (Policy policy : this.policies) {
+			allowed &= policy.allowsInlineScript(Optional.empty(), inlineSource, Optional.empty());
+		}
+		return allowed;
+	}
+}
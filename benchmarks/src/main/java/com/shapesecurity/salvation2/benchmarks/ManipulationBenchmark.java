@@ -0,0 +1,145 @@
+package com.shapesecurity.salvation2.benchmarks;
+
+import com.shapesecurity.salvation2.Directive;
+import com.shapesecurity.salvation2.Directives.SourceExpressionDirective;
+import com.shapesecurity.salvation2.FetchDirectiveKind;
+import com.shapesecurity.salvation2.ImmutablePolicy;
+import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.PolicyTemplate;
+import com.shapesecurity.salvation2.Values.Host;
+import com.shapesecurity.salvation2.Values.Nonce;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Each op makes a change and then undoes it, or makes it to a fresh copy, so the policy is the same at the start of every op.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ManipulationBenchmark {
+	private Policy policy;
+	private ImmutablePolicy immutable;
+	private PolicyTemplate template;
+	private byte[] buffer;
+	private SourceExpressionDirective scriptSrc;
+	private Host host;
+	private Nonce nonce;
+	private List<String> imgSrcValues;
+	private List<String> manyValues;
+	// A script-src with 1500 hosts, and every other one of them
+	private ImmutablePolicy manyHosts;
+	private List<Host> halfOfManyHosts;
+
+	@Setup
+	public void setup() {
+		StringBuilder serialized = new StringBuilder("default-src 'self'; script-src 'self' 'nonce-existing'");
+		for (int i = 0; i < 50; ++i) {
+			serialized.append(" https://cdn").append(i).append(".example.com/js/");
+		}
+		serialized.append("; style-src 'self' 'unsafe-inline'; report-uri /csp");
+		this.policy = Policy.parseSerializedCSP(serialized.toString(), Policy.PolicyErrorConsumer.ignored);
+		this.immutable = this.policy.toImmutable();
+		this.scriptSrc = this.policy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+		this.host = Host.parseHost("https://*.added.example.org:8443/path/").get();
+		this.nonce = Nonce.parseNonce("'nonce-cmFuZG9tbm9uY2V2YWx1ZQ=='").get();
+		this.imgSrcValues = Arrays.asList("'self'", "data:", "https://images.example.com");
+		this.manyValues = new ArrayList<>();
+		for (int i = 0; i < 100; ++i) {
+			this.manyValues.add("https://img" + i + ".example.com/images/");
+		}
+		StringBuilder manyHosts = new StringBuilder("script-src 'self'");
+		this.halfOfManyHosts = new ArrayList<>();
+		for (int i = 0; i < 1500; ++i) {
+			manyHosts.append(" https://cdn").append(i).append(".example.com");
+			if (i % 2 == 0) {
+				this.halfOfManyHosts.add(Host.parseHost("https://cdn" + i + ".example.com").get());
+			}
+		}
+		this.manyHosts = Policy.parseSerializedCSP(manyHosts.toString(), Policy.PolicyErrorConsumer.ignored).toImmutable();
+		this.template = new PolicyTemplate(this.policy, FetchDirectiveKind.ScriptSrc, FetchDirectiveKind.StyleSrc);
+		this.buffer = new byte[this.template.renderedLength(this.nonce.base64ValuePart.length())];
+	}
+
+	@Benchmark
+	public boolean addAndRemoveHost() {
+		this.scriptSrc.addHost(this.host, Directive.ManipulationErrorConsumer.ignored);
+		return this.scriptSrc.removeHost(this.host);
+	}
+
+	@Benchmark
+	public boolean removeManyHosts() {
+		Policy copy = this.manyHosts.mutableCopy();
+		return copy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().removeHosts(this.halfOfManyHosts);
+	}
+
+	@Benchmark
+	public boolean removeManyHostsOneByOne() {
+		Policy copy = this.manyHosts.mutableCopy();
+		SourceExpressionDirective directive = copy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+		boolean removed = false;
+		for (Host host : this.halfOfManyHosts) {
+			removed |= directive.removeHost(host);
+		}
+		return removed;
+	}
+
+	@Benchmark
+	public boolean addAndRemoveNonce() {
+		this.scriptSrc.addNonce(this.nonce, Directive.ManipulationErrorConsumer.ignored);
+		return this.scriptSrc.removeNonce(this.nonce);
+	}
+
+	@Benchmark
+	public boolean addAndRemoveDirective() {
+		this.policy.add("img-src", this.imgSrcValues, Directive.DirectiveErrorConsumer.ignored);
+		return this.policy.remove("img-src");
+	}
+
+	// Dominated by validating each value as it is added
+	@Benchmark
+	public boolean addAndRemoveDirectiveWithManyValues() {
+		this.policy.add("img-src", this.manyValues, Directive.DirectiveErrorConsumer.ignored);
+		return this.policy.remove("img-src");
+	}
+
+	@Benchmark
+	public String addNonceAndSerialize() {
+		this.scriptSrc.addNonce(this.nonce, Directive.ManipulationErrorConsumer.ignored);
+		String serialized = this.policy.toString();
+		this.scriptSrc.removeNonce(this.nonce);
+		return serialized;
+	}
+
+	// The per-request pattern: start from a shared snapshot, add this response's nonce and serialize
+	@Benchmark
+	public String copyAddNonceAndSerialize() {
+		Policy copy = this.immutable.mutableCopy();
+		copy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().addNonce(this.nonce, Directive.ManipulationErrorConsumer.ignored);
+		return copy.toString();
+	}
+
+	@Benchmark
+	public String renderTemplate() {
+		return this.template.render(this.nonce.base64ValuePart);
+	}
+
+	@Benchmark
+	public int renderTemplateToBytes() {
+		return this.template.renderTo(this.buffer, 0, this.nonce.base64ValuePart);
+	}
+}
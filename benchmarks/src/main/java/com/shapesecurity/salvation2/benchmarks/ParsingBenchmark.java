@@ -0,0 +1,145 @@
+package com.shapesecurity.salvation2.benchmarks;
+
+import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.PolicyCache;
+import com.shapesecurity.salvation2.PolicyList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Parses and serializes every header in the corpus; one op is one pass over the whole corpus.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParsingBenchmark {
+	private List<String> headers;
+	// The same headers as they arrive off the network
+	private List<byte[]> headerBytes;
+	private List<Policy> policies;
+	private String longestHeader;
+	// One script-src with as many host-sources as some generated policies have
+	private String manyHostsHeader;
+	private PolicyCache cache;
+	// Reused for every policy, as a pooled buffer would be
+	private ByteBuffer buffer;
+
+	@Setup
+	public void setup() {
+		this.headers = Corpus.headers();
+		this.policies = Corpus.policies();
+		this.headerBytes = new ArrayList<>();
+		for (String header : this.headers) {
+			this.headerBytes.add(header.getBytes(StandardCharsets.US_ASCII));
+		}
+		this.longestHeader = "";
+		for (String header : this.headers) {
+			if (header.length() > this.longestHeader.length()) {
+				this.longestHeader = header;
+			}
+		}
+		StringBuilder manyHosts = new StringBuilder("script-src 'self'");
+		for (int i = 0; i < 1500; ++i) {
+			manyHosts.append(" https://cdn").append(i).append(".example.com");
+		}
+		this.manyHostsHeader = manyHosts.toString();
+		this.cache = new PolicyCache(this.headers.size() * 2);
+		int longest = 0;
+		for (Policy policy : this.policies) {
+			longest = Math.max(longest, policy.serializedLength());
+		}
+		this.buffer = ByteBuffer.allocate(longest);
+	}
+
+	@Benchmark
+	public void parseCorpus(Blackhole blackhole) {
+		for (String header : this.headers) {
+			blackhole.consume(Policy.parseSerializedCSPList(header, Policy.PolicyListErrorConsumer.ignored));
+		}
+	}
+
+	// Compare with decoding each header into a String and parsing that, as callers had to before
+	@Benchmark
+	public void parseCorpusFromBytes(Blackhole blackhole) {
+		for (byte[] header : this.headerBytes) {
+			blackhole.consume(Policy.parseSerializedCSPList(header, 0, header.length, Policy.PolicyListErrorConsumer.ignored));
+		}
+	}
+
+	@Benchmark
+	public void parseCorpusFromBytesViaString(Blackhole blackhole) {
+		for (byte[] header : this.headerBytes) {
+			blackhole.consume(Policy.parseSerializedCSPList(new String(header, StandardCharsets.US_ASCII), Policy.PolicyListErrorConsumer.ignored));
+		}
+	}
+
+	@Benchmark
+	public int parseCorpusCollectingErrors() {
+		int[] count = {0};
+		for (String header : this.headers) {
+			Policy.parseSerializedCSPList(header, (severity, message, policyIndex, directiveIndex, valueIndex) -> ++count[0]);
+		}
+		return count[0];
+	}
+
+	// Skips the checks which can only produce warnings; compare with parseCorpusCollectingErrors
+	@Benchmark
+	public int parseCorpusCollectingOnlyErrors() {
+		int[] count = {0};
+		Policy.PolicyListErrorConsumer errors = Policy.PolicyListErrorConsumer.errorsOnly((severity, message, policyIndex, directiveIndex, valueIndex) -> ++count[0]);
+		for (String header : this.headers) {
+			Policy.parseSerializedCSPList(header, errors);
+		}
+		return count[0];
+	}
+
+	// After the first op every lookup is a hit
+	@Benchmark
+	public void parseCorpusCached(Blackhole blackhole) {
+		for (String header : this.headers) {
+			blackhole.consume(this.cache.parseSerializedCSPList(header, Policy.PolicyListErrorConsumer.ignored));
+		}
+	}
+
+	@Benchmark
+	public PolicyList parseLongestHeader() {
+		return Policy.parseSerializedCSPList(this.longestHeader, Policy.PolicyListErrorConsumer.ignored);
+	}
+
+	@Benchmark
+	public PolicyList parseManyHosts() {
+		return Policy.parseSerializedCSPList(this.manyHostsHeader, Policy.PolicyListErrorConsumer.ignored);
+	}
+
+	@Benchmark
+	public void serializeCorpus(Blackhole blackhole) {
+		for (Policy policy : this.policies) {
+			blackhole.consume(policy.toString());
+		}
+	}
+
+	@Benchmark
+	public void serializeCorpusToBuffer(Blackhole blackhole) {
+		for (Policy policy : this.policies) {
+			this.buffer.clear();
+			policy.writeTo(this.buffer);
+			blackhole.consume(this.buffer.position());
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.shapesecurity.salvation2.benchmarks;
+
+import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.Values.Scheme;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Measures the helpers which used to compile a regex on every call (whitespace stripping and splitting, scheme-source
+// matching); StaticPatternTest is what keeps them from doing so again. Run with `-prof gc` to see their allocation.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParsingHelpersBenchmark {
+	private String whitespaceHeavyPolicy;
+	private String schemeHeavyPolicy;
+	private Policy integrityPolicy;
+	private String integrity;
+
+	@Setup
+	public void setup() {
+		StringBuilder whitespace = new StringBuilder();
+		StringBuilder schemes = new StringBuilder("default-src");
+		for (int i = 0; i < 50; ++i) {
+			whitespace.append(" \t;  img-src\t a").append(i).append(".example.com  \f 'self' \r\n;");
+			schemes.append(" scheme").append(i).append(':');
+		}
+		this.whitespaceHeavyPolicy = whitespace.toString();
+		this.schemeHeavyPolicy = schemes.toString();
+
+		this.integrityPolicy = Policy.parseSerializedCSP("script-src 'sha256-47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU='", Policy.PolicyErrorConsumer.ignored);
+		this.integrity = "  sha256-47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=\tsha384-unknown \n sha512-unknown  ";
+	}
+
+	@Benchmark
+	public Policy parseWhitespaceHeavyPolicy() {
+		return Policy.parseSerializedCSP(this.whitespaceHeavyPolicy, Policy.PolicyErrorConsumer.ignored);
+	}
+
+	@Benchmark
+	public Policy parseSchemeHeavyPolicy() {
+		return Policy.parseSerializedCSP(this.schemeHeavyPolicy, Policy.PolicyErrorConsumer.ignored);
+	}
+
+	@Benchmark
+	public Optional<Scheme> parseScheme() {
+		return Scheme.parseScheme("https:");
+	}
+
+	@Benchmark
+	public boolean splitIntegrityMetadata() {
+		return this.integrityPolicy.allowsExternalScript(Optional.empty(), Optional.of(this.integrity), Optional.empty(), Optional.empty(), Optional.empty());
+	}
+}
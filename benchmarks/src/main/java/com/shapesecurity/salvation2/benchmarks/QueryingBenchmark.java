@@ -0,0 +1,315 @@
+package com.shapesecurity.salvation2.benchmarks;
+
+import com.shapesecurity.salvation2.FetchDirectiveKind;
+import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.PolicyInOrigin;
+import com.shapesecurity.salvation2.URLs.URI;
+import com.shapesecurity.salvation2.URLs.URLWithScheme;
+import com.shapesecurity.salvation2.Values.MediaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Runs each Policy.allows* check, and the PolicyInOrigin helpers, against every policy in the corpus.
+// One op is one pass over the corpus, so scores are comparable between benchmarks but not with per-call figures.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryingBenchmark {
+	private static final Optional<String> NONCE = Optional.of("abc123");
+	private static final Optional<String> INTEGRITY = Optional.of("sha256-47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=");
+	private static final Optional<String> SOURCE = Optional.of("console.log('hello, world');");
+
+	private Policy[] policies;
+	private PolicyInOrigin[] policiesInOrigin;
+	private Optional<URLWithScheme> origin;
+	private Optional<URLWithScheme> sameOrigin;
+	private Optional<URLWithScheme> crossOrigin;
+	private Optional<URLWithScheme> websocket;
+	private Optional<MediaType> mediaType;
+	private List<URLWithScheme> resourceUrls;
+
+	@Setup
+	public void setup() {
+		List<Policy> policies = Corpus.policies();
+		this.policies = policies.toArray(new Policy[0]);
+		this.origin = parseURI("https://www.example.com");
+		this.sameOrigin = parseURI("https://www.example.com/static/app.js");
+		this.crossOrigin = parseURI("https://cdn.example.net/lib/v1/lib.min.js");
+		this.websocket = parseURI("wss://www.example.com/socket");
+		this.mediaType = MediaType.parseMediaType("application/pdf");
+		this.resourceUrls = new ArrayList<>();
+		for (int i = 0; i < 1000; ++i) {
+			this.resourceUrls.add(parseURI("https://" + (i % 2 == 0 ? "www.example.com" : "cdn" + i + ".example.net") + "/assets/" + i + ".js").get());
+		}
+		this.policiesInOrigin = new PolicyInOrigin[this.policies.length];
+		for (int i = 0; i < this.policies.length; ++i) {
+			this.policiesInOrigin[i] = new PolicyInOrigin(this.policies[i], this.origin.get());
+		}
+	}
+
+	private static Optional<URLWithScheme> parseURI(String uri) {
+		return URI.parseURI(uri).map(u -> u);
+	}
+
+	@Benchmark
+	public int allowsExternalScript() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsExternalScript(NONCE, Optional.empty(), this.crossOrigin, Optional.of(true), this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsExternalScriptWithIntegrity() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsExternalScript(Optional.empty(), INTEGRITY, this.sameOrigin, Optional.of(false), this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsInlineScript() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsInlineScript(NONCE, SOURCE, Optional.of(true)) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsScriptAsAttribute() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsScriptAsAttribute(SOURCE) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsEval() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsEval() ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsNavigation() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsNavigation(this.crossOrigin, Optional.of(true), this.sameOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsFormAction() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsFormAction(this.sameOrigin, Optional.of(false), Optional.empty(), this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsJavascriptUrlNavigation() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsJavascriptUrlNavigation(SOURCE, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsExternalStyle() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsExternalStyle(NONCE, this.crossOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsInlineStyle() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsInlineStyle(NONCE, SOURCE) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsStyleAsAttribute() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsStyleAsAttribute(SOURCE) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsFrame() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsFrame(this.crossOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsFrameAncestor() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsFrameAncestor(this.crossOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsConnection() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsConnection(this.websocket, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsFont() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsFont(this.crossOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsImage() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsImage(this.crossOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsApplicationManifest() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsApplicationManifest(this.sameOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsMedia() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsMedia(this.crossOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsObject() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsObject(this.crossOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsPrefetch() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsPrefetch(this.crossOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsWorker() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsWorker(this.sameOrigin, this.origin) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int allowsPlugin() {
+		int allowed = 0;
+		for (Policy policy : this.policies) {
+			allowed += policy.allowsPlugin(this.mediaType) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int policyInOriginHelpers() {
+		URLWithScheme url = this.crossOrigin.get();
+		int allowed = 0;
+		for (PolicyInOrigin policy : this.policiesInOrigin) {
+			allowed += policy.allowsScriptFromSource(url) ? 1 : 0;
+			allowed += policy.allowsStyleFromSource(url) ? 1 : 0;
+			allowed += policy.allowsImageFromSource(url) ? 1 : 0;
+			allowed += policy.allowsFrameFromSource(url) ? 1 : 0;
+			allowed += policy.allowsWorkerFromSource(url) ? 1 : 0;
+			allowed += policy.allowsFontFromSource(url) ? 1 : 0;
+			allowed += policy.allowsObjectFromSource(url) ? 1 : 0;
+			allowed += policy.allowsMediaFromSource(url) ? 1 : 0;
+			allowed += policy.allowsManifestFromSource(url) ? 1 : 0;
+			allowed += policy.allowsPrefetchFromSource(url) ? 1 : 0;
+			allowed += policy.allowsUnsafeInlineScript() ? 1 : 0;
+			allowed += policy.allowsUnsafeInlineStyle() ? 1 : 0;
+			allowed += policy.allowsConnection(url) ? 1 : 0;
+			allowed += policy.allowsNavigation(url) ? 1 : 0;
+			allowed += policy.allowsFrameAncestor(url) ? 1 : 0;
+			allowed += policy.allowsFormAction(url) ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	// The next two check the same 1000 URLs against every policy, one at a time and as a batch
+	@Benchmark
+	public int scriptsOneByOne() {
+		int allowed = 0;
+		for (PolicyInOrigin policy : this.policiesInOrigin) {
+			for (URLWithScheme url : this.resourceUrls) {
+				allowed += policy.allowsScriptFromSource(url) ? 1 : 0;
+			}
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public int scriptsBatch() {
+		int allowed = 0;
+		for (PolicyInOrigin policy : this.policiesInOrigin) {
+			BitSet result = policy.allowsFromSources(FetchDirectiveKind.ScriptSrc, this.resourceUrls);
+			allowed += result.cardinality();
+		}
+		return allowed;
+	}
+}
@@ -0,0 +1,51 @@
+package com.shapesecurity.salvation2.benchmarks;
+
+import com.shapesecurity.salvation2.PolicyValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Validates the corpus repeated up to `size` headers with PolicyValidator over `parallelism` threads. With a parallelism
+// of 1 the headers are validated one at a time on the calling thread, which is the baseline for scaling. Scaling is only
+// visible with at least `parallelism` cores available to the benchmark.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidatorBenchmark {
+	@Param({"1", "2", "4", "8"})
+	public int parallelism;
+
+	@Param({"2000"})
+	public int size;
+
+	private List<String> headers;
+
+	@Setup
+	public void setup() {
+		List<String> corpus = Corpus.headers();
+		this.headers = new ArrayList<>(this.size);
+		for (int i = 0; i < this.size; ++i) {
+			this.headers.add(corpus.get(i % corpus.size()));
+		}
+	}
+
+	@Benchmark
+	public List<PolicyValidator.Result> validateAll() {
+		return PolicyValidator.validateAll(this.headers, this.parallelism);
+	}
+}
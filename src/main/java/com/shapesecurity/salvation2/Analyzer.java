@@ -0,0 +1,574 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Directives.SourceExpressionDirective;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Aggregate statistics over serialized CSP lists, one per line, such as the Content-Security-Policy headers extracted from
+// an access log:
+//   java -jar salvation2.jar [--threads N] [--max-distinct N] [--max-line-length N] [--summary-only] [FILE...]
+// Reads standard input if no files are given. Each distinct header is parsed once, on one of `threads` threads, and
+// described by a JSON line as soon as it has been parsed. A final JSON line summarizes the whole input, counting every
+// line: how often each error and warning occurred, how often each directive was used, and how many headers use
+// 'unsafe-inline' or 'unsafe-eval'.
+// Memory use depends on the options rather than the size of the input. Lines longer than maxLineLength are counted and
+// skipped. Headers are remembered by a 128-bit digest, plus what their analysis added to the summary, so each costs a
+// small fixed amount however long it is; once maxDistinct headers are remembered, further new headers are still parsed
+// and counted but not deduplicated, so may be described more than once.
+public final class Analyzer {
+	// Beyond this many distinct messages or directive names, further ones are only counted in total
+	static final int MAX_DISTINCT_MESSAGES = 10_000;
+	static final int MAX_DISTINCT_DIRECTIVES = 1_000;
+
+	private final int threads;
+	private final int maxDistinct;
+	private final int maxLineLength;
+	private final boolean summaryOnly;
+
+	public Analyzer(int threads, int maxDistinct, int maxLineLength, boolean summaryOnly) {
+		if (threads < 1 || maxDistinct < 0 || maxLineLength < 1) {
+			throw new IllegalArgumentException("threads and maxLineLength must be positive, and maxDistinct non-negative");
+		}
+		this.threads = threads;
+		this.maxDistinct = maxDistinct;
+		this.maxLineLength = maxLineLength;
+		this.summaryOnly = summaryOnly;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int maxDistinct = 1_000_000;
+		int maxLineLength = 64 * 1024;
+		boolean summaryOnly = false;
+		List<String> files = new ArrayList<>();
+		for (int i = 0; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "--max-distinct":
+					maxDistinct = Integer.parseInt(args[++i]);
+					break;
+				case "--max-line-length":
+					maxLineLength = Integer.parseInt(args[++i]);
+					break;
+				case "--summary-only":
+					summaryOnly = true;
+					break;
+				default:
+					files.add(args[i]);
+					break;
+			}
+		}
+
+		List<ReadableByteChannel> inputs = new ArrayList<>();
+		if (files.isEmpty()) {
+			inputs.add(Channels.newChannel(System.in));
+		}
+		try {
+			for (String file : files) {
+				inputs.add(FileChannel.open(Paths.get(file), StandardOpenOption.READ));
+			}
+		} catch (IOException | RuntimeException e) {
+			closeAll(inputs, e);
+			throw e;
+		}
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		new Analyzer(threads, maxDistinct, maxLineLength, summaryOnly).analyze(inputs, out);
+		out.flush();
+	}
+
+	// Reads each input to its end and writes the results to `out`. Every input is closed, even if this throws.
+	public void analyze(@Nonnull List<? extends ReadableByteChannel> inputs, @Nonnull Writer out) throws IOException, InterruptedException {
+		Summary summary = new Summary();
+		// Only touched by this thread; each Entry's contribution is filled in by a worker
+		Map<LineDigest, Entry> seen = new HashMap<>();
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support MD5
+			closeAll(inputs, e);
+			throw new RuntimeException("unreachable", e);
+		}
+		// Bounds the number of lines waiting to be parsed, and hence memory, when parsing cannot keep up with reading
+		Semaphore pending = new Semaphore(this.threads * 256);
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads, runnable -> {
+			Thread thread = new Thread(runnable, "salvation2-analyzer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// The first failure in a worker, whether writing a result or analyzing a header, rethrown once the workers are done
+		Exception[] failure = { null };
+		long lineNumber = 0;
+		try {
+			for (ReadableByteChannel input : inputs) {
+				try (LineReader reader = new LineReader(input, this.maxLineLength)) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						++lineNumber;
+						if (line == LineReader.TOO_LONG) {
+							++summary.tooLongLines;
+							continue;
+						}
+						if (line.isEmpty()) {
+							++summary.blankLines;
+							continue;
+						}
+						LineDigest digest = LineDigest.of(md5, line);
+						Entry entry = seen.get(digest);
+						if (entry != null) {
+							++entry.repeats;
+							continue;
+						}
+						entry = new Entry(lineNumber);
+						boolean remembered = seen.size() < this.maxDistinct;
+						if (remembered) {
+							seen.put(digest, entry);
+						} else {
+							++summary.notDeduplicated;
+						}
+						pending.acquire();
+						String header = line;
+						Entry finalEntry = entry;
+						executor.execute(() -> {
+							try {
+								Analysis analysis = Analysis.of(header);
+								Contribution contribution = summary.add(analysis);
+								if (remembered) {
+									finalEntry.contribution = contribution;
+								}
+								if (!this.summaryOnly) {
+									String json = analysis.toJson(finalEntry.line, header);
+									synchronized (out) {
+										out.write(json);
+										out.write('\n');
+									}
+								}
+							} catch (IOException | RuntimeException e) {
+								synchronized (failure) {
+									if (failure[0] == null) {
+										failure[0] = e;
+									}
+								}
+							} finally {
+								pending.release();
+							}
+						});
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			// Those read to the end are already closed, which makes closing them again a no-op
+			closeAll(inputs, null);
+		}
+
+		// awaitTermination makes every contribution and failure visible here
+		if (failure[0] instanceof IOException) {
+			throw (IOException) failure[0];
+		} else if (failure[0] != null) {
+			throw (RuntimeException) failure[0];
+		}
+		summary.lines = lineNumber;
+		summary.distinct = seen.size();
+		for (Entry entry : seen.values()) {
+			if (entry.repeats > 0) {
+				summary.addAgain(entry.contribution, entry.repeats);
+			}
+		}
+		synchronized (out) {
+			out.write(summary.toJson());
+			out.write('\n');
+			out.flush();
+		}
+	}
+
+
+	// Closes every channel, adding failures to `failure` if there is one and otherwise throwing the first
+	private static void closeAll(List<? extends ReadableByteChannel> channels, Exception failure) throws IOException {
+		IOException first = null;
+		for (ReadableByteChannel channel : channels) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				if (failure != null) {
+					failure.addSuppressed(e);
+				} else if (first == null) {
+					first = e;
+				} else {
+					first.addSuppressed(e);
+				}
+			}
+		}
+		if (first != null) {
+			throw first;
+		}
+	}
+
+
+	private static final class Entry {
+		// The first line on which the header appeared
+		final long line;
+		// How many more lines it appeared on; only touched by the reading thread
+		long repeats = 0;
+		// Set by the worker once the header has been added to the summary
+		volatile Contribution contribution = null;
+
+		Entry(long line) {
+			this.line = line;
+		}
+	}
+
+	// An MD5 digest of a line, which stands in for the line as a key in `seen`. Two distinct headers colliding would
+	// take far more lines than any log has.
+	private static final class LineDigest {
+		final long high;
+		final long low;
+
+		private LineDigest(long high, long low) {
+			this.high = high;
+			this.low = low;
+		}
+
+		static LineDigest of(MessageDigest md5, String line) {
+			ByteBuffer digest = ByteBuffer.wrap(md5.digest(line.getBytes(StandardCharsets.ISO_8859_1)));
+			return new LineDigest(digest.getLong(), digest.getLong());
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof LineDigest)) return false;
+			LineDigest that = (LineDigest) o;
+			return this.high == that.high && this.low == that.low;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) this.low;
+		}
+	}
+
+	// What one analysis added to a Summary, so that later copies of the same header can be counted without keeping the
+	// analysis itself: the number of policies, and the counters which were each incremented once
+	private static final class Contribution {
+		final int policies;
+		final long[][] counters;
+
+		Contribution(int policies, long[][] counters) {
+			this.policies = policies;
+			this.counters = counters;
+		}
+	}
+
+	private static final class Message {
+		final Policy.Severity severity;
+		final String message;
+
+		Message(Policy.Severity severity, String message) {
+			this.severity = severity;
+			this.message = message;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Message)) return false;
+			Message that = (Message) o;
+			return this.severity == that.severity && this.message.equals(that.message);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.severity.hashCode() + this.message.hashCode();
+		}
+	}
+
+	// What is reported for one header
+	private static final class Analysis {
+		final int policies;
+		final List<Message> messages;
+		// Each name at most once
+		final Set<String> directives;
+		final boolean scriptUnsafeInline;
+		final boolean styleUnsafeInline;
+		final boolean unsafeEval;
+
+		private Analysis(int policies, List<Message> messages, Set<String> directives, boolean scriptUnsafeInline, boolean styleUnsafeInline, boolean unsafeEval) {
+			this.policies = policies;
+			this.messages = messages;
+			this.directives = directives;
+			this.scriptUnsafeInline = scriptUnsafeInline;
+			this.styleUnsafeInline = styleUnsafeInline;
+			this.unsafeEval = unsafeEval;
+		}
+
+		static Analysis of(String header) {
+			List<Message> messages = new ArrayList<>();
+			PolicyList list;
+			try {
+				list = Policy.parseSerializedCSPList(header, (severity, message, policyIndex, directiveIndex, valueIndex) -> messages.add(new Message(severity, message)));
+			} catch (IllegalArgumentException e) {
+				// e.g. the header is not ASCII
+				messages.add(new Message(Policy.Severity.Error, e.getMessage()));
+				list = new PolicyList(Collections.emptyList());
+			}
+			Set<String> directives = new LinkedHashSet<>();
+			boolean scriptUnsafeInline = false;
+			boolean styleUnsafeInline = false;
+			boolean unsafeEval = false;
+			for (Policy policy : list.policies) {
+				directives.addAll(policy.directiveNames());
+				scriptUnsafeInline |= hasUnsafeInline(policy, FetchDirectiveKind.ScriptSrcElem);
+				styleUnsafeInline |= hasUnsafeInline(policy, FetchDirectiveKind.StyleSrcElem);
+				Optional<SourceExpressionDirective> script = policy.getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.ScriptSrc);
+				unsafeEval |= script.isPresent() && script.get().unsafeEval();
+			}
+			return new Analysis(list.policies.size(), messages, directives, scriptUnsafeInline, styleUnsafeInline, unsafeEval);
+		}
+
+		private static boolean hasUnsafeInline(Policy policy, FetchDirectiveKind kind) {
+			Optional<SourceExpressionDirective> directive = policy.getGoverningDirectiveForEffectiveDirective(kind);
+			return directive.isPresent() && directive.get().unsafeInline();
+		}
+
+		String toJson(long line, String header) {
+			StringBuilder out = new StringBuilder();
+			out.append("{\"line\":").append(line).append(",\"header\":");
+			appendJsonString(out, header);
+			out.append(",\"policies\":").append(this.policies).append(",\"directives\":[");
+			boolean first = true;
+			for (String directive : this.directives) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				appendJsonString(out, directive);
+			}
+			out.append("],\"scriptUnsafeInline\":").append(this.scriptUnsafeInline)
+				.append(",\"styleUnsafeInline\":").append(this.styleUnsafeInline)
+				.append(",\"unsafeEval\":").append(this.unsafeEval)
+				.append(",\"messages\":[");
+			for (int i = 0; i < this.messages.size(); ++i) {
+				if (i > 0) {
+					out.append(',');
+				}
+				Message message = this.messages.get(i);
+				out.append("{\"severity\":\"").append(message.severity.name()).append("\",\"message\":");
+				appendJsonString(out, message.message);
+				out.append('}');
+			}
+			return out.append("]}").toString();
+		}
+	}
+
+	// Counts over the whole input, weighting each header by the number of lines it appeared on.
+	// Each count is a one-element array, so that a Contribution can refer to the ones an analysis incremented.
+	private static final class Summary {
+		long lines = 0;
+		long blankLines = 0;
+		long tooLongLines = 0;
+		long distinct = 0;
+		long notDeduplicated = 0;
+		private long policies = 0;
+		private final long[] scriptUnsafeInline = { 0 };
+		private final long[] styleUnsafeInline = { 0 };
+		private final long[] unsafeEval = { 0 };
+		private final long[] otherMessages = { 0 };
+		private final long[] otherDirectives = { 0 };
+		private final Map<String, long[]> directives = new TreeMap<>();
+		private final Map<Message, long[]> messages = new HashMap<>();
+
+		synchronized Contribution add(Analysis analysis) {
+			List<long[]> counters = new ArrayList<>();
+			if (analysis.scriptUnsafeInline) {
+				counters.add(this.scriptUnsafeInline);
+			}
+			if (analysis.styleUnsafeInline) {
+				counters.add(this.styleUnsafeInline);
+			}
+			if (analysis.unsafeEval) {
+				counters.add(this.unsafeEval);
+			}
+			for (String directive : analysis.directives) {
+				long[] counter = this.directives.get(directive);
+				if (counter == null) {
+					if (this.directives.size() < MAX_DISTINCT_DIRECTIVES) {
+						counter = new long[1];
+						this.directives.put(directive, counter);
+					} else {
+						counter = this.otherDirectives;
+					}
+				}
+				counters.add(counter);
+			}
+			for (Message message : analysis.messages) {
+				long[] counter = this.messages.get(message);
+				if (counter == null) {
+					if (this.messages.size() < MAX_DISTINCT_MESSAGES) {
+						counter = new long[1];
+						this.messages.put(message, counter);
+					} else {
+						counter = this.otherMessages;
+					}
+				}
+				counters.add(counter);
+			}
+			Contribution contribution = new Contribution(analysis.policies, counters.toArray(new long[0][]));
+			this.addAgain(contribution, 1);
+			return contribution;
+		}
+
+		synchronized void addAgain(Contribution contribution, long count) {
+			this.policies += contribution.policies * count;
+			for (long[] counter : contribution.counters) {
+				counter[0] += count;
+			}
+		}
+
+		synchronized String toJson() {
+			StringBuilder out = new StringBuilder();
+			out.append("{\"summary\":{\"lines\":").append(this.lines)
+				.append(",\"blankLines\":").append(this.blankLines)
+				.append(",\"tooLongLines\":").append(this.tooLongLines)
+				.append(",\"distinct\":").append(this.distinct)
+				.append(",\"notDeduplicated\":").append(this.notDeduplicated)
+				.append(",\"policies\":").append(this.policies)
+				.append(",\"scriptUnsafeInline\":").append(this.scriptUnsafeInline[0])
+				.append(",\"styleUnsafeInline\":").append(this.styleUnsafeInline[0])
+				.append(",\"unsafeEval\":").append(this.unsafeEval[0])
+				.append(",\"directives\":{");
+			boolean first = true;
+			for (Map.Entry<String, long[]> directive : this.directives.entrySet()) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				appendJsonString(out, directive.getKey());
+				out.append(':').append(directive.getValue()[0]);
+			}
+			out.append("},\"otherDirectives\":").append(this.otherDirectives[0]).append(",\"messages\":[");
+			// Most frequent first
+			List<Map.Entry<Message, long[]>> messages = new ArrayList<>(this.messages.entrySet());
+			messages.sort((a, b) -> {
+				int byCount = Long.compare(b.getValue()[0], a.getValue()[0]);
+				return byCount != 0 ? byCount : a.getKey().message.compareTo(b.getKey().message);
+			});
+			for (int i = 0; i < messages.size(); ++i) {
+				if (i > 0) {
+					out.append(',');
+				}
+				Message message = messages.get(i).getKey();
+				out.append("{\"severity\":\"").append(message.severity.name()).append("\",\"message\":");
+				appendJsonString(out, message.message);
+				out.append(",\"count\":").append(messages.get(i).getValue()[0]).append('}');
+			}
+			return out.append("],\"otherMessages\":").append(this.otherMessages[0]).append("}}").toString();
+		}
+	}
+
+	// https://tools.ietf.org/html/rfc8259#section-7
+	static void appendJsonString(StringBuilder out, String value) {
+		out.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	// Splits a channel into lines on `\n`, dropping a trailing `\r`. Bytes are read as ISO-8859-1, so that non-ASCII
+	// headers are reported by the parser rather than failing to decode.
+	static final class LineReader implements AutoCloseable {
+		// Returned in place of a line longer than the limit, compared by identity
+		static final String TOO_LONG = new String("(line too long)");
+
+		private final ReadableByteChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		private final int maxLineLength;
+		private final StringBuilder line = new StringBuilder();
+		private boolean tooLong = false;
+		private boolean eof = false;
+
+		LineReader(ReadableByteChannel channel, int maxLineLength) {
+			this.channel = channel;
+			this.maxLineLength = maxLineLength;
+			this.buffer.flip();
+		}
+
+		// Returns null at the end of the input
+		String readLine() throws IOException {
+			while (true) {
+				while (this.buffer.hasRemaining()) {
+					byte b = this.buffer.get();
+					if (b == '\n') {
+						return this.takeLine();
+					}
+					if (this.line.length() < this.maxLineLength + 1) {
+						// One extra char is kept, since a `\r` before the `\n` does not count towards the limit
+						this.line.append((char) (b & 0xFF));
+					} else {
+						this.tooLong = true;
+					}
+				}
+				if (this.eof) {
+					return this.line.length() > 0 || this.tooLong ? this.takeLine() : null;
+				}
+				this.buffer.clear();
+				this.eof = this.channel.read(this.buffer) == -1;
+				this.buffer.flip();
+			}
+		}
+
+		private String takeLine() {
+			int length = this.line.length();
+			if (length > 0 && this.line.charAt(length - 1) == '\r') {
+				--length;
+			}
+			boolean tooLong = this.tooLong || length > this.maxLineLength;
+			String result = tooLong ? TOO_LONG : this.line.substring(0, length);
+			this.line.setLength(0);
+			this.tooLong = false;
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.channel.close();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.shapesecurity.salvation2;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+// Puts each char appended as one byte, which is only correct for ASCII, as policies are by construction.
+// Strings go straight into the backing array of a heap buffer, so the serialization is never copied; other buffers are
+// filled through a small scratch array, since putting them one byte at a time is several times slower.
+final class AsciiByteBufferAppendable implements Appendable {
+	private static final int SCRATCH_SIZE = 256;
+
+	private final ByteBuffer out;
+	private byte[] scratch = null;
+
+	AsciiByteBufferAppendable(ByteBuffer out) {
+		this.out = out;
+	}
+
+	@Override
+	public Appendable append(CharSequence csq) {
+		return this.append(csq, 0, csq.length());
+	}
+
+	@Override
+	@SuppressWarnings("deprecation") // String.getBytes(int, int, byte[], int) drops the high byte of each char, which is exactly right for ASCII
+	public Appendable append(CharSequence csq, int start, int end) {
+		ByteBuffer out = this.out;
+		int length = end - start;
+		if (length > out.remaining()) {
+			throw new BufferOverflowException();
+		}
+		if (!(csq instanceof String)) {
+			for (int i = start; i < end; ++i) {
+				out.put((byte) csq.charAt(i));
+			}
+		} else if (out.hasArray()) {
+			((String) csq).getBytes(start, end, out.array(), out.arrayOffset() + out.position());
+			out.position(out.position() + length);
+		} else {
+			if (this.scratch == null) {
+				this.scratch = new byte[SCRATCH_SIZE];
+			}
+			for (int chunkStart = start; chunkStart < end; chunkStart += SCRATCH_SIZE) {
+				int chunkEnd = Math.min(end, chunkStart + SCRATCH_SIZE);
+				((String) csq).getBytes(chunkStart, chunkEnd, this.scratch, 0);
+				out.put(this.scratch, 0, chunkEnd - chunkStart);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public Appendable append(char c) {
+		this.out.put((byte) c);
+		return this;
+	}
+}
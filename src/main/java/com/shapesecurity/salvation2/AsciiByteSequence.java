@@ -0,0 +1,74 @@
+package com.shapesecurity.salvation2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A view of bytes as the chars they would decode to as ISO-8859-1, which for the ASCII bytes a policy is made of is also
+// what they decode to as ASCII or UTF-8. Non-ASCII bytes come out as chars >= 128, so the usual isAscii check rejects
+// them. Lets the parser read a header where it arrived rather than copying it into a String first: subSequence copies
+// out just the token asked for, as a String, which is all the parser keeps.
+final class AsciiByteSequence implements CharSequence {
+	// Exactly one of `array` and `buffer` is set; direct buffers have no array to index into
+	private final byte[] array;
+	private final ByteBuffer buffer;
+	private final int offset;
+	private final int length;
+
+	AsciiByteSequence(byte[] array, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > array.length - length) {
+			throw new IndexOutOfBoundsException("offset " + offset + " and length " + length + " do not fit in " + array.length + " bytes");
+		}
+		this.array = array;
+		this.buffer = null;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	// The remaining bytes of `buffer`; its position is not changed, and the view is only valid until the buffer's contents change
+	AsciiByteSequence(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			this.array = buffer.array();
+			this.buffer = null;
+			this.offset = buffer.arrayOffset() + buffer.position();
+		} else {
+			this.array = null;
+			this.buffer = buffer;
+			this.offset = buffer.position();
+		}
+		this.length = buffer.remaining();
+	}
+
+	@Override
+	public int length() {
+		return this.length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= this.length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + this.length);
+		}
+		return (char) ((this.array != null ? this.array[this.offset + index] : this.buffer.get(this.offset + index)) & 0xFF);
+	}
+
+	// A String rather than another view, since every token the parser takes becomes one anyway
+	@Override
+	public String subSequence(int start, int end) {
+		if (start < 0 || start > end || end > this.length) {
+			throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + this.length);
+		}
+		if (this.array != null) {
+			return new String(this.array, this.offset + start, end - start, StandardCharsets.ISO_8859_1);
+		}
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = this.buffer.get(this.offset + start + i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	@Override
+	public String toString() {
+		return this.subSequence(0, this.length);
+	}
+}
@@ -7,6 +7,8 @@ public class Constants {
 	// https://tools.ietf.org/html/rfc3986#section-3.1
 	public static final String schemePart = "[a-zA-Z][a-zA-Z0-9+\\-.]*";
 	public static final Pattern schemePattern = Pattern.compile("^(" + Constants.schemePart + ":)");
+	// https://w3c.github.io/webappsec-csp/#grammardef-scheme-source
+	public static final Pattern schemeSourcePattern = Pattern.compile("^" + Constants.schemePart + ":$");
 
 	// https://tools.ietf.org/html/rfc7230#section-3.2.6
 	public static final Pattern rfc7230TokenPattern = Pattern.compile("^[!#$%&'*+\\-.^_`|~0-9a-zA-Z]+$");
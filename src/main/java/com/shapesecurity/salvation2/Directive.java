@@ -1,40 +1,55 @@
 package com.shapesecurity.salvation2;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
 
 public class Directive {
-	private static final Pattern DIRECTIVE_NAME_PATTERN = Pattern.compile("^[A-Za-z0-9\\-]+$");
-	public static Predicate<String> IS_DIRECTIVE_NAME = s -> DIRECTIVE_NAME_PATTERN.matcher(s).matches();
-	private static final Pattern NON_DIRECTIVE_CHAR_PATTERN = Pattern.compile("[" + Constants.WHITESPACE_CHARS + ",;]");
-	public static Predicate<String> containsNonDirectiveCharacter =  s -> NON_DIRECTIVE_CHAR_PATTERN.matcher(s).matches();
+	public static Predicate<String> IS_DIRECTIVE_NAME = Utils::isDirectiveName;
+	public static Predicate<String> containsNonDirectiveCharacter = Utils::containsNonDirectiveCharacter;
 	protected List<String> values;
+	// Set on directives belonging to an ImmutablePolicy, which may be shared between policies and threads
+	private boolean frozen = false;
+	// `values` as they appear in a serialized policy; built lazily and discarded by checkNotFrozen, i.e. whenever the
+	// directive is about to change
+	private String serializedValues = null;
 
 	protected static DirectiveErrorConsumer wrapManipulationErrorConsumer(ManipulationErrorConsumer errors) {
-		return (severity, message, valueIndex) -> {
-			switch (severity) {
-				case Info:
-					errors.add(ManipulationErrorConsumer.Severity.Info, message);
-					break;
-				case Warning:
-					errors.add(ManipulationErrorConsumer.Severity.Warning, message);
-					break;
-				case Error:
-					throw new RuntimeException(message);
-				default:
-					throw new RuntimeException("unreachable: unknown severity " + severity);
+		return new DirectiveErrorConsumer() {
+			@Override
+			public void add(Policy.Severity severity, String message, int valueIndex) {
+				switch (severity) {
+					case Info:
+						errors.add(ManipulationErrorConsumer.Severity.Info, message);
+						break;
+					case Warning:
+						errors.add(ManipulationErrorConsumer.Severity.Warning, message);
+						break;
+					case Error:
+						throw new RuntimeException(message);
+					default:
+						throw new RuntimeException("unreachable: unknown severity " + severity);
+				}
+			}
+
+			@Override
+			public void add(ErrorCode code, @Nullable Object argument, int valueIndex) {
+				// Errors throw even when the caller ignores everything else
+				if (code.severity == Policy.Severity.Error) {
+					throw new RuntimeException(code.format(argument));
+				}
+				errors.add(code, argument);
 			}
 		};
 	}
 
 	protected void addValue(String value) {
+		this.checkNotFrozen();
 		Policy.enforceAscii(value);
-		if (containsNonDirectiveCharacter.test(value)) {
+		if (Utils.containsNonDirectiveCharacter(value)) {
 			throw new IllegalArgumentException("values must not contain whitespace, ',', or ';'");
 		}
 		if (value.isEmpty()) {
@@ -44,7 +59,7 @@ public class Directive {
 	}
 
 	public List<String> getValues() {
-		return Collections.unmodifiableList(this.values);
+		return this.readOnly(this.values);
 	}
 
 	protected Directive(List<String> values) {
@@ -55,16 +70,71 @@ public class Directive {
 		}
 	}
 
-	protected void removeValueIgnoreCase(String value) {
-		String lowcaseValue = value.toLowerCase(Locale.ENGLISH);
-		// Could we use some fancy data structure to avoid the linear indexing here? Yes, probably. But in practice these are short lists, and iterating them is not that expensive.
-		ArrayList<String> copy = new ArrayList<>(this.values.size());
-		for (String existing : this.values) {
-			if (!existing.toLowerCase(Locale.ENGLISH).equals(lowcaseValue)) {
-				copy.add(existing);
-			}
+	// Copies are never frozen
+	protected Directive(Directive other) {
+		this.values = new ArrayList<>(other.values);
+		this.serializedValues = other.serializedValues;
+	}
+
+	// Every subclass must override this to return an instance of its own class
+	protected Directive copy() {
+		return new Directive(this);
+	}
+
+	final boolean isFrozen() {
+		return this.frozen;
+	}
+
+	final void freeze() {
+		this.frozen = true;
+		this.compact();
+	}
+
+	// Called once, on freezing: the directive will never change again, so whatever only mutation needs can go, and the
+	// rest can be trimmed to size. Frozen directives are the ones caches keep, often by the hundred thousand.
+	// Overrides must call super.
+	protected void compact() {
+		this.values = compactList(this.values);
+	}
+
+	// The same elements with no spare capacity and no index for duplicate checks, or the shared empty list if there are
+	// none. Either way the result cannot be modified; only for lists which will never need to be again.
+	protected static <T> List<T> compactList(List<T> list) {
+		if (list.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return new FrozenList<>(list.toArray());
+	}
+
+	// One of this directive's lists, as its getter returns it. Those of frozen directives have been compacted, so cannot
+	// be modified and need no wrapper.
+	protected final <T> List<T> readOnly(List<T> list) {
+		return this.frozen ? list : Collections.unmodifiableList(list);
+	}
+
+	// Called at the start of every public method which modifies the directive, before any state is changed
+	protected final void checkNotFrozen() {
+		if (this.frozen) {
+			throw new UnsupportedOperationException("This directive belongs to an ImmutablePolicy and cannot be modified; use Policy.mutableCopy() to get a policy which can be");
 		}
-		this.values = copy;
+		this.serializedValues = null;
+	}
+
+	// The values joined by single spaces
+	String serializedValues() {
+		String serializedValues = this.serializedValues;
+		if (serializedValues == null) {
+			// Strings are immutable, so racing readers of a shared directive at worst build this more than once
+			serializedValues = String.join(" ", this.values);
+			this.serializedValues = serializedValues;
+		}
+		return serializedValues;
+	}
+
+	protected void removeValueIgnoreCase(String value) {
+		this.checkNotFrozen();
+		// One pass, in place, without lowercasing every value
+		this.values.removeIf(existing -> Utils.asciiEqualsIgnoreCase(existing, value));
 	}
 
 
@@ -72,14 +142,53 @@ public class Directive {
 	public interface DirectiveErrorConsumer {
 		void add(Policy.Severity severity, String message, int valueIndex); // index = -1 for errors not pertaining to a value
 
-		DirectiveErrorConsumer ignored = (severity, message, valueIndex) -> {};
+		// This is what the parser calls; override it to get the code rather than the message
+		default void add(ErrorCode code, @Nullable Object argument, int valueIndex) {
+			this.add(code.severity, code.format(argument), valueIndex);
+		}
+
+		// True if Info and Warning reports are discarded, in which case the parser skips the checks which can only
+		// produce those. Checks which also decide what goes in the parsed policy, like duplicate detection, always run.
+		default boolean ignoresWarnings() {
+			return false;
+		}
+
+		DirectiveErrorConsumer ignored = new DirectiveErrorConsumer() {
+			@Override
+			public void add(Policy.Severity severity, String message, int valueIndex) {
+			}
+
+			@Override
+			public void add(ErrorCode code, @Nullable Object argument, int valueIndex) {
+				// Skips formatting the message
+			}
+
+			@Override
+			public boolean ignoresWarnings() {
+				return true;
+			}
+		};
 	}
 
 	@FunctionalInterface
 	public interface ManipulationErrorConsumer {
 		void add(Severity severity, String message);
 
-		ManipulationErrorConsumer ignored = (severity, message) -> {};
+		// Only called with codes of severity Info or Warning; override it to get the code rather than the message
+		default void add(ErrorCode code, @Nullable Object argument) {
+			this.add(code.severity == Policy.Severity.Info ? Severity.Info : Severity.Warning, code.format(argument));
+		}
+
+		ManipulationErrorConsumer ignored = new ManipulationErrorConsumer() {
+			@Override
+			public void add(Severity severity, String message) {
+			}
+
+			@Override
+			public void add(ErrorCode code, @Nullable Object argument) {
+				// Skips formatting the message
+			}
+		};
 
 		// Info: strictly informative
 		// Warning: it matches the grammar, but is meaningless, duplicated, or otherwise problematic
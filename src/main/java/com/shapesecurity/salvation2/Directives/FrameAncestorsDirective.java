@@ -1,6 +1,6 @@
 package com.shapesecurity.salvation2.Directives;
 
-import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.ErrorCode;
 
 import java.util.List;
 import java.util.Locale;
@@ -12,15 +12,25 @@ public class FrameAncestorsDirective extends HostSourceDirective {
 		int index = 0;
 		for (String token : values) {
 			String lowcaseToken = token.toLowerCase(Locale.ENGLISH);
-			this._addHostOrSchemeDuringConstruction(token, lowcaseToken, "ancestor-source", index, errors);
+			this._addHostOrSchemeDuringConstruction(token, lowcaseToken, ErrorCode.DUPLICATE_ANCESTOR_SOURCE, ErrorCode.UNRECOGNIZED_ANCESTOR_SOURCE, index, errors);
+			++index;
 		}
 
 		if (this.none != null && values.size() > 1) {
-			errors.add(Policy.Severity.Error, "'none' must not be combined with any other ancestor-source", index);
+			errors.add(ErrorCode.NONE_COMBINED_WITH_ANCESTOR_SOURCE, null, 0);
 		}
 
 		if (values.isEmpty()) {
-			errors.add(Policy.Severity.Error, "Ancestor-source lists cannot be empty (use 'none' instead)", -1);
+			errors.add(ErrorCode.EMPTY_ANCESTOR_SOURCE_LIST, null, -1);
 		}
 	}
+
+	protected FrameAncestorsDirective(FrameAncestorsDirective other) {
+		super(other);
+	}
+
+	@Override
+	protected FrameAncestorsDirective copy() {
+		return new FrameAncestorsDirective(this);
+	}
 }
@@ -0,0 +1,185 @@
+package com.shapesecurity.salvation2.Directives;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+// An ArrayList which, once it holds more than a few elements, also keeps a HashSet of them, so that `contains` and
+// `indexOf` of a missing element are constant-time. Source lists are usually short, where scanning the array beats
+// hashing, but generated policies can have thousands of host-sources, and the duplicate check for each new value would
+// otherwise make parsing quadratic.
+// The set is only changed by mutations, never by reads, so instances are as safe to share as an ArrayList.
+final class HashedArrayList<T> extends AbstractList<T> implements RandomAccess {
+	static final int THRESHOLD = 16;
+	private static final Object[] EMPTY = {};
+
+	// The elements are kept here rather than in a wrapped ArrayList to save an object per list, since every parsed
+	// source list has several of these and most stay empty
+	private Object[] elements;
+	private int size = 0;
+	// null until the list grows past THRESHOLD
+	private HashSet<T> set = null;
+
+	HashedArrayList() {
+		this.elements = EMPTY;
+	}
+
+	HashedArrayList(Collection<? extends T> other) {
+		this.elements = other.toArray();
+		this.size = this.elements.length;
+		if (this.size > THRESHOLD) {
+			this.set = new HashSet<>(other);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		this.checkIndex(index, this.size);
+		return (T) this.elements[index];
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		HashSet<T> set = this.set;
+		return set == null ? this.scan(o) != -1 : set.contains(o);
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		HashSet<T> set = this.set;
+		if (set != null && !set.contains(o)) {
+			return -1;
+		}
+		return this.scan(o);
+	}
+
+	@Override
+	public void add(int index, T element) {
+		this.checkIndex(index, this.size + 1);
+		if (this.size == this.elements.length) {
+			this.elements = Arrays.copyOf(this.elements, Math.max(4, this.size + (this.size >> 1)));
+		}
+		System.arraycopy(this.elements, index, this.elements, index + 1, this.size - index);
+		this.elements[index] = element;
+		++this.size;
+		if (this.set != null) {
+			this.set.add(element);
+		} else if (this.size > THRESHOLD) {
+			this.set = new HashSet<>(this);
+		}
+		++this.modCount;
+	}
+
+	@Override
+	public T set(int index, T element) {
+		T previous = this.get(index);
+		this.elements[index] = element;
+		if (this.set != null) {
+			this.forget(previous);
+			this.set.add(element);
+		}
+		return previous;
+	}
+
+	@Override
+	public T remove(int index) {
+		T removed = this.get(index);
+		System.arraycopy(this.elements, index + 1, this.elements, index, this.size - index - 1);
+		this.elements[--this.size] = null;
+		if (this.set != null) {
+			this.forget(removed);
+		}
+		++this.modCount;
+		return removed;
+	}
+
+	// One pass rather than a shift per removed element, which allocates nothing unless something is removed
+	@Override
+	public boolean removeIf(Predicate<? super T> filter) {
+		int first = 0;
+		while (first < this.size && !filter.test(this.elementAt(first))) {
+			++first;
+		}
+		if (first == this.size) {
+			return false;
+		}
+		// Only needed to update the set
+		List<T> removed = this.set == null ? null : new ArrayList<>();
+		if (removed != null) {
+			removed.add(this.elementAt(first));
+		}
+		int keptSize = first;
+		for (int i = first + 1; i < this.size; ++i) {
+			T element = this.elementAt(i);
+			if (filter.test(element)) {
+				if (removed != null) {
+					removed.add(element);
+				}
+			} else {
+				this.elements[keptSize++] = element;
+			}
+		}
+		Arrays.fill(this.elements, keptSize, this.size, null);
+		this.size = keptSize;
+		if (keptSize <= THRESHOLD) {
+			this.set = null;
+		} else if (removed != null) {
+			for (T element : removed) {
+				this.set.remove(element);
+			}
+			// Only short if an element was in the list more than once, in which case start over
+			if (this.set.size() != keptSize) {
+				this.set = new HashSet<>(this);
+			}
+		}
+		++this.modCount;
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		this.elements = EMPTY;
+		this.size = 0;
+		this.set = null;
+		++this.modCount;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T elementAt(int index) {
+		return (T) this.elements[index];
+	}
+
+	private int scan(Object o) {
+		for (int i = 0; i < this.size; ++i) {
+			if (Objects.equals(o, this.elements[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void checkIndex(int index, int bound) {
+		if (index < 0 || index >= bound) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+		}
+	}
+
+	// Nothing stops callers adding an element twice, so it stays in the set until its last copy is gone
+	private void forget(T element) {
+		if (this.scan(element) == -1) {
+			this.set.remove(element);
+		}
+	}
+}
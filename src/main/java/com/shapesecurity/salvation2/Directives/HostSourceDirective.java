@@ -2,23 +2,41 @@ package com.shapesecurity.salvation2.Directives;
 
 import com.shapesecurity.salvation2.Constants;
 import com.shapesecurity.salvation2.Directive;
-import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.ErrorCode;
+import com.shapesecurity.salvation2.HostIndex;
 import com.shapesecurity.salvation2.Values.Host;
 import com.shapesecurity.salvation2.Values.Scheme;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 public abstract class HostSourceDirective extends Directive {
 	private static final String NONE_SRC = "'none'";
 	private static final String SELF_SRC = "'self'";
-	protected List<Scheme> schemes = new ArrayList<>();
-	protected List<Host> hosts = new ArrayList<>();
+	// These stay free of duplicates, and generated policies can have thousands of hosts, so they are hashed once large
+	protected List<Scheme> schemes = new HashedArrayList<>();
+	protected List<Host> hosts = new HashedArrayList<>();
 	protected boolean star = false;
 	protected boolean self = false;
+	// Built lazily and discarded whenever `hosts` changes
+	private HostIndex<Host> hostIndex = null;
+	// The Host, Nonce or Hash which the value at each index of `values` was parsed to when it was added, or null, so that
+	// removing one removes every value representing it without parsing any of them again. Kept in step with `values`,
+	// which only changes here; indices past its end are null. An array rather than a map because it costs a reference
+	// per value, and parsed policies are kept by the thousand. Null until something is recorded.
+	private Object[] parsedValues = null;
+	// Set when `parsedValues` was dropped on freezing, since frozen directives are never modified; copies of them
+	// recover it by parsing their values once, on their first removal
+	private boolean parsedValuesDropped = false;
 
 	protected String none = null;
 
@@ -26,10 +44,36 @@ public abstract class HostSourceDirective extends Directive {
 		super(values);
 	}
 
+	protected HostSourceDirective(HostSourceDirective other) {
+		super(other);
+		this.schemes = new HashedArrayList<>(other.schemes);
+		this.hosts = new HashedArrayList<>(other.hosts);
+		this.star = other.star;
+		this.self = other.self;
+		this.none = other.none;
+		this.hostIndex = other.hostIndex;
+		if (other.parsedValues != null) {
+			this.parsedValues = other.parsedValues.clone();
+		}
+		this.parsedValuesDropped = other.parsedValuesDropped;
+	}
+
+	@Override
+	protected void compact() {
+		super.compact();
+		this.schemes = compactList(this.schemes);
+		this.hosts = compactList(this.hosts);
+		if (this.parsedValues != null) {
+			this.parsedValues = null;
+			this.parsedValuesDropped = true;
+		}
+	}
+
 	@Override
 	protected void addValue(String value) {
 		if (this.none != null) {
-			super.removeValueIgnoreCase(NONE_SRC); // super so as to not immediately add it back
+			this.checkNotFrozen();
+			this.removeValuesIf((existing, parsed) -> existing.equalsIgnoreCase(NONE_SRC)); // not removeValueIgnoreCase, so as to not immediately add it back
 			this.none = null;
 		}
 		super.addValue(value);
@@ -37,29 +81,111 @@ public abstract class HostSourceDirective extends Directive {
 
 	@Override
 	protected void removeValueIgnoreCase(String value) {
-		super.removeValueIgnoreCase(value);
-		if (this.values.isEmpty()) {
-			this.values.add(NONE_SRC);
-			this.none = NONE_SRC;
+		this.checkNotFrozen();
+		// Values are all ASCII, for which this is Utils.asciiEqualsIgnoreCase
+		this.removeValuesIf((existing, parsed) -> existing.equalsIgnoreCase(value));
+		this.addNoneIfEmpty();
+	}
+
+	// Called for each host-source, nonce and hash value, once it is at `index` in `values`, with what it was parsed to
+	protected void recordParsedValue(int index, Object parsed) {
+		Object[] parsedValues = this.parsedValues;
+		if (parsedValues == null) {
+			parsedValues = new Object[this.values.size()];
+			this.parsedValues = parsedValues;
+		} else if (index >= parsedValues.length) {
+			parsedValues = Arrays.copyOf(parsedValues, this.values.size() + (this.values.size() >> 1));
+			this.parsedValues = parsedValues;
 		}
+		parsedValues[index] = parsed;
 	}
 
+	// Parses every value; removeValuesParsedAs avoids that for the values this class records
 	protected <T> void removeValuesMatching(T value, Function<String, Optional<T>> parser) {
-		ArrayList<String> copy = new ArrayList<>(this.values.size());
-		for (String existing : this.values) {
-			Optional<T> parsed = parser.apply(existing);
-			if (!parsed.isPresent() || !parsed.get().equals(value)) {
-				copy.add(existing);
+		this.checkNotFrozen();
+		this.removeValuesIf((existing, parsed) -> {
+			Optional<T> parsedExisting = parser.apply(existing);
+			return parsedExisting.isPresent() && parsedExisting.get().equals(value);
+		});
+		this.addNoneIfEmpty();
+	}
+
+	// Removes every value recorded as parsing to something `removed` accepts
+	protected void removeValuesParsedAs(Predicate<Object> removed) {
+		this.checkNotFrozen();
+		if (this.parsedValuesDropped) {
+			this.recoverParsedValues();
+		}
+		if (this.parsedValues == null) {
+			return;
+		}
+		this.removeValuesIf((existing, parsed) -> parsed != null && removed.test(parsed));
+		this.addNoneIfEmpty();
+	}
+
+	// Every removal from `values` goes through here, so that `parsedValues` stays in step: `remove` is given each value
+	// and what it was recorded as parsing to, and the rest are moved down in one pass, allocating nothing
+	private void removeValuesIf(BiPredicate<String, Object> remove) {
+		List<String> values = this.values;
+		Object[] parsedValues = this.parsedValues;
+		int size = values.size();
+		int kept = 0;
+		for (int i = 0; i < size; ++i) {
+			String value = values.get(i);
+			Object parsed = parsedValues != null && i < parsedValues.length ? parsedValues[i] : null;
+			if (remove.test(value, parsed)) {
+				continue;
 			}
+			if (kept != i) {
+				values.set(kept, value);
+				if (parsedValues != null && kept < parsedValues.length) {
+					parsedValues[kept] = parsed;
+				}
+			}
+			++kept;
+		}
+		if (kept == size) {
+			return;
+		}
+		values.subList(kept, size).clear();
+		if (parsedValues != null && kept < parsedValues.length) {
+			Arrays.fill(parsedValues, kept, Math.min(size, parsedValues.length), null);
 		}
-		this.values = copy;
+	}
+
+	private void recoverParsedValues() {
+		this.parsedValuesDropped = false;
+		Object[] parsedValues = this.parsedValues;
+		for (int i = 0; i < this.values.size(); ++i) {
+			// Values added since the copy was made are recorded already
+			if (parsedValues == null || i >= parsedValues.length || parsedValues[i] == null) {
+				Object parsed = this.parseRecordedValue(this.values.get(i));
+				if (parsed != null) {
+					this.recordParsedValue(i, parsed);
+					parsedValues = this.parsedValues;
+				}
+			}
+		}
+	}
+
+	// What construction records for `value`, if anything; only called when a dropped record is recovered
+	protected Object parseRecordedValue(String value) {
+		String lowcaseValue = value.toLowerCase(Locale.ENGLISH);
+		if (lowcaseValue.equals(NONE_SRC) || lowcaseValue.equals("*") || lowcaseValue.equals(SELF_SRC) || Scheme.parseScheme(value).isPresent()) {
+			return null;
+		}
+		return Host.parseHost(value).orElse(null);
+	}
+
+	private void addNoneIfEmpty() {
 		if (this.values.isEmpty()) {
 			this.values.add(NONE_SRC);
 			this.none = NONE_SRC;
 		}
 	}
 
-	void _addHostOrSchemeDuringConstruction(String token, String lowcaseToken, String kind, int index, DirectiveErrorConsumer errors) {
+	// `duplicate` and `unrecognized` are the codes to report for this kind of source list
+	void _addHostOrSchemeDuringConstruction(String token, String lowcaseToken, ErrorCode duplicate, ErrorCode unrecognized, int index, DirectiveErrorConsumer errors) {
 		if (lowcaseToken.equals(NONE_SRC)) {
 			if (this.none == null) {
 				this.none = token;
@@ -69,28 +195,30 @@ public abstract class HostSourceDirective extends Directive {
 			if (!this.star) {
 				this.star = true;
 			} else {
-				errors.add(Policy.Severity.Warning, "Duplicate " + kind + " *", index);
+				errors.add(duplicate, "*", index);
 			}
 		} else if (lowcaseToken.equals(SELF_SRC)) {
 			if (!this.self) {
 				this.self = true;
 			} else {
-				errors.add(Policy.Severity.Warning, "Duplicate " + kind + " 'self'", index);
+				errors.add(duplicate, SELF_SRC, index);
 			}
 		} else {
 			Optional<Scheme> asScheme = Scheme.parseScheme(token);
 			if (asScheme.isPresent()) {
 				this._addScheme(asScheme.get(), index, errors);
 			} else {
-				if (Constants.unquotedKeywordPattern.matcher(token).find()) {
-					errors.add(Policy.Severity.Warning, "This host name is unusual, and likely meant to be a keyword that is missing the required quotes: \'" + token + "\'.", index);
+				if (!errors.ignoresWarnings() && Constants.unquotedKeywordPattern.matcher(token).find()) {
+					errors.add(ErrorCode.UNQUOTED_KEYWORD, token, index);
 				}
 
 				Optional<Host> asHost = Host.parseHost(token);
 				if (asHost.isPresent()) {
 					this._addHostSource(asHost.get(), index, errors);
+					// Even if it is a duplicate, since the value stays
+					this.recordParsedValue(index, asHost.get());
 				} else {
-					errors.add(Policy.Severity.Error, "Unrecognized " + kind + " " + token, index);
+					errors.add(unrecognized, token, index);
 				}
 			}
 		}
@@ -98,7 +226,7 @@ public abstract class HostSourceDirective extends Directive {
 
 	private boolean _addScheme(Scheme scheme, int index, DirectiveErrorConsumer errors) {
 		if (this.schemes.contains(scheme)) {
-			errors.add(Policy.Severity.Warning, "Duplicate scheme " + scheme, index);
+			errors.add(ErrorCode.DUPLICATE_SCHEME, scheme, index);
 			return false;
 		} else {
 			// TODO check if this subsumes or is subsumed by any existing scheme/host
@@ -110,11 +238,12 @@ public abstract class HostSourceDirective extends Directive {
 
 	private boolean _addHostSource(Host source, int index, DirectiveErrorConsumer errors) {
 		if (this.hosts.contains(source)) {
-			errors.add(Policy.Severity.Warning, "Duplicate host " + source.toString(), index);
+			errors.add(ErrorCode.DUPLICATE_HOST, source, index);
 			return false;
 		} else {
 			// TODO check if this subsumes or is subsumed by any existing scheme/host
 			this.hosts.add(source);
+			this.hostIndex = null;
 			return true;
 		}
 	}
@@ -152,16 +281,18 @@ public abstract class HostSourceDirective extends Directive {
 	}
 
 	public List<Scheme> getSchemes() {
-		return Collections.unmodifiableList(this.schemes);
+		return this.readOnly(this.schemes);
 	}
 
 	public void addScheme(Scheme scheme, ManipulationErrorConsumer errors) {
+		this.checkNotFrozen();
 		if (this._addScheme(scheme, -1, wrapManipulationErrorConsumer(errors))) {
 			this.addValue(scheme.toString());
 		}
 	}
 
 	public boolean removeScheme(Scheme scheme) {
+		this.checkNotFrozen();
 		if (!this.schemes.contains(scheme)) {
 			return false;
 		}
@@ -172,13 +303,24 @@ public abstract class HostSourceDirective extends Directive {
 
 
 	public List<Host> getHosts() {
-		return Collections.unmodifiableList(this.hosts);
+		return this.readOnly(this.hosts);
+	}
+
+	public HostIndex<Host> getHostIndex() {
+		HostIndex<Host> hostIndex = this.hostIndex;
+		if (hostIndex == null) {
+			// HostIndex is immutable, so racing readers at worst build it more than once
+			hostIndex = new HostIndex<>(this.hosts, h -> h.host);
+			this.hostIndex = hostIndex;
+		}
+		return hostIndex;
 	}
 
 	public void addHost(Host host, ManipulationErrorConsumer errors) {
+		this.checkNotFrozen();
 		if (host.equals(Host.STAR)) {
 			if (this.star) {
-				errors.add(ManipulationErrorConsumer.Severity.Warning, "Duplicate host *");
+				errors.add(ErrorCode.DUPLICATE_HOST, host);
 			} else {
 				this.star = true;
 				this.addValue("*");
@@ -187,23 +329,54 @@ public abstract class HostSourceDirective extends Directive {
 		}
 		if (this._addHostSource(host, -1, wrapManipulationErrorConsumer(errors))) {
 			this.addValue(host.toString());
+			this.recordParsedValue(this.values.size() - 1, host);
 		}
 	}
 
 	public boolean removeHost(Host host) {
-		if (host.equals(Host.STAR)) {
-			if (this.star) {
-				this.setStar(false);
+		this.checkNotFrozen();
+		return this.removeHostsIn(Collections.singleton(host));
+	}
+
+	// Returns true if at least one host was removed. As with removeHost, Host.STAR clears `star`.
+	public boolean removeHosts(Collection<Host> hosts) {
+		this.checkNotFrozen();
+		return this.removeHostsIn(new HashSet<>(hosts));
+	}
+
+	// Removes every host in getHosts() which does not satisfy `keep`, which is called once per host.
+	// Returns true if at least one host was removed. `star` is unaffected.
+	public boolean retainHosts(Predicate<Host> keep) {
+		this.checkNotFrozen();
+		Set<Host> removed = new HashSet<>();
+		this.hosts.removeIf(host -> {
+			if (!keep.test(host)) {
+				removed.add(host);
 				return true;
 			}
 			return false;
-		}
-		if (!this.hosts.contains(host)) {
+		});
+		if (removed.isEmpty()) {
 			return false;
 		}
-		this.hosts.remove(host);
-		// Removing hosts is considerably more annoying than removing anything else, because they can have many representations.
-		removeValuesMatching(host, Host::parseHost);
+		this.hostIndex = null;
+		this.removeValuesParsedAs(removed::contains);
+		return true;
+	}
+
+	private boolean removeHostsIn(Set<Host> toRemove) {
+		boolean removedStar = false;
+		if (this.star && toRemove.contains(Host.STAR)) {
+			this.setStar(false);
+			removedStar = true;
+		}
+		if (!this.hosts.removeIf(toRemove::contains)) {
+			return removedStar;
+		}
+		this.hostIndex = null;
+		// Removing hosts is considerably more annoying than removing anything else, because they can have many
+		// representations; every value which was parsed to one of them goes
+		this.removeValuesParsedAs(toRemove::contains);
 		return true;
 	}
 }
@@ -1,16 +1,14 @@
 package com.shapesecurity.salvation2.Directives;
 
 import com.shapesecurity.salvation2.Directive;
-import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.ErrorCode;
 import com.shapesecurity.salvation2.Values.MediaType;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 public class PluginTypesDirective extends Directive {
-	private List<MediaType> mediaTypes = new ArrayList<>();
+	private List<MediaType> mediaTypes = new HashedArrayList<>();
 
 	public PluginTypesDirective(List<String> values, DirectiveErrorConsumer errors) {
 		super(values);
@@ -21,20 +19,36 @@ public class PluginTypesDirective extends Directive {
 			if (type.isPresent()) {
 				this._addMediaType(type.get(), index, errors);
 			} else {
-				errors.add(Policy.Severity.Error, "Expecting media-type but found \"" + token + "\"", index);
+				errors.add(ErrorCode.INVALID_MEDIA_TYPE, token, index);
 			}
 		}
 
 		// Note that empty lists are allowed: https://github.com/w3c/webappsec-csp/pull/374
 	}
 
+	protected PluginTypesDirective(PluginTypesDirective other) {
+		super(other);
+		this.mediaTypes = new HashedArrayList<>(other.mediaTypes);
+	}
+
+	@Override
+	protected PluginTypesDirective copy() {
+		return new PluginTypesDirective(this);
+	}
+
+	@Override
+	protected void compact() {
+		super.compact();
+		this.mediaTypes = compactList(this.mediaTypes);
+	}
+
 	private boolean _addMediaType(MediaType type, int index, DirectiveErrorConsumer errors) {
 		if (this.mediaTypes.contains(type)) {
-			errors.add(Policy.Severity.Warning, "Duplicate media type " + type.toString(), index);
+			errors.add(ErrorCode.DUPLICATE_MEDIA_TYPE, type, index);
 			return false;
 		} else {
 			if (type.type.equals("*") || type.subtype.equals("*")) {
-				errors.add(Policy.Severity.Warning, "Media types can only be matched literally. Make sure using `*` is not an oversight.", index);
+				errors.add(ErrorCode.WILDCARD_MEDIA_TYPE, type, index);
 			}
 			this.mediaTypes.add(type);
 			return true;
@@ -42,16 +56,18 @@ public class PluginTypesDirective extends Directive {
 	}
 
 	public List<MediaType> getMediaTypes() {
-		return Collections.unmodifiableList(this.mediaTypes);
+		return this.readOnly(this.mediaTypes);
 	}
 
 	public void addMediaType(MediaType type, ManipulationErrorConsumer errors) {
+		this.checkNotFrozen();
 		if (this._addMediaType(type, -1, wrapManipulationErrorConsumer(errors))) {
 			this.addValue(type.toString());
 		}
 	}
 
 	public boolean removeMediaType(MediaType type) {
+		this.checkNotFrozen();
 		if (!this.mediaTypes.contains(type)) {
 			return false;
 		}
@@ -1,10 +1,9 @@
 package com.shapesecurity.salvation2.Directives;
 
 import com.shapesecurity.salvation2.Directive;
-import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.ErrorCode;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 public class ReportUriDirective extends Directive {
@@ -19,31 +18,50 @@ public class ReportUriDirective extends Directive {
 		}
 
 		if (this.values.isEmpty()) {
-			errors.add(Policy.Severity.Error, "The report-uri value requires at least one value", -1);
+			errors.add(ErrorCode.EMPTY_REPORT_URI, null, -1);
 		}
 	}
 
+	protected ReportUriDirective(ReportUriDirective other) {
+		super(other);
+		this.uris = new ArrayList<>(other.uris);
+	}
+
+	@Override
+	protected ReportUriDirective copy() {
+		return new ReportUriDirective(this);
+	}
+
+	// `uris` always holds the same strings as `values`, so once neither can change they can be one list
+	@Override
+	protected void compact() {
+		super.compact();
+		this.uris = this.values;
+	}
+
 	private void _addUri(String uri, int index, DirectiveErrorConsumer errors) {
 		// TODO actual parsing per https://tools.ietf.org/html/rfc3986#section-4.1
 		// It's awful, though: 'urn:example:animal:ferret:nose' is a valid URI
-		if (this.uris.contains(uri)) {
+		if (!errors.ignoresWarnings() && this.uris.contains(uri)) {
 			// NB: we don't prevent you from having duplicates, because that has actual semantic meaning - it will get each report twice (per spec)
-			errors.add(Policy.Severity.Info, "Duplicate report-to URI; are you sure you intend to get multiple copies of each report?", index);
+			errors.add(ErrorCode.DUPLICATE_REPORT_URI, uri, index);
 		}
 		this.uris.add(uri);
 	}
 
 	public List<String> getUris() {
-		return Collections.unmodifiableList(uris);
+		return this.readOnly(this.uris);
 	}
 
 	public void addUri(String uri, ManipulationErrorConsumer errors) {
+		this.checkNotFrozen();
 		this._addUri(uri, -1, wrapManipulationErrorConsumer(errors));
 		this.addValue(uri);
 	}
 
 	// Note that this removes all copies, not just the first
 	public boolean removeUri(String uri) {
+		this.checkNotFrozen();
 		if (!this.uris.contains(uri)) {
 			return false;
 		}
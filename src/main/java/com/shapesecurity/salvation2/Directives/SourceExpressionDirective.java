@@ -1,11 +1,10 @@
 package com.shapesecurity.salvation2.Directives;
 
-import com.shapesecurity.salvation2.Policy;
+import com.shapesecurity.salvation2.ErrorCode;
+import com.shapesecurity.salvation2.HashIndex;
 import com.shapesecurity.salvation2.Values.Hash;
 import com.shapesecurity.salvation2.Values.Nonce;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
@@ -17,16 +16,21 @@ public class SourceExpressionDirective extends HostSourceDirective {
 	private static final String UNSAFE_ALLOW_REDIRECTS = "'unsafe-allow-redirects'";
 	private static final String UNSAFE_EVAL = "'unsafe-eval'";
 	private static final String UNSAFE_HASHES = "'unsafe-hashes'";
-	private boolean unsafeInline = false;
-	private boolean unsafeEval = false;
-	private boolean strictDynamic = false;
-	private boolean unsafeHashes = false;
-	private boolean reportSample = false;
-	private boolean unsafeAllowRedirects = false;
-
-	// In practice, these are probably small enough for Lists to be faster than LinkedHashSets
-	private List<Nonce> nonces = new ArrayList<>();
-	private List<Hash> hashes = new ArrayList<>();
+	// Which of the keywords above are present, one bit each; a byte rather than six booleans, since caches hold a great
+	// many of these
+	private static final int UNSAFE_INLINE_BIT = 1;
+	private static final int UNSAFE_EVAL_BIT = 1 << 1;
+	private static final int STRICT_DYNAMIC_BIT = 1 << 2;
+	private static final int UNSAFE_HASHES_BIT = 1 << 3;
+	private static final int REPORT_SAMPLE_BIT = 1 << 4;
+	private static final int UNSAFE_ALLOW_REDIRECTS_BIT = 1 << 5;
+	private byte keywords = 0;
+
+	// In practice these are usually small enough for plain Lists to be fastest, but HashedArrayList copes with long ones
+	private List<Nonce> nonces = new HashedArrayList<>();
+	private List<Hash> hashes = new HashedArrayList<>();
+	// Built lazily and discarded whenever `hashes` changes
+	private HashIndex hashIndex = null;
 
 
 	public SourceExpressionDirective(List<String> values, DirectiveErrorConsumer errors) {
@@ -38,52 +42,52 @@ public class SourceExpressionDirective extends HostSourceDirective {
 			String lowcaseToken = token.toLowerCase(Locale.ENGLISH); // This needs to be ASCII-lowercase, so that `'strIct-dynamic''` still parses in Turkey
 			switch (lowcaseToken) {
 				case UNSAFE_INLINE:
-					if (!this.unsafeInline) {
-						this.unsafeInline = true;
+					if (!this.hasKeyword(UNSAFE_INLINE_BIT)) {
+						this.setKeyword(UNSAFE_INLINE_BIT, true);
 					} else {
-						errors.add(Policy.Severity.Warning, "Duplicate source-expression 'unsafe-inline'", index);
+						errors.add(ErrorCode.DUPLICATE_SOURCE_EXPRESSION, UNSAFE_INLINE, index);
 					}
 					break;
 				case UNSAFE_EVAL:
-					if (!this.unsafeEval) {
-						this.unsafeEval = true;
+					if (!this.hasKeyword(UNSAFE_EVAL_BIT)) {
+						this.setKeyword(UNSAFE_EVAL_BIT, true);
 					} else {
-						errors.add(Policy.Severity.Warning, "Duplicate source-expression 'unsafe-eval'", index);
+						errors.add(ErrorCode.DUPLICATE_SOURCE_EXPRESSION, UNSAFE_EVAL, index);
 					}
 					break;
 				case STRICT_DYNAMIC:
-					if (!this.strictDynamic) {
-						this.strictDynamic = true;
+					if (!this.hasKeyword(STRICT_DYNAMIC_BIT)) {
+						this.setKeyword(STRICT_DYNAMIC_BIT, true);
 					} else {
-						errors.add(Policy.Severity.Warning, "Duplicate source-expression 'strict-dynamic'", index);
+						errors.add(ErrorCode.DUPLICATE_SOURCE_EXPRESSION, STRICT_DYNAMIC, index);
 					}
 					break;
 				case UNSAFE_HASHES:
-					if (!this.unsafeHashes) {
-						this.unsafeHashes = true;
+					if (!this.hasKeyword(UNSAFE_HASHES_BIT)) {
+						this.setKeyword(UNSAFE_HASHES_BIT, true);
 					} else {
-						errors.add(Policy.Severity.Warning, "Duplicate source-expression 'unsafe-hashes'", index);
+						errors.add(ErrorCode.DUPLICATE_SOURCE_EXPRESSION, UNSAFE_HASHES, index);
 					}
 					break;
 				case REPORT_SAMPLE:
-					if (!this.reportSample) {
-						this.reportSample = true;
+					if (!this.hasKeyword(REPORT_SAMPLE_BIT)) {
+						this.setKeyword(REPORT_SAMPLE_BIT, true);
 					} else {
-						errors.add(Policy.Severity.Warning, "Duplicate source-expression 'report-sample'", index);
+						errors.add(ErrorCode.DUPLICATE_SOURCE_EXPRESSION, REPORT_SAMPLE, index);
 					}
 					break;
 				case UNSAFE_ALLOW_REDIRECTS:
-					if (!this.unsafeAllowRedirects) {
-						this.unsafeAllowRedirects = true;
+					if (!this.hasKeyword(UNSAFE_ALLOW_REDIRECTS_BIT)) {
+						this.setKeyword(UNSAFE_ALLOW_REDIRECTS_BIT, true);
 					} else {
-						errors.add(Policy.Severity.Warning, "Duplicate source-expression 'unsafe-allow-redirects'", index);
+						errors.add(ErrorCode.DUPLICATE_SOURCE_EXPRESSION, UNSAFE_ALLOW_REDIRECTS, index);
 					}
 					break;
 				case "'unsafe-redirect'":
-					errors.add(Policy.Severity.Error, "'unsafe-redirect' has been removed from CSP as of version 2.0", index);
+					errors.add(ErrorCode.UNSAFE_REDIRECT_REMOVED, token, index);
 					break;
 				case "'unsafe-hashed-attributes'":
-					errors.add(Policy.Severity.Error, "'unsafe-hashed-attributes' was renamed to 'unsafe-hashes' in June 2018", index);
+					errors.add(ErrorCode.UNSAFE_HASHED_ATTRIBUTES_RENAMED, token, index);
 					break;
 				default:
 					if (lowcaseToken.startsWith("'nonce-")) {
@@ -91,8 +95,10 @@ public class SourceExpressionDirective extends HostSourceDirective {
 						Optional<Nonce> nonce = Nonce.parseNonce(token);
 						if (nonce.isPresent()) {
 							this._addNonce(nonce.get(), index, errors);
+							// Even if it is a duplicate, since the value stays
+							this.recordParsedValue(index, nonce.get());
 						} else {
-							errors.add(Policy.Severity.Error, "Unrecognised nonce " + token, index);
+							errors.add(ErrorCode.UNRECOGNIZED_NONCE, token, index);
 						}
 						break;
 					} else if (lowcaseToken.startsWith("'sha")) {
@@ -100,29 +106,69 @@ public class SourceExpressionDirective extends HostSourceDirective {
 						Optional<Hash> hash = Hash.parseHash(token);
 						if (hash.isPresent()) {
 							this._addHash(hash.get(), index, errors);
+							this.recordParsedValue(index, hash.get());
 						} else {
-							errors.add(Policy.Severity.Error, "'sha...' source-expression uses an unrecognized algorithm or does not match the base64-value grammar (or is missing its trailing \"'\")", index);
+							errors.add(ErrorCode.UNRECOGNIZED_HASH, token, index);
 						}
 						break;
 					} else {
-						this._addHostOrSchemeDuringConstruction(token, lowcaseToken, "source-expression", index, errors);
+						this._addHostOrSchemeDuringConstruction(token, lowcaseToken, ErrorCode.DUPLICATE_SOURCE_EXPRESSION, ErrorCode.UNRECOGNIZED_SOURCE_EXPRESSION, index, errors);
 					}
 			}
 			++index;
 		}
 
 		if (this.none != null && values.size() > 1) {
-			errors.add(Policy.Severity.Error, "'none' must not be combined with any other source-expression", 1);
+			errors.add(ErrorCode.NONE_COMBINED_WITH_SOURCE_EXPRESSION, null, 1);
 		}
 
 		if (values.isEmpty()) {
-			errors.add(Policy.Severity.Error, "Source-expression lists cannot be empty (use 'none' instead)", -1);
+			errors.add(ErrorCode.EMPTY_SOURCE_EXPRESSION_LIST, null, -1);
+		}
+	}
+
+	protected SourceExpressionDirective(SourceExpressionDirective other) {
+		super(other);
+		this.keywords = other.keywords;
+		this.nonces = new HashedArrayList<>(other.nonces);
+		this.hashes = new HashedArrayList<>(other.hashes);
+		this.hashIndex = other.hashIndex;
+	}
+
+	@Override
+	protected SourceExpressionDirective copy() {
+		return new SourceExpressionDirective(this);
+	}
+
+	@Override
+	protected void compact() {
+		super.compact();
+		this.nonces = compactList(this.nonces);
+		this.hashes = compactList(this.hashes);
+	}
+
+	@Override
+	protected Object parseRecordedValue(String value) {
+		String lowcaseValue = value.toLowerCase(Locale.ENGLISH);
+		if (lowcaseValue.startsWith("'nonce-")) {
+			return Nonce.parseNonce(value).orElse(null);
+		} else if (lowcaseValue.startsWith("'sha")) {
+			return Hash.parseHash(value).orElse(null);
 		}
+		return super.parseRecordedValue(value);
+	}
+
+	private boolean hasKeyword(int bit) {
+		return (this.keywords & bit) != 0;
+	}
+
+	private void setKeyword(int bit, boolean present) {
+		this.keywords = (byte) (present ? this.keywords | bit : this.keywords & ~bit);
 	}
 
 	private boolean _addNonce(Nonce nonce, int index, DirectiveErrorConsumer errors) {
 		if (this.nonces.contains(nonce)) {
-			errors.add(Policy.Severity.Warning, "Duplicate nonce " + nonce.toString(), index);
+			errors.add(ErrorCode.DUPLICATE_NONCE, nonce, index);
 			return false;
 		} else {
 			this.nonces.add(nonce);
@@ -132,18 +178,21 @@ public class SourceExpressionDirective extends HostSourceDirective {
 
 	private boolean _addHash(Hash hash, int index, DirectiveErrorConsumer errors) {
 		if (this.hashes.contains(hash)) {
-			errors.add(Policy.Severity.Warning, "Duplicate hash " + hash.toString(), index);
+			errors.add(ErrorCode.DUPLICATE_HASH, hash, index);
 			return false;
 		} else {
-			if (hash.base64ValuePart.length() != hash.algorithm.length) {
-				errors.add(Policy.Severity.Warning, "Wrong length for " + hash.algorithm.toString() + ": expected " + hash.algorithm.length + ", got " + hash.base64ValuePart.length(), index);
-			}
-
-			if (hash.base64ValuePart.contains("_") || hash.base64ValuePart.contains("-")) {
-				errors.add(Policy.Severity.Warning, "'_' and '-' in hashes can never match actual elements", index);
+			if (!errors.ignoresWarnings()) {
+				if (hash.base64ValuePart.length() != hash.algorithm.length) {
+					errors.add(ErrorCode.WRONG_HASH_LENGTH, hash, index);
+				}
+
+				if (hash.base64ValuePart.contains("_") || hash.base64ValuePart.contains("-")) {
+					errors.add(ErrorCode.URL_SAFE_HASH, hash, index);
+				}
 			}
 
 			this.hashes.add(hash);
+			this.hashIndex = null;
 			return true;
 		}
 	}
@@ -158,11 +207,11 @@ public class SourceExpressionDirective extends HostSourceDirective {
 	// See also https://github.com/w3c/webappsec-csp/issues/431
 
 	public boolean unsafeInline() {
-		return this.unsafeInline;
+		return this.hasKeyword(UNSAFE_INLINE_BIT);
 	}
 
 	public void setUnsafeInline(boolean unsafeInline) {
-		if (this.unsafeInline == unsafeInline) {
+		if (this.hasKeyword(UNSAFE_INLINE_BIT) == unsafeInline) {
 			return;
 		}
 		if (unsafeInline) {
@@ -170,16 +219,16 @@ public class SourceExpressionDirective extends HostSourceDirective {
 		} else {
 			this.removeValueIgnoreCase(UNSAFE_INLINE);
 		}
-		this.unsafeInline = unsafeInline;
+		this.setKeyword(UNSAFE_INLINE_BIT, unsafeInline);
 	}
 
 
 	public boolean unsafeEval() {
-		return this.unsafeEval;
+		return this.hasKeyword(UNSAFE_EVAL_BIT);
 	}
 
 	public void setUnsafeEval(boolean unsafeEval) {
-		if (this.unsafeEval == unsafeEval) {
+		if (this.hasKeyword(UNSAFE_EVAL_BIT) == unsafeEval) {
 			return;
 		}
 		if (unsafeEval) {
@@ -187,16 +236,16 @@ public class SourceExpressionDirective extends HostSourceDirective {
 		} else {
 			this.removeValueIgnoreCase(UNSAFE_EVAL);
 		}
-		this.unsafeEval = unsafeEval;
+		this.setKeyword(UNSAFE_EVAL_BIT, unsafeEval);
 	}
 
 
 	public boolean strictDynamic() {
-		return this.strictDynamic;
+		return this.hasKeyword(STRICT_DYNAMIC_BIT);
 	}
 
 	public void setStrictDynamic(boolean strictDynamic) {
-		if (this.strictDynamic == strictDynamic) {
+		if (this.hasKeyword(STRICT_DYNAMIC_BIT) == strictDynamic) {
 			return;
 		}
 		if (strictDynamic) {
@@ -204,16 +253,16 @@ public class SourceExpressionDirective extends HostSourceDirective {
 		} else {
 			this.removeValueIgnoreCase(STRICT_DYNAMIC);
 		}
-		this.strictDynamic = strictDynamic;
+		this.setKeyword(STRICT_DYNAMIC_BIT, strictDynamic);
 	}
 
 
 	public boolean unsafeHashes() {
-		return this.unsafeHashes;
+		return this.hasKeyword(UNSAFE_HASHES_BIT);
 	}
 
 	public void setUnsafeHashes(boolean unsafeHashes) {
-		if (this.unsafeHashes == unsafeHashes) {
+		if (this.hasKeyword(UNSAFE_HASHES_BIT) == unsafeHashes) {
 			return;
 		}
 		if (unsafeHashes) {
@@ -221,16 +270,16 @@ public class SourceExpressionDirective extends HostSourceDirective {
 		} else {
 			this.removeValueIgnoreCase(UNSAFE_HASHES);
 		}
-		this.unsafeHashes = unsafeHashes;
+		this.setKeyword(UNSAFE_HASHES_BIT, unsafeHashes);
 	}
 
 
 	public boolean reportSample() {
-		return this.reportSample;
+		return this.hasKeyword(REPORT_SAMPLE_BIT);
 	}
 
 	public void setReportSample(boolean reportSample) {
-		if (this.reportSample == reportSample) {
+		if (this.hasKeyword(REPORT_SAMPLE_BIT) == reportSample) {
 			return;
 		}
 		if (reportSample) {
@@ -238,16 +287,16 @@ public class SourceExpressionDirective extends HostSourceDirective {
 		} else {
 			this.removeValueIgnoreCase(REPORT_SAMPLE);
 		}
-		this.reportSample = reportSample;
+		this.setKeyword(REPORT_SAMPLE_BIT, reportSample);
 	}
 
 
 	public boolean unsafeAllowRedirects() {
-		return this.unsafeAllowRedirects;
+		return this.hasKeyword(UNSAFE_ALLOW_REDIRECTS_BIT);
 	}
 
 	public void setUnsafeAllowRedirects(boolean unsafeAllowRedirects) {
-		if (this.unsafeAllowRedirects == unsafeAllowRedirects) {
+		if (this.hasKeyword(UNSAFE_ALLOW_REDIRECTS_BIT) == unsafeAllowRedirects) {
 			return;
 		}
 		if (unsafeAllowRedirects) {
@@ -255,47 +304,64 @@ public class SourceExpressionDirective extends HostSourceDirective {
 		} else {
 			this.removeValueIgnoreCase(UNSAFE_ALLOW_REDIRECTS);
 		}
-		this.unsafeAllowRedirects = unsafeAllowRedirects;
+		this.setKeyword(UNSAFE_ALLOW_REDIRECTS_BIT, unsafeAllowRedirects);
 	}
 
 
 	public List<Nonce> getNonces() {
-		return Collections.unmodifiableList(this.nonces);
+		return this.readOnly(this.nonces);
 	}
 
 	public void addNonce(Nonce nonce, ManipulationErrorConsumer errors) {
+		this.checkNotFrozen();
 		if (this._addNonce(nonce, -1, wrapManipulationErrorConsumer(errors))) {
 			this.addValue(nonce.toString());
+			this.recordParsedValue(this.values.size() - 1, nonce);
 		}
 	}
 
 	public boolean removeNonce(Nonce nonce) {
+		this.checkNotFrozen();
 		if (!this.nonces.contains(nonce)) {
 			return false;
 		}
 		this.nonces.remove(nonce);
 		// we can't just "removeValue" or "removeValueIgnoreCase" because the `nonce-` part is case-insensitive but the remainder is case-sensitive
-		this.removeValuesMatching(nonce, Nonce::parseNonce);
+		this.removeValuesParsedAs(nonce::equals);
 		return true;
 	}
 
 	public List<Hash> getHashes() {
-		return Collections.unmodifiableList(this.hashes);
+		return this.readOnly(this.hashes);
+	}
+
+	public HashIndex getHashIndex() {
+		HashIndex hashIndex = this.hashIndex;
+		if (hashIndex == null) {
+			// HashIndex is immutable, so racing readers at worst build it more than once
+			hashIndex = this.hashes.isEmpty() ? HashIndex.EMPTY : new HashIndex(this.hashes);
+			this.hashIndex = hashIndex;
+		}
+		return hashIndex;
 	}
 
 	public void addHash(Hash hash, ManipulationErrorConsumer errors) {
+		this.checkNotFrozen();
 		if (this._addHash(hash, -1, wrapManipulationErrorConsumer(errors))) {
 			this.addValue(hash.toString());
+			this.recordParsedValue(this.values.size() - 1, hash);
 		}
 	}
 
 	public boolean removeHash(Hash hash) {
+		this.checkNotFrozen();
 		if (!this.hashes.contains(hash)) {
 			return false;
 		}
 		this.hashes.remove(hash);
+		this.hashIndex = null;
 		// we can't just "removeValue" or "removeValueIgnoreCase" because the `sha256-` part is case-insensitive but the remainder is case-sensitive
-		this.removeValuesMatching(hash, Hash::parseHash);
+		this.removeValuesParsedAs(hash::equals);
 		return true;
 	}
 }
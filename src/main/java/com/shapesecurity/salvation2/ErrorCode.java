@@ -0,0 +1,77 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Values.Hash;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.function.Function;
+
+// Every warning and error the parser and manipulation APIs report. Problems are reported as a code plus at most one
+// argument (the offending token, value or count), and the message is only formatted if a consumer asks for it: the
+// error consumers' default methods format it and pass it on to their string-based `add`, so consumers written against
+// messages keep working unchanged, while the `ignored` consumers drop the code without formatting anything.
+public enum ErrorCode {
+	// Policy
+	BLOCK_ALL_MIXED_CONTENT_HAS_VALUES(Policy.Severity.Error, a -> "The block-all-mixed-content directive does not support values"),
+	REPORT_TO_MISSING_VALUE(Policy.Severity.Error, a -> "The report-to directive requires a value"),
+	REPORT_TO_INVALID_TOKEN(Policy.Severity.Error, a -> "Expecting RFC 7230 token but found \"" + a + "\""),
+	REPORT_TO_MULTIPLE_VALUES(Policy.Severity.Error, a -> "The report-to directive requires exactly one value (found " + a + ")"),
+	REPORT_URI_DEPRECATED(Policy.Severity.Warning, a -> "The report-uri directive has been deprecated in favor of the new report-to directive"),
+	UPGRADE_INSECURE_REQUESTS_HAS_VALUES(Policy.Severity.Error, a -> "The upgrade-insecure-requests directive does not support values"),
+	INVALID_DIRECTIVE_NAME(Policy.Severity.Error, a -> "Directive name " + a + " contains characters outside the range ALPHA / DIGIT / \"-\""),
+	UNRECOGNIZED_DIRECTIVE(Policy.Severity.Warning, a -> "Unrecognized directive " + a),
+	DUPLICATE_DIRECTIVE(Policy.Severity.Warning, a -> "Duplicate directive " + a),
+
+	// Source lists
+	DUPLICATE_SOURCE_EXPRESSION(Policy.Severity.Warning, a -> "Duplicate source-expression " + a),
+	DUPLICATE_ANCESTOR_SOURCE(Policy.Severity.Warning, a -> "Duplicate ancestor-source " + a),
+	UNRECOGNIZED_SOURCE_EXPRESSION(Policy.Severity.Error, a -> "Unrecognized source-expression " + a),
+	UNRECOGNIZED_ANCESTOR_SOURCE(Policy.Severity.Error, a -> "Unrecognized ancestor-source " + a),
+	NONE_COMBINED_WITH_SOURCE_EXPRESSION(Policy.Severity.Error, a -> "'none' must not be combined with any other source-expression"),
+	NONE_COMBINED_WITH_ANCESTOR_SOURCE(Policy.Severity.Error, a -> "'none' must not be combined with any other ancestor-source"),
+	EMPTY_SOURCE_EXPRESSION_LIST(Policy.Severity.Error, a -> "Source-expression lists cannot be empty (use 'none' instead)"),
+	EMPTY_ANCESTOR_SOURCE_LIST(Policy.Severity.Error, a -> "Ancestor-source lists cannot be empty (use 'none' instead)"),
+	UNSAFE_REDIRECT_REMOVED(Policy.Severity.Error, a -> "'unsafe-redirect' has been removed from CSP as of version 2.0"),
+	UNSAFE_HASHED_ATTRIBUTES_RENAMED(Policy.Severity.Error, a -> "'unsafe-hashed-attributes' was renamed to 'unsafe-hashes' in June 2018"),
+	UNRECOGNIZED_NONCE(Policy.Severity.Error, a -> "Unrecognised nonce " + a),
+	UNRECOGNIZED_HASH(Policy.Severity.Error, a -> "'sha...' source-expression uses an unrecognized algorithm or does not match the base64-value grammar (or is missing its trailing \"'\")"),
+	DUPLICATE_NONCE(Policy.Severity.Warning, a -> "Duplicate nonce " + a),
+	DUPLICATE_HASH(Policy.Severity.Warning, a -> "Duplicate hash " + a),
+	// The argument is the Hash
+	WRONG_HASH_LENGTH(Policy.Severity.Warning, a -> {
+		Hash hash = (Hash) a;
+		return "Wrong length for " + hash.algorithm.toString() + ": expected " + hash.algorithm.length + ", got " + hash.base64ValuePart.length();
+	}),
+	URL_SAFE_HASH(Policy.Severity.Warning, a -> "'_' and '-' in hashes can never match actual elements"),
+	UNQUOTED_KEYWORD(Policy.Severity.Warning, a -> "This host name is unusual, and likely meant to be a keyword that is missing the required quotes: '" + a + "'."),
+	DUPLICATE_SCHEME(Policy.Severity.Warning, a -> "Duplicate scheme " + a),
+	DUPLICATE_HOST(Policy.Severity.Warning, a -> "Duplicate host " + a),
+
+	// plugin-types
+	INVALID_MEDIA_TYPE(Policy.Severity.Error, a -> "Expecting media-type but found \"" + a + "\""),
+	DUPLICATE_MEDIA_TYPE(Policy.Severity.Warning, a -> "Duplicate media type " + a),
+	WILDCARD_MEDIA_TYPE(Policy.Severity.Warning, a -> "Media types can only be matched literally. Make sure using `*` is not an oversight."),
+
+	// report-uri
+	EMPTY_REPORT_URI(Policy.Severity.Error, a -> "The report-uri value requires at least one value"),
+	DUPLICATE_REPORT_URI(Policy.Severity.Info, a -> "Duplicate report-to URI; are you sure you intend to get multiple copies of each report?"),
+
+	// sandbox
+	DUPLICATE_SANDBOX_KEYWORD(Policy.Severity.Warning, a -> "Duplicate sandbox keyword " + a),
+	UNRECOGNIZED_SANDBOX_KEYWORD(Policy.Severity.Error, a -> ((String) a).startsWith("'") ? "Unrecognized sandbox keyword " + a + " - note that sandbox keywords do not have \"'\"s" : "Unrecognized sandbox keyword " + a);
+
+	@Nonnull
+	public final Policy.Severity severity;
+	private final Function<Object, String> formatter;
+
+	ErrorCode(Policy.Severity severity, Function<Object, String> formatter) {
+		this.severity = severity;
+		this.formatter = formatter;
+	}
+
+	// The message this code has always been reported with; `argument` is whatever was passed alongside the code
+	@Nonnull
+	public String format(@Nullable Object argument) {
+		return this.formatter.apply(argument);
+	}
+}
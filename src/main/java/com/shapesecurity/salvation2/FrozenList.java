@@ -0,0 +1,33 @@
+package com.shapesecurity.salvation2;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+// What Directive.compactList makes of a non-empty list: an array of exactly the right size, costing no more than
+// Arrays.asList, but which cannot be changed even through `set`, so that frozen directives can hand out their lists
+// without wrapping them.
+// Instances are immutable and so may be shared between threads.
+final class FrozenList<T> extends AbstractList<T> implements RandomAccess {
+	private final Object[] elements;
+
+	FrozenList(Object[] elements) {
+		this.elements = elements;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		return (T) this.elements[index];
+	}
+
+	@Override
+	public int size() {
+		return this.elements.length;
+	}
+
+	// Copying a frozen directive copies each of its lists, which goes through here
+	@Override
+	public Object[] toArray() {
+		return this.elements.clone();
+	}
+}
@@ -0,0 +1,45 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Values.Hash;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// The hash-sources of a source list, grouped by algorithm and normalized from base64url to base64, so that checking an
+// inline source against them is one digest and one set lookup per algorithm in use.
+// Instances are immutable and so may be shared between threads.
+public final class HashIndex {
+	public static final HashIndex EMPTY = new HashIndex(Collections.emptyList());
+
+	private final Map<Hash.Algorithm, Set<String>> normalizedValues;
+
+	public HashIndex(@Nonnull Iterable<Hash> hashes) {
+		EnumMap<Hash.Algorithm, Set<String>> normalizedValues = new EnumMap<>(Hash.Algorithm.class);
+		for (Hash hash : hashes) {
+			normalizedValues.computeIfAbsent(hash.algorithm, k -> new HashSet<>()).add(normalizeBase64Url(hash.base64ValuePart));
+		}
+		this.normalizedValues = Collections.unmodifiableMap(normalizedValues);
+	}
+
+	public boolean isEmpty() {
+		return this.normalizedValues.isEmpty();
+	}
+
+	// https://w3c.github.io/webappsec-csp/#match-element-to-source-list steps 5 and 6
+	public boolean matches(@Nonnull InlineSource source) {
+		for (Map.Entry<Hash.Algorithm, Set<String>> entry : this.normalizedValues.entrySet()) {
+			if (entry.getValue().contains(source.digest(entry.getKey()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String normalizeBase64Url(String input) {
+		return input.replace('-', '+').replace('_', '/');
+	}
+}
@@ -0,0 +1,83 @@
+package com.shapesecurity.salvation2;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// An index over the host-parts of a list of host-sources, so that finding the expressions whose host-part matches a
+// given URL host takes one lookup per label of that host rather than one comparison per expression.
+// Instances are immutable and so may be shared between threads.
+public final class HostIndex<T> {
+	// Below this many hosts a linear scan is at least as fast as building and consulting the index
+	public static final int MIN_INDEXED_HOSTS = 8;
+
+	// Keyed by the lowercase host, excluding IP addresses, which never match: https://w3c.github.io/webappsec-csp/#host-part-match
+	private final Map<String, List<T>> exact;
+	// Keyed by the lowercase part after the leading `*`, which is either empty or starts with `.`
+	private final Map<String, List<T>> wildcard;
+
+	public HostIndex(@Nonnull Iterable<T> entries, @Nonnull Function<? super T, String> hostPart) {
+		Map<String, List<T>> exact = new HashMap<>();
+		Map<String, List<T>> wildcard = new HashMap<>();
+		for (T entry : entries) {
+			String host = hostPart.apply(entry).toLowerCase(Locale.ENGLISH);
+			if (host.startsWith("*")) {
+				wildcard.computeIfAbsent(host.substring(1), k -> new ArrayList<>(1)).add(entry);
+			} else if (isMatchableHost(host)) {
+				exact.computeIfAbsent(host, k -> new ArrayList<>(1)).add(entry);
+			}
+		}
+		this.exact = Collections.unmodifiableMap(exact);
+		this.wildcard = Collections.unmodifiableMap(wildcard);
+	}
+
+	// Returns true if `predicate` holds for any entry whose host-part matches `urlHost`.
+	// Entries are not visited in any particular order.
+	public boolean anyMatch(@Nonnull String urlHost, @Nonnull Predicate<? super T> predicate) {
+		return this.anyMatchLowercase(urlHost.toLowerCase(Locale.ENGLISH), predicate);
+	}
+
+	private static <T> boolean anyMatch(List<T> candidates, Predicate<? super T> predicate) {
+		if (candidates == null) {
+			return false;
+		}
+		for (T candidate : candidates) {
+			if (predicate.test(candidate)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// As anyMatch, for a host which is already lowercase (as URLWithScheme hosts are)
+	boolean anyMatchLowercase(@Nonnull String host, @Nonnull Predicate<? super T> predicate) {
+		if (anyMatch(this.exact.get(host), predicate)) {
+			return true;
+		}
+		if (this.wildcard.isEmpty()) {
+			return false;
+		}
+		if (anyMatch(this.wildcard.get(""), predicate)) {
+			return true;
+		}
+		for (int i = host.indexOf('.'); i != -1; i = host.indexOf('.', i + 1)) {
+			if (anyMatch(this.wildcard.get(host.substring(i)), predicate)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Whether a non-wildcard host-part can match anything: https://w3c.github.io/webappsec-csp/#host-part-match
+	static boolean isMatchableHost(String host) {
+		return !(Constants.IPv4address.matcher(host).find() && !host.equals("127.0.0.1"))
+				&& !Constants.IPv6addressWithOptionalBracket.matcher(host).find()
+				&& !Constants.IPV6loopback.matcher(host).find();
+	}
+}
@@ -0,0 +1,14 @@
+package com.shapesecurity.salvation2;
+
+// A Policy which cannot be modified, obtained from Policy.toImmutable().
+// Every method which would modify the policy or any of its directives throws UnsupportedOperationException instead.
+// Querying an ImmutablePolicy from several threads at once is safe, provided it was published safely (e.g. through a final
+// or volatile field, or a concurrent collection). Use mutableCopy() to get an editable policy; it shares this policy's
+// directives until they are accessed, so it is cheap to make.
+// Its directives are trimmed to size when frozen (see Directive.compact), which makes this the form to keep when holding
+// many policies at once; PolicyCache does.
+public final class ImmutablePolicy extends Policy {
+	ImmutablePolicy(Policy source) {
+		super(source, true);
+	}
+}
@@ -0,0 +1,82 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Values.Hash;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+// The source of an inline script or style, or of an event handler or style attribute.
+// Its digests are computed the first time they are needed and then remembered, so a single InlineSource can be checked
+// against any number of policies while hashing the source at most once per algorithm.
+// Instances are safe to share between threads.
+public final class InlineSource {
+	private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> newMessageDigest("SHA-256"));
+	private static final ThreadLocal<MessageDigest> SHA384 = ThreadLocal.withInitial(() -> newMessageDigest("SHA-384"));
+	private static final ThreadLocal<MessageDigest> SHA512 = ThreadLocal.withInitial(() -> newMessageDigest("SHA-512"));
+
+	@Nonnull
+	public final String source;
+
+	// Base64-encoded digests; racing threads at worst compute the same string twice
+	private String sha256 = null;
+	private String sha384 = null;
+	private String sha512 = null;
+
+	public InlineSource(@Nonnull String source) {
+		this.source = source;
+	}
+
+	// The standard (not base64url) base64 encoding of the digest of the UTF-8 encoding of the source
+	@Nonnull
+	public String digest(@Nonnull Hash.Algorithm algorithm) {
+		switch (algorithm) {
+			case SHA256: {
+				String digest = this.sha256;
+				if (digest == null) {
+					digest = this.computeDigest(SHA256.get());
+					this.sha256 = digest;
+				}
+				return digest;
+			}
+			case SHA384: {
+				String digest = this.sha384;
+				if (digest == null) {
+					digest = this.computeDigest(SHA384.get());
+					this.sha384 = digest;
+				}
+				return digest;
+			}
+			case SHA512: {
+				String digest = this.sha512;
+				if (digest == null) {
+					digest = this.computeDigest(SHA512.get());
+					this.sha512 = digest;
+				}
+				return digest;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown hash algorithm " + algorithm);
+		}
+	}
+
+	private String computeDigest(MessageDigest messageDigest) {
+		// digest() resets the MessageDigest, so it is ready for the next use on this thread
+		return Base64.getEncoder().encodeToString(messageDigest.digest(this.source.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static MessageDigest newMessageDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.source;
+	}
+}
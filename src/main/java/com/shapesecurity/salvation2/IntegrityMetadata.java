@@ -0,0 +1,54 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Values.Hash;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+// The integrity metadata of a script, i.e. the value of its `integrity` attribute.
+// It is parsed the first time it is needed and then remembered, so a single IntegrityMetadata can be checked against any
+// number of policies while parsing it at most once.
+// Instances are safe to share between threads.
+public final class IntegrityMetadata {
+	@Nonnull
+	public final String value;
+
+	// The well-formed sources; racing threads at worst parse the value twice, and the unmodifiable list's final fields make
+	// its contents visible to any thread which sees it
+	private List<Hash> hashes = null;
+
+	public IntegrityMetadata(@Nonnull String value) {
+		this.value = value;
+	}
+
+	// https://www.w3.org/TR/SRI/#parse-metadata
+	@Nonnull
+	public List<Hash> getHashes() {
+		List<Hash> hashes = this.hashes;
+		if (hashes == null) {
+			List<Hash> parsed = new ArrayList<>();
+			for (String source : Utils.splitOnAsciiWhitespace(this.value)) {
+				Optional<Hash> parsedIntegritySource = Hash.parseHash("'" + source + "'");
+				parsedIntegritySource.ifPresent(parsed::add);
+			}
+			hashes = Collections.unmodifiableList(parsed);
+			this.hashes = hashes;
+		}
+		return hashes;
+	}
+
+	// True if there is at least one well-formed integrity source, and every well-formed source is in `hashes`
+	boolean matches(Collection<Hash> hashes) {
+		List<Hash> integritySources = this.getHashes();
+		return !integritySources.isEmpty() && hashes.containsAll(integritySources);
+	}
+
+	@Override
+	public String toString() {
+		return this.value;
+	}
+}
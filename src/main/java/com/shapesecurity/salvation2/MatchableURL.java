@@ -0,0 +1,121 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.URLs.URLWithScheme;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+// A URL prepared for matching against compiled source lists: the scheme is resolved to a KnownScheme, the port is unboxed
+// and its default looked up, and the path is split and percent-decoded the first time a path-restricted source needs it.
+// Built once per query, so that comparing against each source-expression does no boxing, case folding, or decoding.
+// Instances are meant to be used for a single query and are not safe to share between threads.
+final class MatchableURL {
+	// The schemes which https://w3c.github.io/webappsec-csp/#scheme-part-match or https://www.w3.org/TR/url/#default-port
+	// treat specially; everything else is OTHER and compared by name
+	enum KnownScheme {
+		FTP(21),
+		FILE(Constants.EMPTY_PORT),
+		GOPHER(70),
+		HTTP(80),
+		HTTPS(443),
+		WS(80),
+		WSS(443),
+		OTHER(Constants.EMPTY_PORT);
+
+		final int defaultPort;
+
+		KnownScheme(int defaultPort) {
+			this.defaultPort = defaultPort;
+		}
+
+		// `scheme` must already be lowercase
+		static KnownScheme of(@Nonnull String scheme) {
+			switch (scheme) {
+				case "ftp":
+					return FTP;
+				case "file":
+					return FILE;
+				case "gopher":
+					return GOPHER;
+				case "http":
+					return HTTP;
+				case "https":
+					return HTTPS;
+				case "ws":
+					return WS;
+				case "wss":
+					return WSS;
+				default:
+					return OTHER;
+			}
+		}
+
+		// https://fetch.spec.whatwg.org/#network-scheme
+		// Note that "ws" and "wss" are _not_ network schemes
+		boolean isNetworkScheme() {
+			return this == FTP || this == HTTP || this == HTTPS;
+		}
+	}
+
+	@Nonnull
+	final String scheme;
+	@Nonnull
+	final KnownScheme knownScheme;
+	// Lowercase, and null exactly when the URL is not a URI
+	@Nullable
+	final String host;
+	// Constants.EMPTY_PORT if the URL has none
+	final int port;
+	final int defaultPort;
+	@Nonnull
+	final String path;
+	@Nullable
+	private String[] decodedPathSegments = null;
+
+	MatchableURL(@Nonnull URLWithScheme url) {
+		this.scheme = url.scheme;
+		this.knownScheme = KnownScheme.of(url.scheme);
+		this.host = url.host;
+		this.port = url.port == null ? Constants.EMPTY_PORT : url.port;
+		this.defaultPort = this.knownScheme.defaultPort;
+		this.path = url.path;
+	}
+
+	// The path split on `/` and percent-decoded, including the empty segment after a trailing `/`
+	@Nonnull
+	String[] decodedPathSegments() {
+		String[] segments = this.decodedPathSegments;
+		if (segments == null) {
+			segments = Utils.splitAndDecodePath(this.path);
+			this.decodedPathSegments = segments;
+		}
+		return segments;
+	}
+
+	// https://w3c.github.io/webappsec-csp/#scheme-part-match, where `sourceScheme` is the lowercase scheme of a
+	// source-expression and `sourceKnownScheme` is KnownScheme.of(sourceScheme)
+	boolean schemePartMatches(@Nonnull KnownScheme sourceKnownScheme, @Nonnull String sourceScheme) {
+		if (sourceKnownScheme == KnownScheme.OTHER || this.knownScheme == KnownScheme.OTHER) {
+			return sourceScheme.equals(this.scheme);
+		}
+		switch (sourceKnownScheme) {
+			case HTTP:
+				return this.knownScheme == KnownScheme.HTTP || this.knownScheme == KnownScheme.HTTPS;
+			case WS:
+				return this.knownScheme == KnownScheme.WS || this.knownScheme == KnownScheme.WSS || this.knownScheme == KnownScheme.HTTP || this.knownScheme == KnownScheme.HTTPS;
+			case WSS:
+				return this.knownScheme == KnownScheme.WSS || this.knownScheme == KnownScheme.HTTPS;
+			default:
+				return this.knownScheme == sourceKnownScheme;
+		}
+	}
+
+	// See Policy.doesUrlMatchSelf
+	boolean matchesSelf(@Nonnull MatchableURL origin) {
+		return Objects.equals(origin.host, this.host)
+				&& (origin.port == this.port || origin.port == origin.defaultPort && this.port == this.defaultPort)
+				&& (this.knownScheme == KnownScheme.HTTPS || this.knownScheme == KnownScheme.WSS
+					|| origin.knownScheme == KnownScheme.HTTP && (this.knownScheme == KnownScheme.HTTP || this.knownScheme == KnownScheme.WS));
+	}
+}
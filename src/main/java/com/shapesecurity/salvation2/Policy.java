@@ -16,20 +16,23 @@ import com.shapesecurity.salvation2.Values.RFC7230Token;
 import com.shapesecurity.salvation2.Values.Scheme;
 
 import javax.annotation.Nonnull;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 public class Policy {
 	// Things we don't preserve:
@@ -49,91 +52,282 @@ public class Policy {
 
 	private SourceExpressionDirective baseUri = null;
 	private boolean blockAllMixedContent = false;
-	private SourceExpressionDirective formAction = null;
+	// These five are package-private so that PolicyMatcher can read them without unsharing them; see unshare
+	SourceExpressionDirective formAction = null;
 
-	private FrameAncestorsDirective frameAncestors = null;
+	FrameAncestorsDirective frameAncestors = null;
 
-	private SourceExpressionDirective navigateTo = null;
+	SourceExpressionDirective navigateTo = null;
 
-	private PluginTypesDirective pluginTypes;
+	PluginTypesDirective pluginTypes;
 
 	private RFC7230Token reportTo;
 
 	private ReportUriDirective reportUri;
 
-	private SandboxDirective sandbox = null;
+	SandboxDirective sandbox = null;
 	private boolean upgradeInsecureRequests = false;
 
 	@Nonnull
 	private final EnumMap<FetchDirectiveKind, SourceExpressionDirective> fetchDirectives = new EnumMap<>(FetchDirectiveKind.class);
 
+	// True only for ImmutablePolicy, all of whose directives are frozen
+	private final boolean immutable;
+
 	private Policy() {
-		// pass
+		this.immutable = false;
+	}
+
+	// Copies the structure of `source`. Frozen directives are shared with it; the rest are copied, and the copies frozen if
+	// `immutable` is set. A mutable policy replaces any shared directive with a private copy before handing it out; see unshare.
+	Policy(Policy source, boolean immutable) {
+		this.immutable = immutable;
+		// Exactly sized, since immutable policies never grow and caches hold a great many of them
+		this.directives = new ArrayList<>(source.directives.size());
+		IdentityHashMap<Directive, Directive> copies = new IdentityHashMap<>();
+		for (NamedDirective named : source.directives) {
+			Directive directive = named.directive;
+			if (directive.isFrozen()) {
+				this.directives.add(named);
+				copies.put(directive, directive);
+			} else {
+				Directive copy = directive.copy();
+				if (immutable) {
+					copy.freeze();
+				}
+				this.directives.add(new NamedDirective(named.name, copy));
+				copies.put(directive, copy);
+			}
+		}
+		this.baseUri = (SourceExpressionDirective) copies.get(source.baseUri);
+		this.blockAllMixedContent = source.blockAllMixedContent;
+		this.formAction = (SourceExpressionDirective) copies.get(source.formAction);
+		this.frameAncestors = (FrameAncestorsDirective) copies.get(source.frameAncestors);
+		this.navigateTo = (SourceExpressionDirective) copies.get(source.navigateTo);
+		this.pluginTypes = (PluginTypesDirective) copies.get(source.pluginTypes);
+		this.reportTo = source.reportTo;
+		this.reportUri = (ReportUriDirective) copies.get(source.reportUri);
+		this.sandbox = (SandboxDirective) copies.get(source.sandbox);
+		this.upgradeInsecureRequests = source.upgradeInsecureRequests;
+		for (Map.Entry<FetchDirectiveKind, SourceExpressionDirective> entry : source.fetchDirectives.entrySet()) {
+			this.fetchDirectives.put(entry.getKey(), (SourceExpressionDirective) copies.get(entry.getValue()));
+		}
+	}
+
+	// Returns an immutable copy of this policy, or this policy itself if it is already immutable.
+	// Copying a policy obtained from mutableCopy() only copies the directives which have been accessed or changed since.
+	public ImmutablePolicy toImmutable() {
+		if (this.immutable) {
+			return (ImmutablePolicy) this;
+		}
+		return new ImmutablePolicy(this);
+	}
+
+	// Returns a mutable copy of this policy. Directives of an ImmutablePolicy are shared rather than copied, and are only
+	// copied when first handed out by an accessor, so making a small change to a copy of a large policy is cheap.
+	public Policy mutableCopy() {
+		return new Policy(this, false);
+	}
+
+	private void checkMutable() {
+		if (this.immutable) {
+			throw new UnsupportedOperationException("ImmutablePolicy cannot be modified; use mutableCopy() to get a policy which can be");
+		}
+	}
+
+	// Replaces a directive shared with an ImmutablePolicy by a private copy, so that it can be handed out for modification
+	private <T extends Directive> T unshare(T directive) {
+		if (directive == null || this.immutable || !directive.isFrozen()) {
+			return directive;
+		}
+		@SuppressWarnings("unchecked")
+		T copy = (T) directive.copy();
+		for (int i = 0; i < this.directives.size(); ++i) {
+			NamedDirective named = this.directives.get(i);
+			if (named.directive == directive) {
+				this.directives.set(i, new NamedDirective(named.name, copy));
+			}
+		}
+		if (this.baseUri == directive) {
+			this.baseUri = (SourceExpressionDirective) copy;
+		}
+		if (this.formAction == directive) {
+			this.formAction = (SourceExpressionDirective) copy;
+		}
+		if (this.frameAncestors == directive) {
+			this.frameAncestors = (FrameAncestorsDirective) copy;
+		}
+		if (this.navigateTo == directive) {
+			this.navigateTo = (SourceExpressionDirective) copy;
+		}
+		if (this.pluginTypes == directive) {
+			this.pluginTypes = (PluginTypesDirective) copy;
+		}
+		if (this.reportUri == directive) {
+			this.reportUri = (ReportUriDirective) copy;
+		}
+		if (this.sandbox == directive) {
+			this.sandbox = (SandboxDirective) copy;
+		}
+		for (Map.Entry<FetchDirectiveKind, SourceExpressionDirective> entry : this.fetchDirectives.entrySet()) {
+			if (entry.getValue() == directive) {
+				entry.setValue((SourceExpressionDirective) copy);
+			}
+		}
+		return copy;
 	}
 
 	// https://w3c.github.io/webappsec-csp/#parse-serialized-policy-list
 	@Nonnull
 	public static PolicyList parseSerializedCSPList(String serialized, PolicyListErrorConsumer policyListErrorConsumer) {
+		return parseSerializedCSPList((CharSequence) serialized, policyListErrorConsumer);
+	}
+
+	// As above, but for a header which is not already a String. Only the directive names and values are copied out of
+	// `serialized`, which must not change during the call.
+	@Nonnull
+	public static PolicyList parseSerializedCSPList(CharSequence serialized, PolicyListErrorConsumer policyListErrorConsumer) {
 		// "A serialized CSP list is an ASCII string"
 		enforceAscii(serialized);
 
 		List<Policy> policies = new ArrayList<>();
 
 		int[] index = { 0 }; // java's lambdas are dumb
-		PolicyErrorConsumer policyErrorConsumer = (Severity severity, String message, int directiveIndex, int valueIndex) -> {
-			policyListErrorConsumer.add(severity, message, index[0], directiveIndex, valueIndex);
-		};
+		PolicyErrorConsumer policyErrorConsumer = new PolicyErrorConsumer() {
+			@Override
+			public void add(Severity severity, String message, int directiveIndex, int valueIndex) {
+				policyListErrorConsumer.add(severity, message, index[0], directiveIndex, valueIndex);
+			}
 
-		// https://infra.spec.whatwg.org/#split-on-commas
-		for (String token : serialized.split(",")) {
-			Policy policy = parseSerializedCSP(token, policyErrorConsumer);
-			if (policy.directives.isEmpty()) {
-				++index[0];
-				continue;
+			@Override
+			public void add(ErrorCode code, @Nullable Object argument, int directiveIndex, int valueIndex) {
+				policyListErrorConsumer.add(code, argument, index[0], directiveIndex, valueIndex);
 			}
 
-			policies.add(policy);
+			@Override
+			public boolean ignoresWarnings() {
+				return policyListErrorConsumer.ignoresWarnings();
+			}
+		};
 
+		// https://infra.spec.whatwg.org/#split-on-commas
+		int policyStart = 0;
+		while (true) {
+			int comma = indexOf(serialized, ',', policyStart);
+			int policyEnd = comma == -1 ? serialized.length() : comma;
+			Policy policy = parseSerializedCSP(serialized, policyStart, policyEnd, policyErrorConsumer);
+			if (!policy.directives.isEmpty()) {
+				policies.add(policy);
+			}
 			++index[0];
+
+			if (comma == -1) {
+				break;
+			}
+			policyStart = comma + 1;
 		}
 		return new PolicyList(policies);
 	}
 
+	// The bytes of an ASCII header, such as one read straight off the network, without decoding them into a String first.
+	// Bytes outside ASCII are rejected just as non-ASCII chars are.
+	@Nonnull
+	public static PolicyList parseSerializedCSPList(byte[] serialized, int offset, int length, PolicyListErrorConsumer policyListErrorConsumer) {
+		return parseSerializedCSPList(new AsciiByteSequence(serialized, offset, length), policyListErrorConsumer);
+	}
+
+	// The remaining bytes of `serialized`, whose position is left unchanged
+	@Nonnull
+	public static PolicyList parseSerializedCSPList(ByteBuffer serialized, PolicyListErrorConsumer policyListErrorConsumer) {
+		return parseSerializedCSPList(new AsciiByteSequence(serialized), policyListErrorConsumer);
+	}
+
 	// https://w3c.github.io/webappsec-csp/#parse-serialized-policy
 	@Nonnull
 	public static Policy parseSerializedCSP(String serialized, PolicyErrorConsumer policyErrorConsumer) {
+		return parseSerializedCSP((CharSequence) serialized, policyErrorConsumer);
+	}
+
+	// See parseSerializedCSPList(CharSequence, PolicyListErrorConsumer)
+	@Nonnull
+	public static Policy parseSerializedCSP(CharSequence serialized, PolicyErrorConsumer policyErrorConsumer) {
 		// "A serialized CSP is an ASCII string", and browsers do in fact reject CSPs which contain non-ASCII characters
 		enforceAscii(serialized);
-		if (serialized.contains(",")) {
+		if (indexOf(serialized, ',', 0) != -1) {
 			// This is not quite per spec, but
 			throw new IllegalArgumentException("Serialized CSPs cannot contain commas - you may have wanted parseSerializedCSPList");
 		}
 
-		int[] index = { 0 }; // java's lambdas are dumb
-		Directive.DirectiveErrorConsumer directiveErrorConsumer = (Severity severity, String message, int valueIndex) -> {
-			policyErrorConsumer.add(severity, message, index[0], valueIndex);
-		};
+		return parseSerializedCSP(serialized, 0, serialized.length(), policyErrorConsumer);
+	}
 
-		Policy policy = new Policy();
+	@Nonnull
+	public static Policy parseSerializedCSP(byte[] serialized, int offset, int length, PolicyErrorConsumer policyErrorConsumer) {
+		return parseSerializedCSP(new AsciiByteSequence(serialized, offset, length), policyErrorConsumer);
+	}
 
-		// https://infra.spec.whatwg.org/#strictly-split
-		for (String token : serialized.split(";")) {
-			String strippedLeadingAndTrailingWhitespace = stripTrailingWhitespace(stripLeadingWhitespace(token));
-			if (strippedLeadingAndTrailingWhitespace.isEmpty()) {
-				++index[0];
-				continue;
-			}
-			String directiveName = collect(strippedLeadingAndTrailingWhitespace, "[^" + Constants.WHITESPACE_CHARS + "]+");
+	@Nonnull
+	public static Policy parseSerializedCSP(ByteBuffer serialized, PolicyErrorConsumer policyErrorConsumer) {
+		return parseSerializedCSP(new AsciiByteSequence(serialized), policyErrorConsumer);
+	}
 
-			// Note: we do not lowercase directive names or skip duplicates during parsing, to allow round-tripping even invalid policies
+	// Parses serialized[start, end), which must already be known to be ASCII and free of commas.
+	// This is a single pass over the characters which does the work of
+	// https://infra.spec.whatwg.org/#strictly-split on ";", stripping leading and trailing whitespace,
+	// collecting the directive name, and https://infra.spec.whatwg.org/#split-on-ascii-whitespace for the values.
+	@Nonnull
+	private static Policy parseSerializedCSP(CharSequence serialized, int start, int end, PolicyErrorConsumer policyErrorConsumer) {
+		int[] index = { 0 }; // java's lambdas are dumb
+		Directive.DirectiveErrorConsumer directiveErrorConsumer = new Directive.DirectiveErrorConsumer() {
+			@Override
+			public void add(Severity severity, String message, int valueIndex) {
+				policyErrorConsumer.add(severity, message, index[0], valueIndex);
+			}
 
-			String remainingToken = strippedLeadingAndTrailingWhitespace.substring(directiveName.length());
+			@Override
+			public void add(ErrorCode code, @Nullable Object argument, int valueIndex) {
+				policyErrorConsumer.add(code, argument, index[0], valueIndex);
+			}
 
-			List<String> directiveValues = Utils.splitOnAsciiWhitespace(remainingToken);
+			@Override
+			public boolean ignoresWarnings() {
+				return policyErrorConsumer.ignoresWarnings();
+			}
+		};
 
-			policy.add(directiveName, directiveValues, directiveErrorConsumer);
+		Policy policy = new Policy();
 
-			++index[0];
+		String directiveName = null;
+		List<String> directiveValues = new ArrayList<>();
+		int tokenStart = -1;
+		for (int i = start; i <= end; ++i) {
+			// The end of the input terminates the last directive just like a ';' would
+			char c = i < end ? serialized.charAt(i) : ';';
+			if (c != ';' && !Utils.isAsciiWhitespace(c)) {
+				if (tokenStart == -1) {
+					tokenStart = i;
+				}
+				continue;
+			}
+			if (tokenStart != -1) {
+				String token = Tokens.token(serialized, tokenStart, i);
+				if (directiveName == null) {
+					directiveName = token;
+				} else {
+					directiveValues.add(token);
+				}
+				tokenStart = -1;
+			}
+			if (c == ';') {
+				// Directives which are empty after stripping whitespace are skipped, but still count towards the index
+				if (directiveName != null) {
+					// Note: we do not lowercase directive names or skip duplicates during parsing, to allow round-tripping even invalid policies
+					policy.add(directiveName, directiveValues, directiveErrorConsumer);
+					directiveName = null;
+					directiveValues = new ArrayList<>();
+				}
+				++index[0];
+			}
 		}
 
 		return policy;
@@ -145,10 +339,11 @@ public class Policy {
 
 	// We do not provide a generic method for updating an existing directive in-place. Just remove the existing one and add it back.
 	public Directive add(String name, List<String> values, Directive.DirectiveErrorConsumer directiveErrorConsumer) {
+		this.checkMutable();
 		enforceAscii(name);
 
 		// the parser will never hit these errors by construction, but use of the manipulation APIs can
-		if (Directive.containsNonDirectiveCharacter.test(name)) {
+		if (Utils.containsNonDirectiveCharacter(name)) {
 			throw new IllegalArgumentException("directive names must not contain whitespace, ',', or ';'");
 		}
 		if (name.isEmpty()) {
@@ -157,7 +352,7 @@ public class Policy {
 
 		boolean wasDupe = false;
 		Directive newDirective;
-		String lowcaseDirectiveName = name.toLowerCase(Locale.ENGLISH);
+		String lowcaseDirectiveName = Tokens.lowercase(name);
 		switch (lowcaseDirectiveName) {
 			case "base-uri": {
 				// https://w3c.github.io/webappsec-csp/#directive-base-uri
@@ -174,7 +369,7 @@ public class Policy {
 				// https://www.w3.org/TR/mixed-content/#strict-opt-in
 				if (!this.blockAllMixedContent) {
 					if (!values.isEmpty()) {
-						directiveErrorConsumer.add(Severity.Error, "The block-all-mixed-content directive does not support values", 0);
+						directiveErrorConsumer.add(ErrorCode.BLOCK_ALL_MIXED_CONTENT_HAS_VALUES, null, 0);
 					}
 					this.blockAllMixedContent = true;
 				} else {
@@ -234,17 +429,17 @@ public class Policy {
 				// https://w3c.github.io/webappsec-csp/#directive-report-to
 				if (this.reportTo == null) {
 					if (values.isEmpty()) {
-						directiveErrorConsumer.add(Severity.Error, "The report-to directive requires a value", -1);
+						directiveErrorConsumer.add(ErrorCode.REPORT_TO_MISSING_VALUE, null, -1);
 					} else if (values.size() == 1) {
 						String token = values.get(0);
 						Optional<RFC7230Token> matched = RFC7230Token.parseRFC7230Token(token);
 						if (matched.isPresent()) {
 							this.reportTo = matched.get();
 						} else {
-							directiveErrorConsumer.add(Severity.Error, "Expecting RFC 7230 token but found \"" + token + "\"", 0);
+							directiveErrorConsumer.add(ErrorCode.REPORT_TO_INVALID_TOKEN, token, 0);
 						}
 					} else {
-						directiveErrorConsumer.add(Severity.Error, "The report-to directive requires exactly one value (found " + values.size() + ")", 1);
+						directiveErrorConsumer.add(ErrorCode.REPORT_TO_MULTIPLE_VALUES, values.size(), 1);
 					}
 				} else {
 					wasDupe = true;
@@ -254,7 +449,7 @@ public class Policy {
 			}
 			case "report-uri": {
 				// https://w3c.github.io/webappsec-csp/#directive-report-uri
-				directiveErrorConsumer.add(Severity.Warning,"The report-uri directive has been deprecated in favor of the new report-to directive", -1);
+				directiveErrorConsumer.add(ErrorCode.REPORT_URI_DEPRECATED, null, -1);
 
 				ReportUriDirective thisDirective = new ReportUriDirective(values, directiveErrorConsumer);
 				if (this.reportUri == null) {
@@ -280,7 +475,7 @@ public class Policy {
 				// https://www.w3.org/TR/upgrade-insecure-requests/#delivery
 				if (!this.upgradeInsecureRequests) {
 					if (!values.isEmpty()) {
-						directiveErrorConsumer.add(Severity.Error, "The upgrade-insecure-requests directive does not support values", 0);
+						directiveErrorConsumer.add(ErrorCode.UPGRADE_INSECURE_REQUESTS_HAS_VALUES, null, 0);
 					}
 					this.upgradeInsecureRequests = true;
 				} else {
@@ -290,8 +485,8 @@ public class Policy {
 				break;
 			}
 			default: {
-				if (!Directive.IS_DIRECTIVE_NAME.test(name)) {
-					directiveErrorConsumer.add(Severity.Error, "Directive name " + name + " contains characters outside the range ALPHA / DIGIT / \"-\"", -1);
+				if (!Utils.isDirectiveName(name)) {
+					directiveErrorConsumer.add(ErrorCode.INVALID_DIRECTIVE_NAME, name, -1);
 					newDirective = new Directive(values);
 					break;
 				}
@@ -306,7 +501,7 @@ public class Policy {
 					newDirective = thisDirective;
 					break;
 				}
-				directiveErrorConsumer.add(Severity.Warning, "Unrecognized directive " + lowcaseDirectiveName, -1);
+				directiveErrorConsumer.add(ErrorCode.UNRECOGNIZED_DIRECTIVE, lowcaseDirectiveName, -1);
 				newDirective = new Directive(values);
 				break;
 			}
@@ -314,7 +509,7 @@ public class Policy {
 
 		this.directives.add(new NamedDirective(name, newDirective));
 		if (wasDupe) {
-			directiveErrorConsumer.add(Severity.Warning, "Duplicate directive " + lowcaseDirectiveName, -1);
+			directiveErrorConsumer.add(ErrorCode.DUPLICATE_DIRECTIVE, lowcaseDirectiveName, -1);
 		}
 		return newDirective;
 	}
@@ -322,8 +517,9 @@ public class Policy {
 	// Note that this removes all directives matching this name.
 	// Returns true if at least one directive was removed.
 	public boolean remove(String name) {
+		this.checkMutable();
 		boolean removed = false;
-		String lowcaseName = name.toLowerCase(Locale.ENGLISH);
+		String lowcaseName = Tokens.lowercase(name);
 		ArrayList<NamedDirective> copy = new ArrayList<>(this.directives.size());
 		for (NamedDirective existing : this.directives) {
 			if (!existing.lowcaseName.equals(lowcaseName)) {
@@ -391,7 +587,25 @@ public class Policy {
 
 	@Override
 	public String toString() {
-		StringBuilder out = new StringBuilder();
+		StringBuilder out = new StringBuilder(this.serializedLength());
+		this.appendTo(out);
+		return out.toString();
+	}
+
+	// The length of toString() in chars, which is also its length in bytes, since policies are ASCII.
+	// This is cheap once the directives' values have been serialized, and serializing the policy reuses that work.
+	public int serializedLength() {
+		int length = 0;
+		for (NamedDirective directive : this.directives) {
+			String values = directive.directive.serializedValues();
+			length += directive.name.length() + (values.isEmpty() ? 0 : 1 + values.length());
+		}
+		return this.directives.isEmpty() ? 0 : length + 2 * (this.directives.size() - 1);
+	}
+
+	// Appends what toString returns. Each directive's values are serialized once and reused until that directive changes,
+	// so serializing again after changing one directive only redoes that directive.
+	public void appendTo(@Nonnull Appendable out) throws IOException {
 		boolean first = true;
 		for (NamedDirective directive : this.directives) {
 			if (!first) {
@@ -399,19 +613,86 @@ public class Policy {
 			}
 			first = false;
 			out.append(directive.name);
-			for (String value : directive.directive.getValues()) {
+			String values = directive.directive.serializedValues();
+			if (!values.isEmpty()) {
 				out.append(' ');
-				out.append(value);
+				out.append(values);
 			}
 		}
-		return out.toString();
+	}
+
+	public void appendTo(@Nonnull StringBuilder out) {
+		try {
+			this.appendTo((Appendable) out);
+		} catch (IOException e) {
+			throw new RuntimeException("unreachable: StringBuilder does not throw", e);
+		}
+	}
+
+	// Writes toString() as ASCII at the buffer's position, advancing it by serializedLength().
+	// Throws BufferOverflowException, having written nothing, if fewer than serializedLength() bytes remain.
+	public void writeTo(@Nonnull ByteBuffer out) {
+		int length = this.serializedLength();
+		if (out.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		try {
+			this.appendTo(new AsciiByteBufferAppendable(out));
+		} catch (IOException e) {
+			throw new RuntimeException("unreachable: AsciiByteBufferAppendable does not throw", e);
+		}
+	}
+
+	// Writes toString() as ASCII in a single write
+	public void writeTo(@Nonnull OutputStream out) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(this.serializedLength());
+		this.writeTo(bytes);
+		out.write(bytes.array());
+	}
+
+	// Serializes this policy as toString does, but splits the output at the end of each directive in `split`, whose 'none'
+	// is dropped as it would be by adding a value to it. Used by PolicyTemplate, which puts the nonce at the splits.
+	List<String> serializeSplittingAfter(Set<Directive> split) {
+		List<String> out = new ArrayList<>();
+		StringBuilder current = new StringBuilder();
+		boolean first = true;
+		for (NamedDirective directive : this.directives) {
+			if (!first) {
+				current.append("; ");
+			}
+			first = false;
+			current.append(directive.name);
+			boolean splitHere = split.contains(directive.directive);
+			for (String value : directive.directive.getValues()) {
+				if (splitHere && value.equalsIgnoreCase("'none'")) {
+					continue;
+				}
+				current.append(' ');
+				current.append(value);
+			}
+			if (splitHere) {
+				out.add(current.toString());
+				current.setLength(0);
+			}
+		}
+		out.add(current.toString());
+		return out;
+	}
+
+	// The lowercase names of the directives in order, including duplicated and unrecognized ones. Used by Analyzer.
+	List<String> directiveNames() {
+		List<String> names = new ArrayList<>(this.directives.size());
+		for (NamedDirective directive : this.directives) {
+			names.add(directive.lowcaseName);
+		}
+		return names;
 	}
 
 	// Accessors
 
 
 	public Optional<SourceExpressionDirective> baseUri() {
-		return Optional.ofNullable(this.baseUri);
+		return Optional.ofNullable(this.unshare(this.baseUri));
 	}
 
 	public boolean blockAllMixedContent() {
@@ -419,6 +700,7 @@ public class Policy {
 	}
 
 	public void setBlockAllMixedContent(boolean value) {
+		this.checkMutable();
 		if (this.blockAllMixedContent) {
 			if (value) {
 				return;
@@ -434,19 +716,19 @@ public class Policy {
 	}
 
 	public Optional<SourceExpressionDirective> formAction() {
-		return Optional.ofNullable(this.formAction);
+		return Optional.ofNullable(this.unshare(this.formAction));
 	}
 
 	public Optional<FrameAncestorsDirective> frameAncestors() {
-		return Optional.ofNullable(this.frameAncestors);
+		return Optional.ofNullable(this.unshare(this.frameAncestors));
 	}
 
 	public Optional<SourceExpressionDirective> navigateTo() {
-		return Optional.ofNullable(this.navigateTo);
+		return Optional.ofNullable(this.unshare(this.navigateTo));
 	}
 
 	public Optional<PluginTypesDirective> pluginTypes() {
-		return Optional.ofNullable(this.pluginTypes);
+		return Optional.ofNullable(this.unshare(this.pluginTypes));
 	}
 
 	public Optional<RFC7230Token> reportTo() {
@@ -454,6 +736,7 @@ public class Policy {
 	}
 
 	public void setReportTo(RFC7230Token token) {
+		this.checkMutable();
 		if (token == null) {
 			this.remove("report-to");
 			return;
@@ -463,9 +746,10 @@ public class Policy {
 		boolean found = false;
 		for (NamedDirective directive : this.directives) {
 			if (directive.lowcaseName.equals("report-to")) {
-				directive.directive.values = new ArrayList<>();
+				Directive reportTo = this.unshare(directive.directive);
+				reportTo.values = new ArrayList<>();
 				// using addValue gives us its sanity checks
-				directive.directive.addValue(token.value);
+				reportTo.addValue(token.value);
 				found = true;
 				break;
 			}
@@ -477,11 +761,11 @@ public class Policy {
 	}
 
 	public Optional<ReportUriDirective> reportUri() {
-		return Optional.ofNullable(this.reportUri);
+		return Optional.ofNullable(this.unshare(this.reportUri));
 	}
 
 	public Optional<SandboxDirective> sandbox() {
-		return Optional.ofNullable(this.sandbox);
+		return Optional.ofNullable(this.unshare(this.sandbox));
 	}
 
 	public boolean upgradeInsecureRequests() {
@@ -489,6 +773,7 @@ public class Policy {
 	}
 
 	public void setUpgradeInsecureRequests(boolean value) {
+		this.checkMutable();
 		if (this.upgradeInsecureRequests) {
 			if (value) {
 				return;
@@ -504,7 +789,7 @@ public class Policy {
 	}
 
 	public Optional<SourceExpressionDirective> getFetchDirective(FetchDirectiveKind kind) {
-		return Optional.ofNullable(this.fetchDirectives.get(kind));
+		return Optional.ofNullable(this.unshare(this.fetchDirectives.get(kind)));
 	}
 
 
@@ -520,11 +805,20 @@ public class Policy {
 	https://w3c.github.io/webappsec-csp/#script-post-request
 	 */
 	public boolean allowsExternalScript(Optional<String> nonce, Optional<String> integrity, Optional<URLWithScheme> scriptUrl, Optional<Boolean> parserInserted, Optional<URLWithScheme> origin) {
+		return this.allowsExternalScriptWithIntegrity(nonce, integrity.map(IntegrityMetadata::new), scriptUrl, parserInserted, origin);
+	}
+
+	// As above, but reuses integrity metadata already parsed by earlier checks
+	public boolean allowsExternalScript(Optional<String> nonce, IntegrityMetadata integrity, Optional<URLWithScheme> scriptUrl, Optional<Boolean> parserInserted, Optional<URLWithScheme> origin) {
+		return this.allowsExternalScriptWithIntegrity(nonce, Optional.of(integrity), scriptUrl, parserInserted, origin);
+	}
+
+	private boolean allowsExternalScriptWithIntegrity(Optional<String> nonce, Optional<IntegrityMetadata> integrity, Optional<URLWithScheme> scriptUrl, Optional<Boolean> parserInserted, Optional<URLWithScheme> origin) {
 		if (this.sandbox != null && !this.sandbox.allowScripts()) {
 			return false;
 		}
 		// Effective directive is "script-src-elem" per https://w3c.github.io/webappsec-csp/#effective-directive-for-a-request
-		SourceExpressionDirective directive = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.ScriptSrcElem).orElse(null);
+		SourceExpressionDirective directive = this.governingDirective(FetchDirectiveKind.ScriptSrcElem);
 		if (directive == null) {
 			return true;
 		}
@@ -535,22 +829,7 @@ public class Policy {
 			}
 		}
 		if (integrity.isPresent() && !directive.getHashes().isEmpty()) {
-			String integritySources = integrity.get();
-			boolean bypassDueToIntegrityMatch = true;
-			boolean atLeastOneValidIntegrity = false;
-			// https://www.w3.org/TR/SRI/#parse-metadata
-			for (String source : Utils.splitOnAsciiWhitespace(integritySources)) {
-				Optional<Hash> parsedIntegritySource = Hash.parseHash("'" + source + "'");
-				if (!parsedIntegritySource.isPresent()) {
-					continue;
-				}
-				if (!directive.getHashes().contains(parsedIntegritySource.get())) {
-					bypassDueToIntegrityMatch = false;
-					break;
-				}
-				atLeastOneValidIntegrity = true;
-			}
-			if (atLeastOneValidIntegrity && bypassDueToIntegrityMatch) {
+			if (integrity.get().matches(directive.getHashes())) {
 				return true;
 			}
 		}
@@ -568,7 +847,15 @@ public class Policy {
 		if (this.sandbox != null && !this.sandbox.allowScripts()) {
 			return false;
 		}
-		return doesElementMatchSourceListForTypeAndSource(InlineType.Script, nonce, source, parserInserted);
+		return doesElementMatchSourceListForTypeAndSource(InlineType.Script, nonce, source.map(InlineSource::new), parserInserted);
+	}
+
+	// As above, but reuses any digests of `source` already computed by earlier checks
+	public boolean allowsInlineScript(Optional<String> nonce, InlineSource source, Optional<Boolean> parserInserted) {
+		if (this.sandbox != null && !this.sandbox.allowScripts()) {
+			return false;
+		}
+		return doesElementMatchSourceListForTypeAndSource(InlineType.Script, nonce, Optional.of(source), parserInserted);
 	}
 
 	// https://w3c.github.io/webappsec-csp/#script-src-attr-inline
@@ -576,7 +863,14 @@ public class Policy {
 		if (this.sandbox != null && !this.sandbox.allowScripts()) {
 			return false;
 		}
-		return doesElementMatchSourceListForTypeAndSource(InlineType.ScriptAttribute, Optional.empty(), source, Optional.empty());
+		return doesElementMatchSourceListForTypeAndSource(InlineType.ScriptAttribute, Optional.empty(), source.map(InlineSource::new), Optional.empty());
+	}
+
+	public boolean allowsScriptAsAttribute(InlineSource source) {
+		if (this.sandbox != null && !this.sandbox.allowScripts()) {
+			return false;
+		}
+		return doesElementMatchSourceListForTypeAndSource(InlineType.ScriptAttribute, Optional.empty(), Optional.of(source), Optional.empty());
 	}
 
 	// https://w3c.github.io/webappsec-csp/#can-compile-strings
@@ -651,13 +945,18 @@ public class Policy {
 
 	// NB: the hashes (for unsafe-hashes) are supposed to include the javascript: part, per spec
 	public boolean allowsJavascriptUrlNavigation(Optional<String> source, Optional<URLWithScheme> origin) {
-		return this.allowsNavigation(Optional.of(new GUID("javascript", source.orElse(""))), Optional.of(false), Optional.empty(), origin)
-				&& this.doesElementMatchSourceListForTypeAndSource(InlineType.Navigation, Optional.empty(), source.map(s -> "javascript:" + s), Optional.of(false));
+		return this.allowsJavascriptUrlNavigation(new GUID("javascript", source.orElse("")), source.map(s -> new InlineSource("javascript:" + s)), origin);
+	}
+
+	// As above, given the URL and its source as constructed there; used by PolicyList to construct them only once
+	boolean allowsJavascriptUrlNavigation(GUID url, Optional<InlineSource> source, Optional<URLWithScheme> origin) {
+		return this.allowsNavigation(Optional.of(url), Optional.of(false), Optional.empty(), origin)
+				&& this.doesElementMatchSourceListForTypeAndSource(InlineType.Navigation, Optional.empty(), source, Optional.of(false));
 	}
 
 	public boolean allowsExternalStyle(Optional<String> nonce, Optional<URLWithScheme> styleUrl, Optional<URLWithScheme> origin) {
 		// Effective directive is "script-src-elem" per https://w3c.github.io/webappsec-csp/#effective-directive-for-a-request
-		SourceExpressionDirective directive = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.StyleSrcElem).orElse(null);
+		SourceExpressionDirective directive = this.governingDirective(FetchDirectiveKind.StyleSrcElem);
 		if (directive == null) {
 			return true;
 		}
@@ -675,15 +974,23 @@ public class Policy {
 	}
 
 	public boolean allowsInlineStyle(Optional<String> nonce, Optional<String> source) {
-		return doesElementMatchSourceListForTypeAndSource(InlineType.Style, nonce, source, Optional.empty());
+		return doesElementMatchSourceListForTypeAndSource(InlineType.Style, nonce, source.map(InlineSource::new), Optional.empty());
+	}
+
+	public boolean allowsInlineStyle(Optional<String> nonce, InlineSource source) {
+		return doesElementMatchSourceListForTypeAndSource(InlineType.Style, nonce, Optional.of(source), Optional.empty());
 	}
 
 	public boolean allowsStyleAsAttribute(Optional<String> source) {
-		return doesElementMatchSourceListForTypeAndSource(InlineType.StyleAttribute, Optional.empty(), source, Optional.empty());
+		return doesElementMatchSourceListForTypeAndSource(InlineType.StyleAttribute, Optional.empty(), source.map(InlineSource::new), Optional.empty());
+	}
+
+	public boolean allowsStyleAsAttribute(InlineSource source) {
+		return doesElementMatchSourceListForTypeAndSource(InlineType.StyleAttribute, Optional.empty(), Optional.of(source), Optional.empty());
 	}
 
 	public boolean allowsFrame(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
-		SourceExpressionDirective sourceList = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.FrameSrc).orElse(null);
+		SourceExpressionDirective sourceList = this.governingDirective(FetchDirectiveKind.FrameSrc);
 		if (sourceList == null) {
 			return true;
 		}
@@ -706,31 +1013,31 @@ public class Policy {
 
 	// This assumes that a `ws:` or `wss:` URL is being used with `new WebSocket` specifically
 	public boolean allowsConnection(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
-		SourceExpressionDirective sourceList = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.ConnectSrc).orElse(null);
+		SourceExpressionDirective sourceList = this.governingDirective(FetchDirectiveKind.ConnectSrc);
 		if (sourceList == null) {
 			return true;
 		}
 		if (!source.isPresent()) {
 			return false;
 		}
-		// See https://fetch.spec.whatwg.org/#concept-websocket-establish
-		// Also browsers don't implement this; see https://github.com/w3c/webappsec-csp/issues/429
-		URLWithScheme actualSource = source.get();
-		String scheme = actualSource.scheme;
-		URLWithScheme usedSource = actualSource;
-		if (actualSource instanceof URI) {
-			if (scheme.equals("ws")) {
-				usedSource = new URI("http", actualSource.host, actualSource.port, actualSource.path);
-			} else if (scheme.equals("wss")) {
-				usedSource = new URI("https", actualSource.host, actualSource.port, actualSource.path);
+		return doesUrlMatchSourceListInOrigin(webSocketToHttp(source.get()), sourceList, origin);
+	}
+
+	// See https://fetch.spec.whatwg.org/#concept-websocket-establish
+	// Also browsers don't implement this; see https://github.com/w3c/webappsec-csp/issues/429
+	static URLWithScheme webSocketToHttp(URLWithScheme url) {
+		if (url instanceof URI) {
+			if (url.scheme.equals("ws")) {
+				return new URI("http", url.host, url.port, url.path);
+			} else if (url.scheme.equals("wss")) {
+				return new URI("https", url.host, url.port, url.path);
 			}
 		}
-
-		return doesUrlMatchSourceListInOrigin(usedSource, sourceList, origin);
+		return url;
 	}
 
 	public boolean allowsFont(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
-		SourceExpressionDirective sourceList = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.FontSrc).orElse(null);
+		SourceExpressionDirective sourceList = this.governingDirective(FetchDirectiveKind.FontSrc);
 		if (sourceList == null) {
 			return true;
 		}
@@ -741,7 +1048,7 @@ public class Policy {
 	}
 
 	public boolean allowsImage(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
-		SourceExpressionDirective sourceList = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.ImgSrc).orElse(null);
+		SourceExpressionDirective sourceList = this.governingDirective(FetchDirectiveKind.ImgSrc);
 		if (sourceList == null) {
 			return true;
 		}
@@ -752,7 +1059,7 @@ public class Policy {
 	}
 
 	public boolean allowsApplicationManifest(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
-		SourceExpressionDirective sourceList = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.ManifestSrc).orElse(null);
+		SourceExpressionDirective sourceList = this.governingDirective(FetchDirectiveKind.ManifestSrc);
 		if (sourceList == null) {
 			return true;
 		}
@@ -763,7 +1070,7 @@ public class Policy {
 	}
 
 	public boolean allowsMedia(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
-		SourceExpressionDirective sourceList = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.MediaSrc).orElse(null);
+		SourceExpressionDirective sourceList = this.governingDirective(FetchDirectiveKind.MediaSrc);
 		if (sourceList == null) {
 			return true;
 		}
@@ -774,7 +1081,7 @@ public class Policy {
 	}
 
 	public boolean allowsObject(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
-		SourceExpressionDirective sourceList = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.ObjectSrc).orElse(null);
+		SourceExpressionDirective sourceList = this.governingDirective(FetchDirectiveKind.ObjectSrc);
 		if (sourceList == null) {
 			return true;
 		}
@@ -786,7 +1093,7 @@ public class Policy {
 
 	// Not actually spec'd properly; see https://github.com/whatwg/fetch/issues/1008
 	public boolean allowsPrefetch(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
-		SourceExpressionDirective sourceList = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.PrefetchSrc).orElse(null);
+		SourceExpressionDirective sourceList = this.governingDirective(FetchDirectiveKind.PrefetchSrc);
 		if (sourceList == null) {
 			return true;
 		}
@@ -797,7 +1104,7 @@ public class Policy {
 	}
 
 	public boolean allowsWorker(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
-		SourceExpressionDirective sourceList = getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.WorkerSrc).orElse(null);
+		SourceExpressionDirective sourceList = this.governingDirective(FetchDirectiveKind.WorkerSrc);
 		if (sourceList == null) {
 			return true;
 		}
@@ -818,22 +1125,33 @@ public class Policy {
 	}
 
 
+	// Returns an immutable, thread-safe snapshot of this policy's querying behavior.
+	// Later changes to this policy are not reflected in the returned matcher.
+	public PolicyMatcher compile() {
+		return new PolicyMatcher(this);
+	}
+
 	// https://w3c.github.io/webappsec-csp/#should-directive-execute
 	public Optional<SourceExpressionDirective> getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind kind) {
+		return Optional.ofNullable(this.unshare(this.governingDirective(kind)));
+	}
+
+	// As above, but for querying only: the result may be frozen even if this policy is not
+	SourceExpressionDirective governingDirective(FetchDirectiveKind kind) {
 		for (FetchDirectiveKind candidate : FetchDirectiveKind.getFetchDirectiveFallbackList(kind)) {
 			SourceExpressionDirective list = this.fetchDirectives.get(candidate);
 			if (list != null) {
-				return Optional.of(list);
+				return list;
 			}
 		}
-		return Optional.empty();
+		return null;
 	}
 
 	// https://w3c.github.io/webappsec-csp/#directive-inline-check
 	// https://w3c.github.io/webappsec-csp/#should-block-inline specifies the first four values
 	// https://w3c.github.io/webappsec-csp/#should-block-navigation-request specifies "navigation", used for `javascript:` urls
 	// https://w3c.github.io/webappsec-csp/#effective-directive-for-inline-check
-	private enum InlineType {
+	enum InlineType {
 		Script(FetchDirectiveKind.ScriptSrcElem),
 		ScriptAttribute(FetchDirectiveKind.ScriptSrcAttr),
 		Style(FetchDirectiveKind.StyleSrcElem),
@@ -849,8 +1167,8 @@ public class Policy {
 
 	// Note: this assumes the element is nonceable. See https://w3c.github.io/webappsec-csp/#is-element-nonceable
 	// https://w3c.github.io/webappsec-csp/#match-element-to-source-list
-	private boolean doesElementMatchSourceListForTypeAndSource(InlineType type, Optional<String> nonce, Optional<String> source, Optional<Boolean> parserInserted) {
-		SourceExpressionDirective directive = getGoverningDirectiveForEffectiveDirective(type.effectiveDirective).orElse(null);
+	private boolean doesElementMatchSourceListForTypeAndSource(InlineType type, Optional<String> nonce, Optional<InlineSource> source, Optional<Boolean> parserInserted) {
+		SourceExpressionDirective directive = this.governingDirective(type.effectiveDirective);
 		if (directive == null) {
 			return true;
 		}
@@ -868,44 +1186,9 @@ public class Policy {
 			}
 		}
 		if (source.isPresent() && !directive.getHashes().isEmpty() && (type == InlineType.Script || type == InlineType.Style || directive.unsafeHashes())) {
-			byte[] actualSource = source.get().getBytes(StandardCharsets.UTF_8);
-			Base64.Encoder base64encoder = Base64.getEncoder();
-			String actualSha256 = null;
-			String actualSha384 = null;
-			String actualSha512 = null;
-			try {
-				for (Hash hash : directive.getHashes()) {
-					switch (hash.algorithm) {
-						case SHA256:
-							if (actualSha256 == null) {
-								actualSha256 = base64encoder.encodeToString(MessageDigest.getInstance("SHA-256").digest(actualSource));
-							}
-							if (actualSha256.equals(normalizeBase64Url(hash.base64ValuePart))) {
-								return true;
-							}
-							break;
-						case SHA384:
-							if (actualSha384 == null) {
-								actualSha384 = base64encoder.encodeToString(MessageDigest.getInstance("SHA-384").digest(actualSource));
-							}
-							if (actualSha384.equals(normalizeBase64Url(hash.base64ValuePart))) {
-								return true;
-							}
-							break;
-						case SHA512:
-							if (actualSha512 == null) {
-								actualSha512 = base64encoder.encodeToString(MessageDigest.getInstance("SHA-512").digest(actualSource));
-							}
-							if (actualSha512.equals(normalizeBase64Url(hash.base64ValuePart))) {
-								return true;
-							}
-							break;
-						default:
-							throw new IllegalArgumentException("Unknown hash algorithm " + hash.algorithm);
-					}
-				}
-			} catch (NoSuchAlgorithmException e) {
-				throw new RuntimeException(e);
+			// https://w3c.github.io/webappsec-csp/#match-element-to-source-list steps 5 and 6
+			if (directive.getHashIndex().matches(source.get())) {
+				return true;
 			}
 		}
 		// This is not per spec, but matches implementations and the spec author's intent: https://github.com/w3c/webappsec-csp/issues/426
@@ -915,8 +1198,64 @@ public class Policy {
 		return false;
 	}
 
-	private static String normalizeBase64Url(String input) {
-		return input.replace('-', '+').replace('_', '/');
+	// Used by PolicyInOrigin.allowsFromSources: sets bit i of the result if the allows* method for `kind` would allow the i-th
+	// URL given only it and the origin (i.e. no nonce, integrity, or parser-inserted information).
+	// script-src and style-src are treated as script-src-elem and style-src-elem.
+	BitSet allowsFromSources(FetchDirectiveKind kind, Iterator<? extends URLWithScheme> urls, Optional<URLWithScheme> origin) {
+		SourceExpressionDirective sourceList;
+		boolean allowedWithoutMatching = false;
+		switch (kind) {
+			case ScriptSrc:
+			case ScriptSrcElem:
+				sourceList = this.governingDirective(FetchDirectiveKind.ScriptSrcElem);
+				if (this.sandbox != null && !this.sandbox.allowScripts()) {
+					sourceList = null;
+				} else if (sourceList == null) {
+					allowedWithoutMatching = true;
+				} else if (sourceList.strictDynamic()) {
+					sourceList = null; // as in allowsExternalScript, absent parser-inserted information we assume the worst case
+				}
+				break;
+			case StyleSrc:
+			case StyleSrcElem:
+				sourceList = this.governingDirective(FetchDirectiveKind.StyleSrcElem);
+				allowedWithoutMatching = sourceList == null;
+				break;
+			case ConnectSrc:
+			case FontSrc:
+			case FrameSrc:
+			case ImgSrc:
+			case ManifestSrc:
+			case MediaSrc:
+			case ObjectSrc:
+			case PrefetchSrc:
+			case WorkerSrc:
+				sourceList = this.governingDirective(kind);
+				allowedWithoutMatching = sourceList == null;
+				break;
+			default:
+				throw new IllegalArgumentException(kind.repr + " is not the effective directive for any request");
+		}
+		BitSet allowed = new BitSet();
+		if (sourceList == null) {
+			int count = 0;
+			for (; urls.hasNext(); urls.next()) {
+				++count;
+			}
+			allowed.set(0, count, allowedWithoutMatching);
+			return allowed;
+		}
+		// Compiling the source list costs about as much as matching a few URLs against it, and makes each match cheaper
+		PolicyMatcher.SourceList compiled = new PolicyMatcher.SourceList(sourceList);
+		MatchableURL actualOrigin = origin.isPresent() ? new MatchableURL(origin.get()) : null;
+		boolean isConnection = kind == FetchDirectiveKind.ConnectSrc;
+		for (int i = 0; urls.hasNext(); ++i) {
+			URLWithScheme url = urls.next();
+			if (compiled.matches(new MatchableURL(isConnection ? webSocketToHttp(url) : url), actualOrigin)) {
+				allowed.set(i);
+			}
+		}
+		return allowed;
 	}
 
 	// https://w3c.github.io/webappsec-csp/#match-url-to-source-list
@@ -937,50 +1276,57 @@ public class Policy {
 				return true;
 			}
 		}
-		for (Host expression : list.getHosts()) {
-			String scheme = expression.scheme;
-			if (scheme != null) {
-				if (!schemePartMatches(scheme, urlScheme)) {
-					continue;
+		if (url.host != null) {
+			List<Host> hosts = list.getHosts();
+			// Decodes the URL's path at most once, however many host-sources have paths
+			MatchableURL matchableUrl = new MatchableURL(url);
+			if (hosts.size() >= HostIndex.MIN_INDEXED_HOSTS) {
+				if (list.getHostIndex().anyMatch(url.host, expression -> doesUrlMatchHostSourceExceptHostPart(matchableUrl, expression, origin))) {
+					return true;
 				}
 			} else {
-				if (!origin.isPresent() || !schemePartMatches(origin.get().scheme, urlScheme)) {
-					continue;
+				for (Host expression : hosts) {
+					if (hostPartMatches(expression.host, url.host) && doesUrlMatchHostSourceExceptHostPart(matchableUrl, expression, origin)) {
+						return true;
+					}
 				}
 			}
-			if (url.host == null) {
-				continue;
-			}
-			if (!hostPartMatches(expression.host, url.host)) {
-				continue;
-			}
-			// url.port is non-null whenever url.host is
-			if (!portPartMatches(expression.port, url.port, urlScheme)) {
-				continue;
-			}
-			if (!pathPartMatches(expression.path, url.path)) {
-				continue;
-			}
-			return true;
 		}
 		if (list.self()) {
-			if (origin.isPresent()) {
-				URLWithScheme actualOrigin = origin.get();
-				String originScheme = actualOrigin.scheme;
-				if (
-						Objects.equals(actualOrigin.host, url.host)
-						&& (Objects.equals(actualOrigin.port, url.port) || Objects.equals(actualOrigin.port, URI.defaultPortForProtocol(originScheme)) && Objects.equals(url.port, URI.defaultPortForProtocol(urlScheme)))
-						&& (urlScheme.equals("https") || urlScheme.equals("wss") || originScheme.equals("http") && (urlScheme.equals("http") || urlScheme.equals("ws")))
-				) {
-					return true;
-				}
+			if (origin.isPresent() && doesUrlMatchSelf(url, origin.get())) {
+				return true;
 			}
 		}
 		return false;
 	}
 
+	// The host-source case of https://w3c.github.io/webappsec-csp/#match-url-to-source-expression, less the host-part
+	private static boolean doesUrlMatchHostSourceExceptHostPart(MatchableURL url, Host expression, Optional<URLWithScheme> origin) {
+		String urlScheme = url.scheme;
+		String scheme = expression.scheme;
+		if (scheme != null) {
+			if (!schemePartMatches(scheme, urlScheme)) {
+				return false;
+			}
+		} else {
+			if (!origin.isPresent() || !schemePartMatches(origin.get().scheme, urlScheme)) {
+				return false;
+			}
+		}
+		return portPartMatches(expression.port, url.port, url.defaultPort) && pathPartMatches(expression, url);
+	}
+
+	// The 'self' case of https://w3c.github.io/webappsec-csp/#match-url-to-source-expression
+	static boolean doesUrlMatchSelf(URLWithScheme url, URLWithScheme origin) {
+		String urlScheme = url.scheme;
+		String originScheme = origin.scheme;
+		return Objects.equals(origin.host, url.host)
+				&& (Objects.equals(origin.port, url.port) || Objects.equals(origin.port, URI.defaultPortForProtocol(originScheme)) && Objects.equals(url.port, URI.defaultPortForProtocol(urlScheme)))
+				&& (urlScheme.equals("https") || urlScheme.equals("wss") || originScheme.equals("http") && (urlScheme.equals("http") || urlScheme.equals("ws")));
+	}
+
 	// https://w3c.github.io/webappsec-csp/#scheme-part-match
-	private static boolean schemePartMatches(String A, String B) {
+	static boolean schemePartMatches(String A, String B) {
 		// Assumes inputs are already lowcased
 		return A.equals(B)
 				|| A.equals("http") && B.equals("https")
@@ -995,23 +1341,13 @@ public class Policy {
 			return B.toLowerCase(Locale.ENGLISH).endsWith(remaining.toLowerCase(Locale.ENGLISH));
 		}
 
-		if (!A.equalsIgnoreCase(B)) {
-			return false;
-		}
-
-		Matcher IPv4Matcher = Constants.IPv4address.matcher(A);
-		Matcher IPv6Matcher = Constants.IPv6addressWithOptionalBracket.matcher(A);
-		Matcher IPv6LoopbackMatcher = Constants.IPV6loopback.matcher(A);
-		if ((IPv4Matcher.find() && !A.equals("127.0.0.1")) || IPv6Matcher.find() || IPv6LoopbackMatcher.find()) {
-			return false;
-		}
-		return true;
+		return A.equalsIgnoreCase(B) && HostIndex.isMatchableHost(A);
 	}
 
 	// https://w3c.github.io/webappsec-csp/#port-part-matches
-	private static boolean portPartMatches(int A, int portB, String schemeB) {
+	private static boolean portPartMatches(int A, int portB, int defaultPortB) {
 		if (A == Constants.EMPTY_PORT) {
-			return portB == URI.defaultPortForProtocol(schemeB);
+			return portB == defaultPortB;
 		}
 		if (A == Constants.WILDCARD_PORT) {
 			return true;
@@ -1020,48 +1356,39 @@ public class Policy {
 			return true;
 		}
 		if (portB == Constants.EMPTY_PORT) {
-			return A == URI.defaultPortForProtocol(schemeB);
+			return A == defaultPortB;
 		}
 		return false;
 	}
 
 	// https://w3c.github.io/webappsec-csp/#path-part-match
-	private static boolean pathPartMatches(String pathA, String pathB) {
-		if (pathA == null) pathA = "";
-		if (pathB == null) pathB = "";
-
-		if (pathA.isEmpty()) {
+	// Both paths are split and decoded ahead of time: the expression's when it is parsed, and the URL's once per query
+	static boolean pathPartMatches(Host expression, MatchableURL url) {
+		List<String> segmentsA = expression.decodedPathSegments;
+		if (segmentsA == null) {
+			// The expression has an empty path
 			return true;
 		}
-
-		if (pathA.equals("/") && pathB.isEmpty()) {
+		String pathA = expression.path;
+		if (pathA.equals("/") && url.path.isEmpty()) {
 			return true;
 		}
 
 		boolean exactMatch = !pathA.endsWith("/");
+		String[] segmentsB = url.decodedPathSegments();
 
-		List<String> pathListA = Utils.strictlySplit(pathA, '/');
-		List<String> pathListB = Utils.strictlySplit(pathB, '/');
-
-		if (pathListA.size() > pathListB.size()) {
+		if (segmentsA.size() > segmentsB.length) {
 			return false;
 		}
 
-		if (exactMatch && pathListA.size() != pathListB.size()) {
+		if (exactMatch && segmentsA.size() != segmentsB.length) {
 			return false;
 		}
 
-		if (!exactMatch) {
-			pathListA.remove(pathListA.size() - 1);
-		}
-
-		Iterator<String> it1 = pathListA.iterator();
-		Iterator<String> it2 = pathListB.iterator();
-
-		while (it1.hasNext()) {
-			String a = Utils.decodeString(it1.next());
-			String b = Utils.decodeString(it2.next());
-			if (!a.equals(b)) {
+		// The trailing empty segment of a path ending in `/` matches anything
+		int toCompare = exactMatch ? segmentsA.size() : segmentsA.size() - 1;
+		for (int i = 0; i < toCompare; ++i) {
+			if (!segmentsA.get(i).equals(segmentsB[i])) {
 				return false;
 			}
 		}
@@ -1071,32 +1398,22 @@ public class Policy {
 
 	// Utilities and helper classes
 
-	static void enforceAscii(String s) {
-		if (!StandardCharsets.US_ASCII.newEncoder().canEncode(s)) {
+	static void enforceAscii(CharSequence s) {
+		if (!Utils.isAscii(s)) {
 			throw new IllegalArgumentException("string is not ascii: \"" + s + "\"");
 		}
 	}
 
-	private static String stripLeadingWhitespace(String string) {
-		return string.replaceFirst("^[" + Constants.WHITESPACE_CHARS + "]+", "");
-	}
-
-	private static String stripTrailingWhitespace(String string) {
-		return string.replaceAll("[" + Constants.WHITESPACE_CHARS + "]+$", "");
-	}
-
-	private static boolean containsLeadingWhitespace(String string) {
-		Matcher matcher = Pattern.compile("[" + Constants.WHITESPACE_CHARS + "]+").matcher(string);
-		return matcher.find() && matcher.start() == 0;
-	}
-
-	@Nonnull
-	private static String collect(String input, String regex) {
-		Matcher matcher = Pattern.compile(regex).matcher(input);
-		if (!matcher.find() || matcher.start() != 0) {
-			return "";
+	private static int indexOf(CharSequence s, char c, int from) {
+		if (s instanceof String) {
+			return ((String) s).indexOf(c, from);
+		}
+		for (int i = from; i < s.length(); ++i) {
+			if (s.charAt(i) == c) {
+				return i;
+			}
 		}
-		return input.substring(0, matcher.end());
+		return -1;
 	}
 
 
@@ -1108,7 +1425,7 @@ public class Policy {
 		private NamedDirective(String name, Directive directive) {
 			this.name = name;
 			this.directive = directive;
-			this.lowcaseName = this.name.toLowerCase(Locale.ENGLISH);
+			this.lowcaseName = Tokens.lowercase(this.name);
 		}
 	}
 
@@ -1121,13 +1438,109 @@ public class Policy {
 	public interface PolicyErrorConsumer {
 		void add(Severity severity, String message, int directiveIndex, int valueIndex); // valueIndex = -1 for errors not pertaining to a value
 
-		PolicyErrorConsumer ignored = (severity, message, directiveIndex, valueIndex) -> {};
+		// This is what the parser calls; override it to get the code rather than the message
+		default void add(ErrorCode code, @Nullable Object argument, int directiveIndex, int valueIndex) {
+			this.add(code.severity, code.format(argument), directiveIndex, valueIndex);
+		}
+
+		// See Directive.DirectiveErrorConsumer.ignoresWarnings
+		default boolean ignoresWarnings() {
+			return false;
+		}
+
+		PolicyErrorConsumer ignored = new PolicyErrorConsumer() {
+			@Override
+			public void add(Severity severity, String message, int directiveIndex, int valueIndex) {
+			}
+
+			@Override
+			public void add(ErrorCode code, @Nullable Object argument, int directiveIndex, int valueIndex) {
+				// Skips formatting the message
+			}
+
+			@Override
+			public boolean ignoresWarnings() {
+				return true;
+			}
+		};
+
+		// Passes on only errors, which lets the parser skip the checks which can only produce Info or Warning
+		static PolicyErrorConsumer errorsOnly(PolicyErrorConsumer errors) {
+			return new PolicyErrorConsumer() {
+				@Override
+				public void add(Severity severity, String message, int directiveIndex, int valueIndex) {
+					if (severity == Severity.Error) {
+						errors.add(severity, message, directiveIndex, valueIndex);
+					}
+				}
+
+				@Override
+				public void add(ErrorCode code, @Nullable Object argument, int directiveIndex, int valueIndex) {
+					if (code.severity == Severity.Error) {
+						errors.add(code, argument, directiveIndex, valueIndex);
+					}
+				}
+
+				@Override
+				public boolean ignoresWarnings() {
+					return true;
+				}
+			};
+		}
 	}
 
 	@FunctionalInterface
 	public interface PolicyListErrorConsumer {
 		void add(Severity severity, String message, int policyIndex, int directiveIndex, int valueIndex); // valueIndex = -1 for errors not pertaining to a value
 
-		PolicyListErrorConsumer ignored = (severity, message, policyIndex, directiveIndex, valueIndex) -> {};
+		// This is what the parser calls; override it to get the code rather than the message
+		default void add(ErrorCode code, @Nullable Object argument, int policyIndex, int directiveIndex, int valueIndex) {
+			this.add(code.severity, code.format(argument), policyIndex, directiveIndex, valueIndex);
+		}
+
+		// See Directive.DirectiveErrorConsumer.ignoresWarnings
+		default boolean ignoresWarnings() {
+			return false;
+		}
+
+		PolicyListErrorConsumer ignored = new PolicyListErrorConsumer() {
+			@Override
+			public void add(Severity severity, String message, int policyIndex, int directiveIndex, int valueIndex) {
+			}
+
+			@Override
+			public void add(ErrorCode code, @Nullable Object argument, int policyIndex, int directiveIndex, int valueIndex) {
+				// Skips formatting the message
+			}
+
+			@Override
+			public boolean ignoresWarnings() {
+				return true;
+			}
+		};
+
+		// Passes on only errors, which lets the parser skip the checks which can only produce Info or Warning
+		static PolicyListErrorConsumer errorsOnly(PolicyListErrorConsumer errors) {
+			return new PolicyListErrorConsumer() {
+				@Override
+				public void add(Severity severity, String message, int policyIndex, int directiveIndex, int valueIndex) {
+					if (severity == Severity.Error) {
+						errors.add(severity, message, policyIndex, directiveIndex, valueIndex);
+					}
+				}
+
+				@Override
+				public void add(ErrorCode code, @Nullable Object argument, int policyIndex, int directiveIndex, int valueIndex) {
+					if (code.severity == Severity.Error) {
+						errors.add(code, argument, policyIndex, directiveIndex, valueIndex);
+					}
+				}
+
+				@Override
+				public boolean ignoresWarnings() {
+					return true;
+				}
+			};
+		}
 	}
 }
@@ -0,0 +1,175 @@
+package com.shapesecurity.salvation2;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// A bounded, thread-safe cache of parsed serialized CSP lists, keyed by the exact serialized string.
+// The cache is split into independently locked segments, each with its own share of the capacity, so that concurrent
+// lookups of different headers rarely contend. Each segment evicts its least-recently-used entry when full, so eviction
+// is only approximately LRU across the cache as a whole.
+//
+// Hits return the same PolicyList instance each time, so the list and its policies are shared by every caller. Both are
+// immutable: the policies are ImmutablePolicy instances, so use Policy.mutableCopy() to get one which can be edited.
+public final class PolicyCache {
+	private static final int MAX_SEGMENTS = 16;
+
+	private final Segment[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public PolicyCache(int maximumSize) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("maximumSize must be positive, got " + maximumSize);
+		}
+		int segmentCount = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maximumSize));
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; ++i) {
+			// Distribute the remainder so that the capacities sum to exactly maximumSize
+			this.segments[i] = new Segment(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+		}
+	}
+
+	// Equivalent to Policy.parseSerializedCSPList, except that the result is immutable and shared; see above.
+	// Errors found when the list was first parsed are reported again, in the same order, on every hit.
+	@Nonnull
+	public PolicyList parseSerializedCSPList(@Nonnull String serialized, @Nonnull Policy.PolicyListErrorConsumer policyListErrorConsumer) {
+		Segment segment = this.segmentFor(serialized);
+		Entry entry;
+		synchronized (segment) {
+			entry = segment.get(serialized);
+		}
+		if (entry != null) {
+			this.hits.increment();
+		} else {
+			this.misses.increment();
+			// Parse outside the lock; if another thread parses the same string concurrently, the first to finish wins
+			List<RecordedError> errors = new ArrayList<>();
+			PolicyList parsed = Policy.parseSerializedCSPList(serialized, new Policy.PolicyListErrorConsumer() {
+				@Override
+				public void add(Policy.Severity severity, String message, int policyIndex, int directiveIndex, int valueIndex) {
+					errors.add(new RecordedError(severity, message, null, null, policyIndex, directiveIndex, valueIndex));
+				}
+
+				@Override
+				public void add(ErrorCode code, @Nullable Object argument, int policyIndex, int directiveIndex, int valueIndex) {
+					// Recording the code rather than the message means hits cost nothing for callers which ignore errors
+					errors.add(new RecordedError(code.severity, null, code, argument, policyIndex, directiveIndex, valueIndex));
+				}
+			});
+			List<Policy> policies = new ArrayList<>(parsed.policies.size());
+			for (Policy policy : parsed.policies) {
+				policies.add(policy.toImmutable());
+			}
+			Entry created = new Entry(new PolicyList(Collections.unmodifiableList(policies)), errors.toArray(new RecordedError[0]));
+			synchronized (segment) {
+				entry = segment.putIfAbsent(serialized, created);
+			}
+			if (entry == null) {
+				entry = created;
+			}
+		}
+		for (RecordedError error : entry.errors) {
+			if (error.code != null) {
+				policyListErrorConsumer.add(error.code, error.argument, error.policyIndex, error.directiveIndex, error.valueIndex);
+			} else {
+				policyListErrorConsumer.add(error.severity, error.message, error.policyIndex, error.directiveIndex, error.valueIndex);
+			}
+		}
+		return entry.policyList;
+	}
+
+	public long hitCount() {
+		return this.hits.sum();
+	}
+
+	public long missCount() {
+		return this.misses.sum();
+	}
+
+	public long evictionCount() {
+		return this.evictions.sum();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	// Discards all entries. The counters are left as they are; evictions do not include entries removed this way.
+	public void clear() {
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	private Segment segmentFor(String serialized) {
+		int hash = serialized.hashCode();
+		hash ^= hash >>> 16; // the low bits of String.hashCode are poorly distributed for similar strings
+		return this.segments[hash & (this.segments.length - 1)];
+	}
+
+	private final class Segment extends LinkedHashMap<String, Entry> {
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			if (this.size() > this.capacity) {
+				PolicyCache.this.evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static final class Entry {
+		final PolicyList policyList;
+		final RecordedError[] errors;
+
+		Entry(PolicyList policyList, RecordedError[] errors) {
+			this.policyList = policyList;
+			this.errors = errors;
+		}
+	}
+
+	// Either the code and its argument or the message, depending on how it was reported
+	private static final class RecordedError {
+		final Policy.Severity severity;
+		final String message;
+		final ErrorCode code;
+		final Object argument;
+		final int policyIndex;
+		final int directiveIndex;
+		final int valueIndex;
+
+		RecordedError(Policy.Severity severity, String message, ErrorCode code, Object argument, int policyIndex, int directiveIndex, int valueIndex) {
+			this.severity = severity;
+			this.message = message;
+			this.code = code;
+			this.argument = argument;
+			this.policyIndex = policyIndex;
+			this.directiveIndex = directiveIndex;
+			this.valueIndex = valueIndex;
+		}
+	}
+}
@@ -2,7 +2,10 @@ package com.shapesecurity.salvation2;
 
 import com.shapesecurity.salvation2.URLs.URLWithScheme;
 
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public class PolicyInOrigin {
 	public final Policy policy;
@@ -82,4 +85,25 @@ public class PolicyInOrigin {
 	}
 
 
+
+	// Batch querying
+	// These check many URLs against the same kind of request, resolving the governing directive only once. Bit i of the result
+	// is set if the i-th URL is allowed, exactly as by the corresponding allows*FromSource method above, or allowsConnection
+	// for connect-src. script-src and style-src are treated as script-src-elem and style-src-elem, and kinds which are not
+	// the effective directive for any request (child-src, default-src, and the -attr kinds) are rejected.
+
+	public BitSet allowsFromSources(FetchDirectiveKind kind, Iterable<? extends URLWithScheme> urls) {
+		return this.allowsFromSources(kind, urls.iterator());
+	}
+
+	// Consumes the stream sequentially, in encounter order
+	public BitSet allowsFromSources(FetchDirectiveKind kind, Stream<? extends URLWithScheme> urls) {
+		return this.allowsFromSources(kind, urls.sequential().iterator());
+	}
+
+	private BitSet allowsFromSources(FetchDirectiveKind kind, Iterator<? extends URLWithScheme> urls) {
+		return this.policy.allowsFromSources(kind, urls, Optional.of(this.origin));
+	}
+
+
 }
@@ -1,6 +1,17 @@
 package com.shapesecurity.salvation2;
 
+import com.shapesecurity.salvation2.URLs.GUID;
+import com.shapesecurity.salvation2.URLs.URLWithScheme;
+import com.shapesecurity.salvation2.Values.MediaType;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
 
 public class PolicyList {
 	public final List<Policy> policies;
@@ -11,15 +22,206 @@ public class PolicyList {
 
 	@Override
 	public String toString() {
-		StringBuilder out = new StringBuilder();
+		StringBuilder out = new StringBuilder(this.serializedLength());
+		this.appendTo(out);
+		return out.toString();
+	}
+
+	// The length of toString() in chars, which is also its length in bytes; see Policy.serializedLength
+	public int serializedLength() {
+		int length = this.policies.isEmpty() ? 0 : 2 * (this.policies.size() - 1);
+		for (Policy policy : this.policies) {
+			length += policy.serializedLength();
+		}
+		return length;
+	}
+
+	// Appends what toString returns; see Policy.appendTo
+	public void appendTo(@Nonnull Appendable out) throws IOException {
 		boolean first = true;
 		for (Policy policy : this.policies) {
 			if (!first) {
 				out.append(", "); // The whitespace is not strictly necessary but is probably valuable
 			}
 			first = false;
-			out.append(policy.toString());
+			policy.appendTo(out);
 		}
-		return out.toString();
+	}
+
+	public void appendTo(@Nonnull StringBuilder out) {
+		try {
+			this.appendTo((Appendable) out);
+		} catch (IOException e) {
+			throw new RuntimeException("unreachable: StringBuilder does not throw", e);
+		}
+	}
+
+	// See Policy.writeTo
+	public void writeTo(@Nonnull ByteBuffer out) {
+		int length = this.serializedLength();
+		if (out.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		try {
+			this.appendTo(new AsciiByteBufferAppendable(out));
+		} catch (IOException e) {
+			throw new RuntimeException("unreachable: AsciiByteBufferAppendable does not throw", e);
+		}
+	}
+
+	public void writeTo(@Nonnull OutputStream out) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(this.serializedLength());
+		this.writeTo(bytes);
+		out.write(bytes.array());
+	}
+
+
+
+	// High-level querying
+	// When several policies are enforced, something is allowed only if every one of them allows it:
+	// https://w3c.github.io/webappsec-csp/#multiple-policies
+	// Each method returns true if the method of the same name on Policy returns true for every policy, stopping at the first
+	// which does not; an empty list allows everything. Work which does not depend on the policy, namely hashing inline
+	// sources and parsing integrity metadata, is done at most once per call rather than once per policy.
+
+	// Returns the first policy for which `allows` is false, e.g. to report which policy blocked something.
+	// To share work between policies, pass an InlineSource or IntegrityMetadata to the methods which take them.
+	public Optional<Policy> findBlocking(Predicate<Policy> allows) {
+		for (Policy policy : this.policies) {
+			if (!allows.test(policy)) {
+				return Optional.of(policy);
+			}
+		}
+		return Optional.empty();
+	}
+
+	private boolean allAllow(Predicate<Policy> allows) {
+		for (Policy policy : this.policies) {
+			if (!allows.test(policy)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean allowsExternalScript(Optional<String> nonce, Optional<String> integrity, Optional<URLWithScheme> scriptUrl, Optional<Boolean> parserInserted, Optional<URLWithScheme> origin) {
+		if (integrity.isPresent()) {
+			return this.allowsExternalScript(nonce, new IntegrityMetadata(integrity.get()), scriptUrl, parserInserted, origin);
+		}
+		return this.allAllow(p -> p.allowsExternalScript(nonce, integrity, scriptUrl, parserInserted, origin));
+	}
+
+	public boolean allowsExternalScript(Optional<String> nonce, IntegrityMetadata integrity, Optional<URLWithScheme> scriptUrl, Optional<Boolean> parserInserted, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsExternalScript(nonce, integrity, scriptUrl, parserInserted, origin));
+	}
+
+	public boolean allowsInlineScript(Optional<String> nonce, Optional<String> source, Optional<Boolean> parserInserted) {
+		if (source.isPresent()) {
+			return this.allowsInlineScript(nonce, new InlineSource(source.get()), parserInserted);
+		}
+		return this.allAllow(p -> p.allowsInlineScript(nonce, source, parserInserted));
+	}
+
+	public boolean allowsInlineScript(Optional<String> nonce, InlineSource source, Optional<Boolean> parserInserted) {
+		return this.allAllow(p -> p.allowsInlineScript(nonce, source, parserInserted));
+	}
+
+	public boolean allowsScriptAsAttribute(Optional<String> source) {
+		if (source.isPresent()) {
+			return this.allowsScriptAsAttribute(new InlineSource(source.get()));
+		}
+		return this.allAllow(p -> p.allowsScriptAsAttribute(source));
+	}
+
+	public boolean allowsScriptAsAttribute(InlineSource source) {
+		return this.allAllow(p -> p.allowsScriptAsAttribute(source));
+	}
+
+	public boolean allowsEval() {
+		return this.allAllow(Policy::allowsEval);
+	}
+
+	public boolean allowsNavigation(Optional<URLWithScheme> to, Optional<Boolean> redirected, Optional<URLWithScheme> redirectedTo, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsNavigation(to, redirected, redirectedTo, origin));
+	}
+
+	public boolean allowsFormAction(Optional<URLWithScheme> to, Optional<Boolean> redirected, Optional<URLWithScheme> redirectedTo, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsFormAction(to, redirected, redirectedTo, origin));
+	}
+
+	public boolean allowsJavascriptUrlNavigation(Optional<String> source, Optional<URLWithScheme> origin) {
+		GUID url = new GUID("javascript", source.orElse(""));
+		Optional<InlineSource> inlineSource = source.map(s -> new InlineSource("javascript:" + s));
+		return this.allAllow(p -> p.allowsJavascriptUrlNavigation(url, inlineSource, origin));
+	}
+
+	public boolean allowsExternalStyle(Optional<String> nonce, Optional<URLWithScheme> styleUrl, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsExternalStyle(nonce, styleUrl, origin));
+	}
+
+	public boolean allowsInlineStyle(Optional<String> nonce, Optional<String> source) {
+		if (source.isPresent()) {
+			return this.allowsInlineStyle(nonce, new InlineSource(source.get()));
+		}
+		return this.allAllow(p -> p.allowsInlineStyle(nonce, source));
+	}
+
+	public boolean allowsInlineStyle(Optional<String> nonce, InlineSource source) {
+		return this.allAllow(p -> p.allowsInlineStyle(nonce, source));
+	}
+
+	public boolean allowsStyleAsAttribute(Optional<String> source) {
+		if (source.isPresent()) {
+			return this.allowsStyleAsAttribute(new InlineSource(source.get()));
+		}
+		return this.allAllow(p -> p.allowsStyleAsAttribute(source));
+	}
+
+	public boolean allowsStyleAsAttribute(InlineSource source) {
+		return this.allAllow(p -> p.allowsStyleAsAttribute(source));
+	}
+
+	public boolean allowsFrame(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsFrame(source, origin));
+	}
+
+	public boolean allowsFrameAncestor(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsFrameAncestor(source, origin));
+	}
+
+	public boolean allowsConnection(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsConnection(source, origin));
+	}
+
+	public boolean allowsFont(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsFont(source, origin));
+	}
+
+	public boolean allowsImage(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsImage(source, origin));
+	}
+
+	public boolean allowsApplicationManifest(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsApplicationManifest(source, origin));
+	}
+
+	public boolean allowsMedia(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsMedia(source, origin));
+	}
+
+	public boolean allowsObject(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsObject(source, origin));
+	}
+
+	public boolean allowsPrefetch(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsPrefetch(source, origin));
+	}
+
+	public boolean allowsWorker(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return this.allAllow(p -> p.allowsWorker(source, origin));
+	}
+
+	public boolean allowsPlugin(Optional<MediaType> mediaType) {
+		return this.allAllow(p -> p.allowsPlugin(mediaType));
 	}
 }
@@ -0,0 +1,457 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Directives.HostSourceDirective;
+import com.shapesecurity.salvation2.Directives.PluginTypesDirective;
+import com.shapesecurity.salvation2.Directives.SandboxDirective;
+import com.shapesecurity.salvation2.Directives.SourceExpressionDirective;
+import com.shapesecurity.salvation2.URLs.GUID;
+import com.shapesecurity.salvation2.URLs.URLWithScheme;
+import com.shapesecurity.salvation2.Values.Hash;
+import com.shapesecurity.salvation2.Values.Host;
+import com.shapesecurity.salvation2.Values.MediaType;
+import com.shapesecurity.salvation2.Values.Nonce;
+import com.shapesecurity.salvation2.Values.Scheme;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+// An immutable snapshot of the high-level querying behavior of a Policy, obtained from Policy.compile().
+// Each method returns exactly what the Policy method of the same name would have returned at the time of compilation.
+// The governing directive for each effective directive is resolved up front, and each source list is precomputed so that
+// matching a URL does no case folding, regex matching, or splitting of the source-expressions' paths.
+// Instances are safe to share between threads.
+public final class PolicyMatcher {
+	private final SourceList[] governingDirectives = new SourceList[FetchDirectiveKind.values().length];
+	private final boolean sandboxBlocksScripts;
+	private final boolean sandboxBlocksForms;
+	private final boolean allowsEval;
+	@Nullable
+	private final SourceList navigateTo;
+	@Nullable
+	private final SourceList formAction;
+	@Nullable
+	private final SourceList frameAncestors;
+	@Nullable
+	private final Set<MediaType> pluginTypes;
+
+	PolicyMatcher(Policy policy) {
+		// Directives commonly govern several effective directives (e.g. default-src), so only compile each once
+		IdentityHashMap<HostSourceDirective, SourceList> compiled = new IdentityHashMap<>();
+		for (FetchDirectiveKind kind : FetchDirectiveKind.values()) {
+			if (kind == FetchDirectiveKind.ChildSrc || kind == FetchDirectiveKind.DefaultSrc) {
+				// These are only ever fallbacks, never effective directives
+				continue;
+			}
+			SourceExpressionDirective directive = policy.governingDirective(kind);
+			if (directive != null) {
+				this.governingDirectives[kind.ordinal()] = compiled.computeIfAbsent(directive, SourceList::new);
+			}
+		}
+
+		// The fields rather than the accessors, which would unshare the directives of a mutable copy
+		SandboxDirective sandbox = policy.sandbox;
+		this.sandboxBlocksScripts = sandbox != null && !sandbox.allowScripts();
+		this.sandboxBlocksForms = sandbox != null && !sandbox.allowForms();
+		this.allowsEval = policy.allowsEval();
+		this.navigateTo = policy.navigateTo == null ? null : compiled.computeIfAbsent(policy.navigateTo, SourceList::new);
+		this.formAction = policy.formAction == null ? null : compiled.computeIfAbsent(policy.formAction, SourceList::new);
+		this.frameAncestors = policy.frameAncestors == null ? null : compiled.computeIfAbsent(policy.frameAncestors, SourceList::new);
+		PluginTypesDirective pluginTypes = policy.pluginTypes;
+		this.pluginTypes = pluginTypes != null ? Collections.unmodifiableSet(new HashSet<>(pluginTypes.getMediaTypes())) : null;
+	}
+
+
+	// High-level querying; see the corresponding methods on Policy for documentation
+
+	public boolean allowsExternalScript(Optional<String> nonce, Optional<String> integrity, Optional<URLWithScheme> scriptUrl, Optional<Boolean> parserInserted, Optional<URLWithScheme> origin) {
+		return this.allowsExternalScriptWithIntegrity(nonce, integrity.map(IntegrityMetadata::new), scriptUrl, parserInserted, origin);
+	}
+
+	public boolean allowsExternalScript(Optional<String> nonce, IntegrityMetadata integrity, Optional<URLWithScheme> scriptUrl, Optional<Boolean> parserInserted, Optional<URLWithScheme> origin) {
+		return this.allowsExternalScriptWithIntegrity(nonce, Optional.of(integrity), scriptUrl, parserInserted, origin);
+	}
+
+	private boolean allowsExternalScriptWithIntegrity(Optional<String> nonce, Optional<IntegrityMetadata> integrity, Optional<URLWithScheme> scriptUrl, Optional<Boolean> parserInserted, Optional<URLWithScheme> origin) {
+		if (this.sandboxBlocksScripts) {
+			return false;
+		}
+		SourceList directive = this.governingDirectives[FetchDirectiveKind.ScriptSrcElem.ordinal()];
+		if (directive == null) {
+			return true;
+		}
+		if (nonce.isPresent() && directive.matchesNonce(nonce.get())) {
+			return true;
+		}
+		if (integrity.isPresent() && !directive.hashes.isEmpty()) {
+			if (integrity.get().matches(directive.hashes)) {
+				return true;
+			}
+		}
+		if (directive.strictDynamic) {
+			return !parserInserted.orElse(true);
+		}
+		if (scriptUrl.isPresent()) {
+			return directive.matches(scriptUrl.get(), origin);
+		}
+		return false;
+	}
+
+	public boolean allowsInlineScript(Optional<String> nonce, Optional<String> source, Optional<Boolean> parserInserted) {
+		if (this.sandboxBlocksScripts) {
+			return false;
+		}
+		return doesElementMatchSourceListForTypeAndSource(Policy.InlineType.Script, nonce, source.map(InlineSource::new), parserInserted);
+	}
+
+	public boolean allowsInlineScript(Optional<String> nonce, InlineSource source, Optional<Boolean> parserInserted) {
+		if (this.sandboxBlocksScripts) {
+			return false;
+		}
+		return doesElementMatchSourceListForTypeAndSource(Policy.InlineType.Script, nonce, Optional.of(source), parserInserted);
+	}
+
+	public boolean allowsScriptAsAttribute(Optional<String> source) {
+		if (this.sandboxBlocksScripts) {
+			return false;
+		}
+		return doesElementMatchSourceListForTypeAndSource(Policy.InlineType.ScriptAttribute, Optional.empty(), source.map(InlineSource::new), Optional.empty());
+	}
+
+	public boolean allowsScriptAsAttribute(InlineSource source) {
+		if (this.sandboxBlocksScripts) {
+			return false;
+		}
+		return doesElementMatchSourceListForTypeAndSource(Policy.InlineType.ScriptAttribute, Optional.empty(), Optional.of(source), Optional.empty());
+	}
+
+	public boolean allowsEval() {
+		return this.allowsEval;
+	}
+
+	public boolean allowsNavigation(Optional<URLWithScheme> to, Optional<Boolean> redirected, Optional<URLWithScheme> redirectedTo, Optional<URLWithScheme> origin) {
+		if (this.navigateTo == null) {
+			return true;
+		}
+		MatchableURL actualOrigin = matchable(origin);
+		if (this.navigateTo.unsafeAllowRedirects) {
+			if (!redirected.orElse(false)) {
+				if (!to.isPresent() || !this.navigateTo.matches(new MatchableURL(to.get()), actualOrigin)) {
+					return false;
+				}
+			}
+			if (redirected.orElse(true)) {
+				if (!redirectedTo.isPresent() || !this.navigateTo.matches(new MatchableURL(redirectedTo.get()), actualOrigin)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return to.isPresent() && this.navigateTo.matches(new MatchableURL(to.get()), actualOrigin);
+	}
+
+	public boolean allowsFormAction(Optional<URLWithScheme> to, Optional<Boolean> redirected, Optional<URLWithScheme> redirectedTo, Optional<URLWithScheme> origin) {
+		if (this.sandboxBlocksForms) {
+			return false;
+		}
+		if (this.formAction != null) {
+			return to.isPresent() && this.formAction.matches(to.get(), origin);
+		}
+		return this.allowsNavigation(to, redirected, redirectedTo, origin);
+	}
+
+	public boolean allowsJavascriptUrlNavigation(Optional<String> source, Optional<URLWithScheme> origin) {
+		return this.allowsNavigation(Optional.of(new GUID("javascript", source.orElse(""))), Optional.of(false), Optional.empty(), origin)
+				&& this.doesElementMatchSourceListForTypeAndSource(Policy.InlineType.Navigation, Optional.empty(), source.map(s -> new InlineSource("javascript:" + s)), Optional.of(false));
+	}
+
+	public boolean allowsExternalStyle(Optional<String> nonce, Optional<URLWithScheme> styleUrl, Optional<URLWithScheme> origin) {
+		SourceList directive = this.governingDirectives[FetchDirectiveKind.StyleSrcElem.ordinal()];
+		if (directive == null) {
+			return true;
+		}
+		if (nonce.isPresent() && directive.matchesNonce(nonce.get())) {
+			return true;
+		}
+		if (styleUrl.isPresent()) {
+			return directive.matches(styleUrl.get(), origin);
+		}
+		return false;
+	}
+
+	public boolean allowsInlineStyle(Optional<String> nonce, Optional<String> source) {
+		return doesElementMatchSourceListForTypeAndSource(Policy.InlineType.Style, nonce, source.map(InlineSource::new), Optional.empty());
+	}
+
+	public boolean allowsInlineStyle(Optional<String> nonce, InlineSource source) {
+		return doesElementMatchSourceListForTypeAndSource(Policy.InlineType.Style, nonce, Optional.of(source), Optional.empty());
+	}
+
+	public boolean allowsStyleAsAttribute(Optional<String> source) {
+		return doesElementMatchSourceListForTypeAndSource(Policy.InlineType.StyleAttribute, Optional.empty(), source.map(InlineSource::new), Optional.empty());
+	}
+
+	public boolean allowsStyleAsAttribute(InlineSource source) {
+		return doesElementMatchSourceListForTypeAndSource(Policy.InlineType.StyleAttribute, Optional.empty(), Optional.of(source), Optional.empty());
+	}
+
+	public boolean allowsFrame(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return allowsFromSource(FetchDirectiveKind.FrameSrc, source, origin);
+	}
+
+	public boolean allowsFrameAncestor(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		if (this.frameAncestors == null) {
+			return true;
+		}
+		return source.isPresent() && this.frameAncestors.matches(source.get(), origin);
+	}
+
+	public boolean allowsConnection(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		SourceList sourceList = this.governingDirectives[FetchDirectiveKind.ConnectSrc.ordinal()];
+		if (sourceList == null) {
+			return true;
+		}
+		if (!source.isPresent()) {
+			return false;
+		}
+		// See Policy.allowsConnection
+		return sourceList.matches(Policy.webSocketToHttp(source.get()), origin);
+	}
+
+	public boolean allowsFont(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return allowsFromSource(FetchDirectiveKind.FontSrc, source, origin);
+	}
+
+	public boolean allowsImage(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return allowsFromSource(FetchDirectiveKind.ImgSrc, source, origin);
+	}
+
+	public boolean allowsApplicationManifest(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return allowsFromSource(FetchDirectiveKind.ManifestSrc, source, origin);
+	}
+
+	public boolean allowsMedia(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return allowsFromSource(FetchDirectiveKind.MediaSrc, source, origin);
+	}
+
+	public boolean allowsObject(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return allowsFromSource(FetchDirectiveKind.ObjectSrc, source, origin);
+	}
+
+	public boolean allowsPrefetch(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return allowsFromSource(FetchDirectiveKind.PrefetchSrc, source, origin);
+	}
+
+	public boolean allowsWorker(Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		return allowsFromSource(FetchDirectiveKind.WorkerSrc, source, origin);
+	}
+
+	public boolean allowsPlugin(Optional<MediaType> mediaType) {
+		if (this.pluginTypes == null) {
+			return true;
+		}
+		return mediaType.isPresent() && this.pluginTypes.contains(mediaType.get());
+	}
+
+	private boolean allowsFromSource(FetchDirectiveKind kind, Optional<URLWithScheme> source, Optional<URLWithScheme> origin) {
+		SourceList sourceList = this.governingDirectives[kind.ordinal()];
+		if (sourceList == null) {
+			return true;
+		}
+		return source.isPresent() && sourceList.matches(source.get(), origin);
+	}
+
+	@Nullable
+	private static MatchableURL matchable(Optional<URLWithScheme> url) {
+		return url.isPresent() ? new MatchableURL(url.get()) : null;
+	}
+
+	// See Policy.doesElementMatchSourceListForTypeAndSource
+	private boolean doesElementMatchSourceListForTypeAndSource(Policy.InlineType type, Optional<String> nonce, Optional<InlineSource> source, Optional<Boolean> parserInserted) {
+		SourceList directive = this.governingDirectives[type.effectiveDirective.ordinal()];
+		if (directive == null) {
+			return true;
+		}
+		boolean allowAllInline = directive.nonces.isEmpty() && directive.hashes.isEmpty()
+				&& !((type == Policy.InlineType.Script || type == Policy.InlineType.ScriptAttribute || type == Policy.InlineType.Navigation) && directive.strictDynamic)
+				&& directive.unsafeInline;
+		if (allowAllInline) {
+			return true;
+		}
+		if (nonce.isPresent() && directive.matchesNonce(nonce.get())) {
+			return true;
+		}
+		if (source.isPresent() && !directive.hashes.isEmpty() && (type == Policy.InlineType.Script || type == Policy.InlineType.Style || directive.unsafeHashes)) {
+			if (directive.hashIndex.matches(source.get())) {
+				return true;
+			}
+		}
+		return type == Policy.InlineType.Script && directive.strictDynamic && !parserInserted.orElse(true);
+	}
+
+
+	// A precomputed HostSourceDirective
+	static final class SourceList {
+		final boolean star;
+		final boolean self;
+		final boolean unsafeInline;
+		final boolean strictDynamic;
+		final boolean unsafeHashes;
+		final boolean unsafeAllowRedirects;
+		final String[] schemes;
+		final MatchableURL.KnownScheme[] knownSchemes;
+		final HostSource[] hosts;
+		// null if there are too few hosts for an index to pay off
+		@Nullable
+		final HostIndex<HostSource> hostIndex;
+		final Set<String> nonces;
+		final Set<Hash> hashes;
+		final HashIndex hashIndex;
+
+		SourceList(HostSourceDirective directive) {
+			this.star = directive.star();
+			this.self = directive.self();
+
+			List<Scheme> schemes = directive.getSchemes();
+			this.schemes = new String[schemes.size()];
+			this.knownSchemes = new MatchableURL.KnownScheme[schemes.size()];
+			for (int i = 0; i < this.schemes.length; ++i) {
+				this.schemes[i] = schemes.get(i).value;
+				this.knownSchemes[i] = MatchableURL.KnownScheme.of(this.schemes[i]);
+			}
+
+			List<Host> hosts = directive.getHosts();
+			this.hosts = new HostSource[hosts.size()];
+			for (int i = 0; i < this.hosts.length; ++i) {
+				this.hosts[i] = new HostSource(hosts.get(i));
+			}
+			this.hostIndex = this.hosts.length >= HostIndex.MIN_INDEXED_HOSTS ? new HostIndex<>(Arrays.asList(this.hosts), h -> h.host) : null;
+
+			if (directive instanceof SourceExpressionDirective) {
+				SourceExpressionDirective sourceExpressionDirective = (SourceExpressionDirective) directive;
+				this.unsafeInline = sourceExpressionDirective.unsafeInline();
+				this.strictDynamic = sourceExpressionDirective.strictDynamic();
+				this.unsafeHashes = sourceExpressionDirective.unsafeHashes();
+				this.unsafeAllowRedirects = sourceExpressionDirective.unsafeAllowRedirects();
+				Set<String> nonces = new HashSet<>();
+				for (Nonce nonce : sourceExpressionDirective.getNonces()) {
+					nonces.add(nonce.base64ValuePart);
+				}
+				this.nonces = Collections.unmodifiableSet(nonces);
+				this.hashes = Collections.unmodifiableSet(new HashSet<>(sourceExpressionDirective.getHashes()));
+				this.hashIndex = sourceExpressionDirective.getHashIndex();
+			} else {
+				this.unsafeInline = false;
+				this.strictDynamic = false;
+				this.unsafeHashes = false;
+				this.unsafeAllowRedirects = false;
+				this.nonces = Collections.emptySet();
+				this.hashes = Collections.emptySet();
+				this.hashIndex = HashIndex.EMPTY;
+			}
+		}
+
+		boolean matchesNonce(String nonce) {
+			return nonce.length() > 0 && this.nonces.contains(nonce);
+		}
+
+		boolean matches(@Nonnull URLWithScheme url, Optional<URLWithScheme> origin) {
+			return this.matches(new MatchableURL(url), matchable(origin));
+		}
+
+		// See Policy.doesUrlMatchSourceListInOrigin
+		boolean matches(@Nonnull MatchableURL url, @Nullable MatchableURL origin) {
+			if (this.star) {
+				if (url.knownScheme.isNetworkScheme()) {
+					return true;
+				}
+				if (origin != null && url.scheme.equals(origin.scheme)) {
+					return true;
+				}
+			}
+			for (int i = 0; i < this.schemes.length; ++i) {
+				if (url.schemePartMatches(this.knownSchemes[i], this.schemes[i])) {
+					return true;
+				}
+			}
+			if (url.host != null && this.hosts.length > 0) {
+				if (this.hostIndex != null) {
+					if (this.hostIndex.anyMatchLowercase(url.host, expression -> expression.matchesExceptHostPart(url, origin))) {
+						return true;
+					}
+				} else {
+					for (HostSource expression : this.hosts) {
+						if (expression.hostPartMatches(url.host) && expression.matchesExceptHostPart(url, origin)) {
+							return true;
+						}
+					}
+				}
+			}
+			return this.self && origin != null && url.matchesSelf(origin);
+		}
+	}
+
+	// A precomputed host-source expression
+	private static final class HostSource {
+		@Nullable
+		final String scheme;
+		@Nullable
+		final MatchableURL.KnownScheme knownScheme;
+		@Nonnull
+		final String host;
+		// For `*` and `*.example.com`, the part after the `*`; otherwise null
+		@Nullable
+		final String wildcardSuffix;
+		// IP addresses other than 127.0.0.1 never match: https://w3c.github.io/webappsec-csp/#host-part-match
+		final boolean isMatchableHost;
+		final int port;
+		// Carries the pre-decoded path
+		final Host source;
+
+		HostSource(Host host) {
+			this.scheme = host.scheme;
+			this.knownScheme = host.scheme == null ? null : MatchableURL.KnownScheme.of(host.scheme);
+			this.host = host.host;
+			this.wildcardSuffix = host.host.startsWith("*") ? host.host.substring(1) : null;
+			this.isMatchableHost = HostIndex.isMatchableHost(host.host);
+			this.port = host.port;
+			this.source = host;
+		}
+
+		boolean matchesExceptHostPart(MatchableURL url, @Nullable MatchableURL origin) {
+			if (this.scheme != null) {
+				if (!url.schemePartMatches(this.knownScheme, this.scheme)) {
+					return false;
+				}
+			} else if (origin == null || !url.schemePartMatches(origin.knownScheme, origin.scheme)) {
+				return false;
+			}
+			return this.portPartMatches(url.port, url.defaultPort) && Policy.pathPartMatches(this.source, url);
+		}
+
+		// See Policy.hostPartMatches; both hosts are lowercased on construction
+		boolean hostPartMatches(String urlHost) {
+			if (this.wildcardSuffix != null) {
+				return urlHost.endsWith(this.wildcardSuffix);
+			}
+			return this.isMatchableHost && this.host.equals(urlHost);
+		}
+
+		// See Policy.portPartMatches
+		boolean portPartMatches(int urlPort, int urlDefaultPort) {
+			if (this.port == Constants.EMPTY_PORT) {
+				return urlPort == urlDefaultPort;
+			}
+			if (this.port == Constants.WILDCARD_PORT || this.port == urlPort) {
+				return true;
+			}
+			return urlPort == Constants.EMPTY_PORT && this.port == urlDefaultPort;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Directives.SourceExpressionDirective;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// A policy precompiled for adding a fresh nonce to each response, e.g.
+//   PolicyTemplate template = new PolicyTemplate(policy, FetchDirectiveKind.ScriptSrc, FetchDirectiveKind.StyleSrc);
+//   response.setHeader("Content-Security-Policy", template.render(nonce));
+// Rendering gives the same result as calling addNonce on the governing directive for each of the given kinds and then
+// serializing the policy, but without parsing, copying the policy, or allocating anything beyond the output itself.
+// The policy is serialized when the template is constructed; later changes to it are not reflected.
+// Instances are immutable and safe to share between threads.
+public final class PolicyTemplate {
+	private static final String NONCE_PREFIX = " 'nonce-";
+	private static final String NONCE_SUFFIX = "'";
+
+	// The nonce goes between each adjacent pair of segments. Every segment but the first begins with NONCE_SUFFIX and every
+	// segment but the last ends with NONCE_PREFIX, so the only thing written per slot is the nonce itself.
+	private final String[] segments;
+	private final byte[][] segmentBytes;
+	private final int fixedLength;
+
+	// A nonce is added to the directive which governs each of `nonceDirectives`, if any. When several of them are governed
+	// by the same directive (e.g. both fall back to default-src) it gets the nonce only once. A kind with no governing
+	// directive needs no nonce, since the policy does not restrict it.
+	public PolicyTemplate(@Nonnull Policy policy, @Nonnull FetchDirectiveKind... nonceDirectives) {
+		Set<Directive> slotted = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (FetchDirectiveKind kind : nonceDirectives) {
+			SourceExpressionDirective directive = policy.governingDirective(kind);
+			if (directive != null) {
+				slotted.add(directive);
+			}
+		}
+		List<String> parts = policy.serializeSplittingAfter(slotted);
+		int slots = parts.size() - 1;
+		this.segments = new String[parts.size()];
+		this.segmentBytes = new byte[parts.size()][];
+		int fixedLength = 0;
+		for (int i = 0; i < parts.size(); ++i) {
+			String segment = (i > 0 ? NONCE_SUFFIX : "") + parts.get(i) + (i < slots ? NONCE_PREFIX : "");
+			this.segments[i] = segment;
+			// Policies are ASCII-only by construction, so this is one byte per char
+			this.segmentBytes[i] = segment.getBytes(StandardCharsets.US_ASCII);
+			fixedLength += segment.length();
+		}
+		this.fixedLength = fixedLength;
+	}
+
+	public int slotCount() {
+		return this.segments.length - 1;
+	}
+
+	// The length in chars, which is also the length in bytes, of the header rendered with a nonce of the given length
+	public int renderedLength(int nonceLength) {
+		return this.fixedLength + this.slotCount() * nonceLength;
+	}
+
+	// `nonce` is the base64-value part only, i.e. without the surrounding 'nonce- and '
+	@Nonnull
+	public String render(@Nonnull CharSequence nonce) {
+		checkNonce(nonce);
+		return this.write(new StringBuilder(this.renderedLength(nonce.length())), nonce).toString();
+	}
+
+	@Nonnull
+	public StringBuilder appendTo(@Nonnull StringBuilder out, @Nonnull CharSequence nonce) {
+		checkNonce(nonce);
+		out.ensureCapacity(out.length() + this.renderedLength(nonce.length()));
+		return this.write(out, nonce);
+	}
+
+	@Nonnull
+	public byte[] renderBytes(@Nonnull CharSequence nonce) {
+		checkNonce(nonce);
+		byte[] out = new byte[this.renderedLength(nonce.length())];
+		this.write(out, 0, nonce);
+		return out;
+	}
+
+	// Writes the header as ASCII into `out` starting at `offset`, and returns the offset just past the end of it.
+	// Throws IndexOutOfBoundsException, having written nothing, if there is not room for renderedLength(nonce.length()) bytes.
+	public int renderTo(@Nonnull byte[] out, int offset, @Nonnull CharSequence nonce) {
+		checkNonce(nonce);
+		int length = this.renderedLength(nonce.length());
+		if (offset < 0 || offset > out.length - length) {
+			throw new IndexOutOfBoundsException("Rendering needs " + length + " bytes at offset " + offset + " but the array has length " + out.length);
+		}
+		return this.write(out, offset, nonce);
+	}
+
+	private StringBuilder write(StringBuilder out, CharSequence nonce) {
+		out.append(this.segments[0]);
+		for (int i = 1; i < this.segments.length; ++i) {
+			out.append(nonce);
+			out.append(this.segments[i]);
+		}
+		return out;
+	}
+
+	private int write(byte[] out, int offset, CharSequence nonce) {
+		int nonceLength = nonce.length();
+		for (int i = 0; i < this.segmentBytes.length; ++i) {
+			if (i > 0) {
+				for (int j = 0; j < nonceLength; ++j) {
+					out[offset++] = (byte) nonce.charAt(j); // checkNonce ensures this is ASCII
+				}
+			}
+			byte[] segment = this.segmentBytes[i];
+			System.arraycopy(segment, 0, out, offset, segment.length);
+			offset += segment.length;
+		}
+		return offset;
+	}
+
+	// Only a valid nonce can be written without changing the meaning of the rest of the policy
+	private static void checkNonce(CharSequence nonce) {
+		if (!Utils.isBase64Value(nonce)) {
+			throw new IllegalArgumentException("nonces must match the base64-value grammar");
+		}
+	}
+}
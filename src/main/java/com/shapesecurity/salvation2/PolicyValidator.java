@@ -0,0 +1,158 @@
+package com.shapesecurity.salvation2;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Parses many serialized CSP lists in parallel, collecting the diagnostics for each, e.g.
+//   for (PolicyValidator.Result result : PolicyValidator.validateAll(headers, Runtime.getRuntime().availableProcessors())) {
+//     if (result.hasErrors()) { ... }
+//   }
+// Each input is parsed exactly as by Policy.parseSerializedCSPList.
+public final class PolicyValidator {
+	// Inputs per fork/join leaf: enough that splitting costs little next to parsing, few enough to keep every worker busy
+	// until near the end
+	static final int LEAF_SIZE = 64;
+
+	// Returns one Result per input, in the order of the inputs. Work is split over a ForkJoinPool of `parallelism` threads;
+	// each thread writes only its own range of the results, so collecting them takes no locks.
+	@Nonnull
+	public static List<Result> validateAll(@Nonnull Iterable<String> serializedCSPLists, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		List<String> inputs = new ArrayList<>();
+		for (String serialized : serializedCSPLists) {
+			inputs.add(Objects.requireNonNull(serialized));
+		}
+		Result[] results = new Result[inputs.size()];
+		if (parallelism == 1 || inputs.size() <= LEAF_SIZE) {
+			validateRange(inputs, results, 0, results.length);
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new ValidateTask(inputs, results, 0, results.length));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		return Collections.unmodifiableList(Arrays.asList(results));
+	}
+
+	@Nonnull
+	public static Result validate(@Nonnull String serializedCSPList) {
+		List<Diagnostic> diagnostics = new ArrayList<>();
+		try {
+			Policy.parseSerializedCSPList(serializedCSPList, (severity, message, policyIndex, directiveIndex, valueIndex) -> diagnostics.add(new Diagnostic(severity, message, policyIndex, directiveIndex, valueIndex)));
+		} catch (IllegalArgumentException e) {
+			// The list as a whole is malformed (i.e. not ASCII), so the error pertains to no particular part of it
+			diagnostics.add(new Diagnostic(Policy.Severity.Error, e.getMessage(), -1, -1, -1));
+		}
+		return new Result(serializedCSPList, diagnostics);
+	}
+
+	private static void validateRange(List<String> inputs, Result[] results, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			results[i] = validate(inputs.get(i));
+		}
+	}
+
+	private static final class ValidateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> inputs;
+		private final Result[] results;
+		private final int start;
+		private final int end;
+
+		ValidateTask(List<String> inputs, Result[] results, int start, int end) {
+			this.inputs = inputs;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.end - this.start <= LEAF_SIZE) {
+				validateRange(this.inputs, this.results, this.start, this.end);
+				return;
+			}
+			int middle = (this.start + this.end) >>> 1;
+			invokeAll(new ValidateTask(this.inputs, this.results, this.start, middle), new ValidateTask(this.inputs, this.results, middle, this.end));
+		}
+	}
+
+
+	public static final class Result {
+		@Nonnull
+		public final String serialized;
+		// In the order they were reported
+		@Nonnull
+		public final List<Diagnostic> diagnostics;
+
+		Result(@Nonnull String serialized, @Nonnull List<Diagnostic> diagnostics) {
+			this.serialized = serialized;
+			this.diagnostics = Collections.unmodifiableList(diagnostics);
+		}
+
+		public boolean hasErrors() {
+			for (Diagnostic diagnostic : this.diagnostics) {
+				if (diagnostic.severity == Policy.Severity.Error) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	// The arguments to one call of a PolicyListErrorConsumer; the indices are -1 when not applicable
+	public static final class Diagnostic {
+		@Nonnull
+		public final Policy.Severity severity;
+		@Nonnull
+		public final String message;
+		public final int policyIndex;
+		public final int directiveIndex;
+		public final int valueIndex;
+
+		public Diagnostic(@Nonnull Policy.Severity severity, @Nonnull String message, int policyIndex, int directiveIndex, int valueIndex) {
+			this.severity = severity;
+			this.message = message;
+			this.policyIndex = policyIndex;
+			this.directiveIndex = directiveIndex;
+			this.valueIndex = valueIndex;
+		}
+
+		@Override
+		public String toString() {
+			return "(" + this.severity.name() + ") " + this.message + " at policy " + this.policyIndex + " at directive " + this.directiveIndex + " at value " + this.valueIndex;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Diagnostic that = (Diagnostic) o;
+			return policyIndex == that.policyIndex &&
+					directiveIndex == that.directiveIndex &&
+					valueIndex == that.valueIndex &&
+					severity == that.severity &&
+					message.equals(that.message);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(severity, message, policyIndex, directiveIndex, valueIndex);
+		}
+	}
+
+	private PolicyValidator() {
+		// Utility class
+	}
+}
@@ -0,0 +1,148 @@
+package com.shapesecurity.salvation2;
+
+import java.util.Locale;
+
+// Shares the strings which parsed policies hold on to, so that a cache of thousands of policies does not hold thousands
+// of copies of "script-src", "'self'" and "https". Known directive names, keywords and common schemes map to one
+// canonical instance each, which also makes comparing them against the parser's own constants an identity check.
+// Other short tokens, such as hosts, go through a fixed-size pool: each hashes to one slot, which holds whichever
+// string was put there last. That bounds the pool's size no matter what is parsed, and a miss costs no more than not
+// pooling at all. Slots are read and written without locking; strings are immutable and safely published, so a racing
+// thread at worst misses and stores its own copy.
+// Internal: this is only public so that the Values classes can intern what they parse, and is not a supported API.
+public final class Tokens {
+	private static final String[] KNOWN_TOKENS = {
+		// Directive names
+		"base-uri", "block-all-mixed-content", "form-action", "frame-ancestors", "navigate-to", "plugin-types",
+		"report-to", "report-uri", "sandbox", "upgrade-insecure-requests",
+		// Source-expression keywords
+		"'none'", "'self'", "*", "'unsafe-inline'", "'unsafe-eval'", "'strict-dynamic'", "'unsafe-hashes'",
+		"'report-sample'", "'unsafe-allow-redirects'",
+		// Sandbox keywords
+		"allow-downloads", "allow-forms", "allow-modals", "allow-orientation-lock", "allow-pointer-lock", "allow-popups",
+		"allow-popups-to-escape-sandbox", "allow-presentation", "allow-same-origin", "allow-scripts",
+		"allow-storage-access-by-user-activation", "allow-top-navigation", "allow-top-navigation-by-user-activation",
+		// Schemes, as scheme-sources and as they appear in host-sources
+		"http:", "https:", "ws:", "wss:", "data:", "blob:", "filesystem:", "mediastream:",
+		"http", "https", "ws", "wss",
+	};
+	// Open addressing, at most half full, so probes are short and always end at a null
+	private static final String[] KNOWN;
+	private static final int KNOWN_MASK;
+
+	private static final int POOL_SIZE = 16384;
+	// Longer tokens are almost always unique, and would only evict ones which are not
+	private static final int MAX_POOLED_LENGTH = 64;
+	private static final String[] POOL = new String[POOL_SIZE];
+
+	static {
+		int knownCount = KNOWN_TOKENS.length + FetchDirectiveKind.values().length;
+		int size = Integer.highestOneBit(knownCount) * 4;
+		KNOWN = new String[size];
+		KNOWN_MASK = size - 1;
+		for (String token : KNOWN_TOKENS) {
+			addKnown(token);
+		}
+		for (FetchDirectiveKind kind : FetchDirectiveKind.values()) {
+			addKnown(kind.repr);
+		}
+	}
+
+	private Tokens() {
+	}
+
+	private static void addKnown(String token) {
+		int i = spread(token.hashCode()) & KNOWN_MASK;
+		while (KNOWN[i] != null) {
+			i = (i + 1) & KNOWN_MASK;
+		}
+		KNOWN[i] = token;
+	}
+
+	// s.subSequence(start, end).toString(), but canonical or pooled where possible; used by the parser for every token
+	public static String token(CharSequence s, int start, int end) {
+		int hash = hash(s, start, end, false);
+		String known = findKnown(s, start, end, false, hash);
+		if (known != null) {
+			return known;
+		}
+		if (!isPoolable(s, start, end)) {
+			return s.subSequence(start, end).toString();
+		}
+		int slot = spread(hash) & (POOL_SIZE - 1);
+		String pooled = POOL[slot];
+		if (pooled != null && matches(pooled, s, start, end, false)) {
+			return pooled;
+		}
+		String token = s.subSequence(start, end).toString();
+		POOL[slot] = token;
+		return token;
+	}
+
+	// An equal string, canonical or pooled where possible. For values which are derived from tokens rather than being
+	// tokens themselves, such as the host of a host-source.
+	public static String intern(String s) {
+		int hash = s.hashCode(); // the same as hash(s, 0, s.length(), false), but cached
+		String known = findKnown(s, 0, s.length(), false, hash);
+		if (known != null) {
+			return known;
+		}
+		if (!isPoolable(s, 0, s.length())) {
+			return s;
+		}
+		int slot = spread(hash) & (POOL_SIZE - 1);
+		String pooled = POOL[slot];
+		if (s.equals(pooled)) {
+			return pooled;
+		}
+		POOL[slot] = s;
+		return s;
+	}
+
+	// s.toLowerCase(Locale.ENGLISH), but canonical if it is a known token, without allocating anything to find that out
+	public static String lowercase(String s) {
+		String known = findKnown(s, 0, s.length(), true, hash(s, 0, s.length(), true));
+		return known != null ? known : s.toLowerCase(Locale.ENGLISH);
+	}
+
+	// Quoted tokens which are not keywords are nonces and hashes, which are unique to a response
+	private static boolean isPoolable(CharSequence s, int start, int end) {
+		return end - start <= MAX_POOLED_LENGTH && (start == end || s.charAt(start) != '\'');
+	}
+
+	private static String findKnown(CharSequence s, int start, int end, boolean lowercase, int hash) {
+		for (int i = spread(hash) & KNOWN_MASK; KNOWN[i] != null; i = (i + 1) & KNOWN_MASK) {
+			if (matches(KNOWN[i], s, start, end, lowercase)) {
+				return KNOWN[i];
+			}
+		}
+		return null;
+	}
+
+	// Equal to String.hashCode of the (lowercased) range, so that intern can use the cached one
+	private static int hash(CharSequence s, int start, int end, boolean lowercase) {
+		int hash = 0;
+		for (int i = start; i < end; ++i) {
+			char c = s.charAt(i);
+			hash = 31 * hash + (lowercase ? Utils.asciiLowercase(c) : c);
+		}
+		return hash;
+	}
+
+	private static boolean matches(String candidate, CharSequence s, int start, int end, boolean lowercase) {
+		if (candidate.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < candidate.length(); ++i) {
+			char c = s.charAt(start + i);
+			if (candidate.charAt(i) != (lowercase ? Utils.asciiLowercase(c) : c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -11,33 +11,145 @@ import java.util.regex.Pattern;
 public class Utils {
 	private static final Pattern BASE64_PATTERN = Pattern.compile("[a-zA-Z0-9+/\\-_]+=?=?");
 	public static final Predicate<String> IS_BASE64_VALUE = s -> BASE64_PATTERN.matcher(s).matches();
+
+	// Equivalent to IS_BASE64_VALUE, without allocating
+	static boolean isBase64Value(CharSequence s) {
+		int length = s.length();
+		int end = length;
+		while (end > 0 && length - end < 2 && s.charAt(end - 1) == '=') {
+			--end;
+		}
+		if (end == 0) {
+			return false;
+		}
+		for (int i = 0; i < end; ++i) {
+			char c = s.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '+' || c == '/' || c == '-' || c == '_')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// https://infra.spec.whatwg.org/#ascii-whitespace
+	static boolean isAsciiWhitespace(char c) {
+		return c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == ' ';
+	}
+
+	// Character classes for ASCII, indexed by char, so that validating a string is one table lookup per char
+	private static final byte DIRECTIVE_NAME_CHAR = 1; // ALPHA / DIGIT / "-"
+	private static final byte NON_DIRECTIVE_CHAR = 2; // ASCII whitespace, "," or ";"
+	private static final byte[] CHAR_CLASSES = new byte[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; ++c) {
+			CHAR_CLASSES[c] = DIRECTIVE_NAME_CHAR;
+			CHAR_CLASSES[Character.toUpperCase(c)] = DIRECTIVE_NAME_CHAR;
+		}
+		for (char c = '0'; c <= '9'; ++c) {
+			CHAR_CLASSES[c] = DIRECTIVE_NAME_CHAR;
+		}
+		CHAR_CLASSES['-'] = DIRECTIVE_NAME_CHAR;
+		for (char c : (Constants.WHITESPACE_CHARS + ",;").toCharArray()) {
+			CHAR_CLASSES[c] = NON_DIRECTIVE_CHAR;
+		}
+	}
+
+	static boolean isAscii(CharSequence s) {
+		for (int i = 0; i < s.length(); ++i) {
+			if (s.charAt(i) >= 128) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Equivalent to a.toLowerCase(Locale.ENGLISH).equals(b.toLowerCase(Locale.ENGLISH)) for ASCII strings
+	static boolean asciiEqualsIgnoreCase(String a, String b) {
+		if (a.length() != b.length()) {
+			return false;
+		}
+		for (int i = 0; i < a.length(); ++i) {
+			if (asciiLowercase(a.charAt(i)) != asciiLowercase(b.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static char asciiLowercase(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	// https://w3c.github.io/webappsec-csp/#grammardef-directive-name
+	static boolean isDirectiveName(String s) {
+		if (s.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c >= 128 || CHAR_CLASSES[c] != DIRECTIVE_NAME_CHAR) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// True if `s` contains a char which would end a directive name or value
+	static boolean containsNonDirectiveCharacter(String s) {
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c < 128 && CHAR_CLASSES[c] == NON_DIRECTIVE_CHAR) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	// https://infra.spec.whatwg.org/#split-on-ascii-whitespace
 	static List<String> splitOnAsciiWhitespace(String input) {
 		ArrayList<String> out = new ArrayList<>();
-		for (String value : input.split("[" + Constants.WHITESPACE_CHARS + "]")) {
-			if (value.isEmpty()) {
-				continue;
+		int tokenStart = -1;
+		for (int i = 0; i < input.length(); ++i) {
+			if (isAsciiWhitespace(input.charAt(i))) {
+				if (tokenStart != -1) {
+					out.add(input.substring(tokenStart, i));
+					tokenStart = -1;
+				}
+			} else if (tokenStart == -1) {
+				tokenStart = i;
 			}
-			out.add(value);
+		}
+		if (tokenStart != -1) {
+			out.add(input.substring(tokenStart));
 		}
 		return out;
 	}
 
-	// https://infra.spec.whatwg.org/#strictly-split
-	static List<String> strictlySplit(@Nonnull String s, char delim) {
-		int off = 0;
-		int next;
-		ArrayList<String> list = new ArrayList<>();
-		while ((next = s.indexOf(delim, off)) != -1) {
-			list.add(s.substring(off, next));
-			off = next + 1;
+	// The path split on every `/`, keeping empty segments, with each segment percent-decoded, for
+	// https://w3c.github.io/webappsec-csp/#path-part-match
+	@Nonnull
+	public static String[] splitAndDecodePath(@Nonnull String path) {
+		int count = 1;
+		for (int i = path.indexOf('/'); i != -1; i = path.indexOf('/', i + 1)) {
+			++count;
 		}
-
-		list.add(s.substring(off));
-		return list;
+		String[] segments = new String[count];
+		int start = 0;
+		for (int i = 0; i < count - 1; ++i) {
+			int end = path.indexOf('/', start);
+			segments[i] = decodeString(path.substring(start, end));
+			start = end + 1;
+		}
+		segments[count - 1] = decodeString(path.substring(start));
+		return segments;
 	}
 
 	static String decodeString(@Nonnull String s) {
+		if (s.indexOf('%') == -1 && s.indexOf('+') == -1) {
+			// URLDecoder would return an equal string, but only after copying it
+			return s;
+		}
 		try {
 			return URLDecoder.decode(s, "UTF-8");
 		} catch (UnsupportedEncodingException e) {
@@ -1,10 +1,15 @@
 package com.shapesecurity.salvation2.Values;
 
 import com.shapesecurity.salvation2.Constants;
+import com.shapesecurity.salvation2.Tokens;
 import com.shapesecurity.salvation2.URLs.URI;
+import com.shapesecurity.salvation2.Utils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
@@ -18,6 +23,10 @@ public class Host {
 	public final int port;
 	@Nullable
 	public final String path;
+	// `path` split on `/` and percent-decoded, as https://w3c.github.io/webappsec-csp/#path-part-match compares it; null if
+	// there is no path. Done once here rather than on every match.
+	@Nullable
+	public final List<String> decodedPathSegments;
 
 	public static final Host STAR = new Host(null, "*", Constants.EMPTY_PORT, null);
 
@@ -26,6 +35,7 @@ public class Host {
 		this.host = host;
 		this.port = port;
 		this.path = path;
+		this.decodedPathSegments = path == null || path.isEmpty() ? null : Collections.unmodifiableList(Arrays.asList(Utils.splitAndDecodePath(path)));
 	}
 
 	public static Optional<Host> parseHost(String value) {
@@ -33,7 +43,7 @@ public class Host {
 		if (matcher.find()) {
 			String scheme = matcher.group(1);
 			if (scheme != null) {
-				scheme = scheme.substring(0, scheme.length() - 3).toLowerCase(Locale.ENGLISH);
+				scheme = Tokens.intern(scheme.substring(0, scheme.length() - 3).toLowerCase(Locale.ENGLISH));
 			}
 			String portString = matcher.group(3);
 			int port;
@@ -43,7 +53,7 @@ public class Host {
 				port = portString.equals(":*") ? Constants.WILDCARD_PORT : Integer.parseInt(portString.substring(1));
 			}
 			// Hosts are only consumed lowercase: https://w3c.github.io/webappsec-csp/#host-part-match
-			String host = matcher.group(2).toLowerCase(Locale.ENGLISH); // There is no possible NPE here; host is not optional
+			String host = Tokens.intern(matcher.group(2).toLowerCase(Locale.ENGLISH)); // There is no possible NPE here; host is not optional
 			String path = matcher.group(4);
 
 			// TODO contemplate warning for paths which contain `//`, `/../`, or `/./`, since those will never match an actual request
@@ -81,6 +91,11 @@ public class Host {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(scheme, host, port, path);
+		// Same value as Objects.hash(scheme, host, port, path), without the varargs array and boxing; this is hashed for
+		// every host-source in a long source list
+		int result = 31 + Objects.hashCode(this.scheme);
+		result = 31 * result + this.host.hashCode();
+		result = 31 * result + this.port;
+		return 31 * result + Objects.hashCode(this.path);
 	}
 }
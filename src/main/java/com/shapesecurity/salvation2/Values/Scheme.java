@@ -1,6 +1,7 @@
 package com.shapesecurity.salvation2.Values;
 
 import com.shapesecurity.salvation2.Constants;
+import com.shapesecurity.salvation2.Tokens;
 
 import javax.annotation.Nonnull;
 import java.util.Locale;
@@ -16,10 +17,10 @@ public class Scheme {
 	}
 
 	public static Optional<Scheme> parseScheme(String value) {
-		if (value.matches("^" + Constants.schemePart + ":$")) {
+		if (Constants.schemeSourcePattern.matcher(value).matches()) {
 			// https://tools.ietf.org/html/rfc3986#section-3.1
 			// "Although schemes are case-insensitive, the canonical form is lowercase"
-			return Optional.of(new Scheme(value.substring(0, value.length() - 1).toLowerCase(Locale.ENGLISH)));
+			return Optional.of(new Scheme(Tokens.intern(value.substring(0, value.length() - 1).toLowerCase(Locale.ENGLISH))));
 		}
 		return Optional.empty();
 	}
@@ -0,0 +1,123 @@
+package com.shapesecurity.salvation2;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AnalyzerTest extends TestBase {
+	private static ReadableByteChannel channel(String input) {
+		return Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.ISO_8859_1)));
+	}
+
+	private static List<String> analyze(Analyzer analyzer, String... inputs) throws IOException, InterruptedException {
+		List<ReadableByteChannel> channels = new ArrayList<>();
+		for (String input : inputs) {
+			channels.add(channel(input));
+		}
+		StringWriter out = new StringWriter();
+		analyzer.analyze(channels, out);
+		List<String> lines = new ArrayList<>(Arrays.asList(out.toString().split("\n")));
+		// The per-header lines come in whatever order the workers finish
+		Collections.sort(lines.subList(0, lines.size() - 1));
+		return lines;
+	}
+
+	@Test
+	public void testSummary() throws IOException, InterruptedException {
+		String input = "script-src 'unsafe-inline' 'unsafe-eval'\n"
+			+ "script-src 'unsafe-inline' 'unsafe-eval'\r\n"
+			+ "\n"
+			+ "default-src 'self'; foo bar, style-src 'unsafe-inline'\n"
+			+ "script-src 'unsafe-inline' 'nonce-abc'; foo\n"
+			+ "script-src é\n"
+			+ "script-src 'unsafe-inline' 'unsafe-eval'";
+		List<String> lines = analyze(new Analyzer(3, 100, 1000, false), input, "img-src *\n");
+		assertEquals(Arrays.asList(
+			"{\"line\":1,\"header\":\"script-src 'unsafe-inline' 'unsafe-eval'\",\"policies\":1,\"directives\":[\"script-src\"],\"scriptUnsafeInline\":true,\"styleUnsafeInline\":false,\"unsafeEval\":true,\"messages\":[]}",
+			"{\"line\":4,\"header\":\"default-src 'self'; foo bar, style-src 'unsafe-inline'\",\"policies\":2,\"directives\":[\"default-src\",\"foo\",\"style-src\"],\"scriptUnsafeInline\":false,\"styleUnsafeInline\":true,\"unsafeEval\":false,\"messages\":[{\"severity\":\"Warning\",\"message\":\"Unrecognized directive foo\"}]}",
+			"{\"line\":5,\"header\":\"script-src 'unsafe-inline' 'nonce-abc'; foo\",\"policies\":1,\"directives\":[\"script-src\",\"foo\"],\"scriptUnsafeInline\":true,\"styleUnsafeInline\":false,\"unsafeEval\":false,\"messages\":[{\"severity\":\"Warning\",\"message\":\"Unrecognized directive foo\"}]}",
+			"{\"line\":6,\"header\":\"script-src é\",\"policies\":0,\"directives\":[],\"scriptUnsafeInline\":false,\"styleUnsafeInline\":false,\"unsafeEval\":false,\"messages\":[{\"severity\":\"Error\",\"message\":\"string is not ascii: \\\"script-src é\\\"\"}]}",
+			"{\"line\":8,\"header\":\"img-src *\",\"policies\":1,\"directives\":[\"img-src\"],\"scriptUnsafeInline\":false,\"styleUnsafeInline\":false,\"unsafeEval\":false,\"messages\":[]}",
+			"{\"summary\":{\"lines\":8,\"blankLines\":1,\"tooLongLines\":0,\"distinct\":5,\"notDeduplicated\":0,\"policies\":7,\"scriptUnsafeInline\":4,\"styleUnsafeInline\":1,\"unsafeEval\":3,"
+				+ "\"directives\":{\"default-src\":1,\"foo\":2,\"img-src\":1,\"script-src\":4,\"style-src\":1},\"otherDirectives\":0,"
+				+ "\"messages\":[{\"severity\":\"Warning\",\"message\":\"Unrecognized directive foo\",\"count\":2},{\"severity\":\"Error\",\"message\":\"string is not ascii: \\\"script-src é\\\"\",\"count\":1}],\"otherMessages\":0}}"
+		), lines);
+	}
+
+	@Test
+	public void testBounds() throws IOException, InterruptedException {
+		String input = "img-src a\nimg-src b\nimg-src a\nimg-src b\nimg-src 0123456789\n";
+		List<String> lines = analyze(new Analyzer(1, 1, 12, true), input);
+		assertEquals(1, lines.size());
+		String summary = lines.get(0);
+		// `img-src b` is parsed and counted twice, since only `img-src a` is remembered
+		assertTrue(summary, summary.startsWith("{\"summary\":{\"lines\":5,\"blankLines\":0,\"tooLongLines\":1,\"distinct\":1,\"notDeduplicated\":2,\"policies\":4,"));
+		assertTrue(summary, summary.contains("\"directives\":{\"img-src\":4}"));
+	}
+
+	@Test
+	public void testWorkerFailures() throws IOException, InterruptedException {
+		List<ReadableByteChannel> channels = Arrays.asList(channel("img-src a\nimg-src b\n"), channel("img-src c\n"));
+		Writer failing = new Writer() {
+			@Override
+			public void write(char[] buffer, int offset, int length) {
+				throw new IllegalStateException("cannot write");
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		try {
+			new Analyzer(2, 100, 1000, false).analyze(channels, failing);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("cannot write", e.getMessage());
+		}
+		for (ReadableByteChannel channel : channels) {
+			assertFalse(channel.isOpen());
+		}
+	}
+
+	@Test
+	public void testLineReader() throws IOException {
+		Analyzer.LineReader reader = new Analyzer.LineReader(channel("a\r\n\r\nabcd\nabcde\nabcd\r\nabcde\r\n\rb"), 4);
+		assertEquals("a", reader.readLine());
+		assertEquals("", reader.readLine());
+		assertEquals("abcd", reader.readLine());
+		assertSame(Analyzer.LineReader.TOO_LONG, reader.readLine());
+		assertEquals("abcd", reader.readLine());
+		assertSame(Analyzer.LineReader.TOO_LONG, reader.readLine());
+		assertEquals("\rb", reader.readLine());
+		assertNull(reader.readLine());
+		assertNull(reader.readLine());
+	}
+
+	@Test
+	public void testJsonString() {
+		StringBuilder out = new StringBuilder();
+		Analyzer.appendJsonString(out, "a\"b\\c\td\u0001");
+		assertEquals("\"a\\\"b\\\\c\\u0009d\\u0001\"", out.toString());
+	}
+}
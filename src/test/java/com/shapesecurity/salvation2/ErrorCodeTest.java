@@ -0,0 +1,116 @@
+package com.shapesecurity.salvation2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ErrorCodeTest extends TestBase {
+	// Fails the test if the message is ever formatted
+	private static final Object UNFORMATTABLE = new Object() {
+		@Override
+		public String toString() {
+			throw new AssertionError("formatted a message which nobody asked for");
+		}
+	};
+
+	private static class RecordingConsumer implements Policy.PolicyListErrorConsumer {
+		final List<String> reported = new ArrayList<>();
+
+		@Override
+		public void add(Policy.Severity severity, String message, int policyIndex, int directiveIndex, int valueIndex) {
+			fail("expected only structured errors, got " + message);
+		}
+
+		@Override
+		public void add(ErrorCode code, Object argument, int policyIndex, int directiveIndex, int valueIndex) {
+			this.reported.add(code + "(" + argument + ") " + policyIndex + ":" + directiveIndex + ":" + valueIndex);
+		}
+	}
+
+	@Test
+	public void testStructuredErrors() {
+		String serialized = "script-src 'self' 'self' 'sha256-abc' 'nonce-'; foo, report-to a b; img-src a; IMG-SRC b";
+		List<String> expected = Arrays.asList(
+			"DUPLICATE_SOURCE_EXPRESSION('self') 0:0:1",
+			"WRONG_HASH_LENGTH('sha256-abc') 0:0:2",
+			"UNRECOGNIZED_NONCE('nonce-') 0:0:3",
+			"UNRECOGNIZED_DIRECTIVE(foo) 0:1:-1",
+			"REPORT_TO_MULTIPLE_VALUES(2) 1:0:1",
+			"DUPLICATE_DIRECTIVE(img-src) 1:2:-1"
+		);
+
+		RecordingConsumer consumer = new RecordingConsumer();
+		Policy.parseSerializedCSPList(serialized, consumer);
+		assertEquals(expected, consumer.reported);
+
+		// The cache replays the codes on a hit, not just the messages
+		PolicyCache cache = new PolicyCache(4);
+		for (int i = 0; i < 2; ++i) {
+			consumer = new RecordingConsumer();
+			cache.parseSerializedCSPList(serialized, consumer);
+			assertEquals(expected, consumer.reported);
+		}
+		assertEquals(1, cache.hitCount());
+	}
+
+	@Test
+	public void testMessagesForStringConsumers() {
+		List<PolicyListError> errors = new ArrayList<>();
+		Policy.parseSerializedCSPList("sandbox 'allow-forms' allow-forms allow-forms", (severity, message, policyIndex, directiveIndex, valueIndex) -> errors.add(e(severity, message, policyIndex, directiveIndex, valueIndex)));
+		assertEquals(Arrays.asList(
+			e(Policy.Severity.Error, "Unrecognized sandbox keyword 'allow-forms' - note that sandbox keywords do not have \"'\"s", 0, 0, 0),
+			e(Policy.Severity.Warning, "Duplicate sandbox keyword allow-forms", 0, 0, 2)
+		), errors);
+	}
+
+	@Test
+	public void testErrorsOnly() {
+		String serialized = "script-src self 'sha256-a_c' 'sha256-a_c' 'nonce-' a a; report-uri /a /a, frame-ancestors self; report-to";
+		List<PolicyListError> all = new ArrayList<>();
+		PolicyList full = Policy.parseSerializedCSPList(serialized, (severity, message, policyIndex, directiveIndex, valueIndex) -> all.add(e(severity, message, policyIndex, directiveIndex, valueIndex)));
+
+		List<PolicyListError> errors = new ArrayList<>();
+		PolicyList fast = Policy.parseSerializedCSPList(serialized, Policy.PolicyListErrorConsumer.errorsOnly((severity, message, policyIndex, directiveIndex, valueIndex) -> errors.add(e(severity, message, policyIndex, directiveIndex, valueIndex))));
+
+		List<PolicyListError> expected = new ArrayList<>();
+		for (PolicyListError error : all) {
+			if (error.severity == Policy.Severity.Error) {
+				expected.add(error);
+			}
+		}
+		assertEquals(Arrays.asList(
+			e(Policy.Severity.Error, "Unrecognised nonce 'nonce-'", 0, 0, 3),
+			e(Policy.Severity.Error, "The report-to directive requires a value", 1, 1, -1)
+		), expected);
+		assertEquals(expected, errors);
+
+		// The parsed policies are the same either way
+		assertEquals(full.toString(), fast.toString());
+		assertEquals(full.policies.get(0).getFetchDirective(FetchDirectiveKind.ScriptSrc).get().getHosts(), fast.policies.get(0).getFetchDirective(FetchDirectiveKind.ScriptSrc).get().getHosts());
+		assertEquals(full.policies.get(0).getFetchDirective(FetchDirectiveKind.ScriptSrc).get().getHashes(), fast.policies.get(0).getFetchDirective(FetchDirectiveKind.ScriptSrc).get().getHashes());
+		assertEquals(full.policies.get(0).reportUri().get().getUris(), fast.policies.get(0).reportUri().get().getUris());
+	}
+
+	@Test
+	public void testIgnoredConsumersDoNotFormat() {
+		Directive.DirectiveErrorConsumer.ignored.add(ErrorCode.UNRECOGNIZED_DIRECTIVE, UNFORMATTABLE, 0);
+		Directive.ManipulationErrorConsumer.ignored.add(ErrorCode.DUPLICATE_HOST, UNFORMATTABLE);
+		Policy.PolicyErrorConsumer.ignored.add(ErrorCode.UNRECOGNIZED_DIRECTIVE, UNFORMATTABLE, 0, 0);
+		Policy.PolicyListErrorConsumer.ignored.add(ErrorCode.UNRECOGNIZED_DIRECTIVE, UNFORMATTABLE, 0, 0, 0);
+
+		// Errors from the manipulation APIs still throw when everything else is ignored
+		Directive.DirectiveErrorConsumer wrapped = Directive.wrapManipulationErrorConsumer(Directive.ManipulationErrorConsumer.ignored);
+		wrapped.add(ErrorCode.DUPLICATE_HOST, UNFORMATTABLE, -1);
+		try {
+			wrapped.add(ErrorCode.UNRECOGNIZED_NONCE, "'nonce-'", -1);
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals("Unrecognised nonce 'nonce-'", e.getMessage());
+		}
+	}
+}
@@ -976,6 +976,98 @@ public class HighLevelPolicyManipulationTest extends TestBase {
 		assertEquals("", p.toString());
 	}
 
+	@Test
+	public void testBulkHostRemoval() {
+		inTurkey(() -> {
+			Policy p = Policy.parseSerializedCSP("script-src * a.com 'self' HTTPS://B.COM https://b.com https: c.com:443 a.com/ I.com", Policy.PolicyErrorConsumer.ignored);
+			SourceExpressionDirective d = p.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+			assertEquals(hosts("a.com", "https://b.com", "c.com:443", "a.com/", "i.com"), d.getHosts());
+
+			// Every representation of a removed host goes
+			assertTrue(d.removeHosts(Arrays.asList(host("https://b.com"), host("i.com"), host("d.com"))));
+			assertEquals(hosts("a.com", "c.com:443", "a.com/"), d.getHosts());
+			assertEquals("script-src * a.com 'self' https: c.com:443 a.com/", p.toString());
+			assertFalse(d.removeHosts(Arrays.asList(host("https://b.com"), host("d.com"))));
+
+			// Only the hosts are offered to the predicate, so * and schemes stay
+			List<Host> offered = new ArrayList<>();
+			assertTrue(d.retainHosts(h -> {
+				offered.add(h);
+				return h.port != 443;
+			}));
+			assertEquals(hosts("a.com", "c.com:443", "a.com/"), offered);
+			assertEquals(hosts("a.com", "a.com/"), d.getHosts());
+			assertEquals("script-src * a.com 'self' https: a.com/", p.toString());
+			assertFalse(d.retainHosts(h -> true));
+
+			assertTrue(d.removeHosts(Arrays.asList(Host.STAR, host("a.com"))));
+			assertFalse(d.star());
+			assertEquals("script-src 'self' https: a.com/", p.toString());
+
+			assertTrue(d.retainHosts(h -> false));
+			assertTrue(d.getHosts().isEmpty());
+			d.setSelf(false);
+			d.removeScheme(Scheme.parseScheme("https:").get());
+			assertEquals("script-src 'none'", p.toString());
+		});
+	}
+
+	@Test
+	public void testFrameAncestorsHostRemoval() {
+		for (int i = 0; i < 2; ++i) {
+			Policy parsed = Policy.parseSerializedCSP("frame-ancestors a.com 'self' B.com b.com c.com", Policy.PolicyErrorConsumer.ignored);
+			// The second time round the values are recovered from a compacted, frozen copy
+			Policy p = i == 0 ? parsed : parsed.toImmutable().mutableCopy();
+			FrameAncestorsDirective d = p.frameAncestors().get();
+
+			assertTrue(d.removeHost(host("b.com")));
+			assertEquals(hosts("a.com", "c.com"), d.getHosts());
+			assertEquals("frame-ancestors a.com 'self' c.com", p.toString());
+
+			assertTrue(d.removeHost(host("a.com")));
+			assertEquals(hosts("c.com"), d.getHosts());
+			assertEquals("frame-ancestors 'self' c.com", p.toString());
+
+			d.addHost(host("d.com"), throwIfManipulationError);
+			assertTrue(d.retainHosts(h -> h.host.equals("d.com")));
+			assertEquals(hosts("d.com"), d.getHosts());
+			assertEquals("frame-ancestors 'self' d.com", p.toString());
+
+			assertTrue(d.removeHosts(Arrays.asList(host("d.com"), host("e.com"))));
+			d.setSelf(false);
+			assertEquals("frame-ancestors 'none'", p.toString());
+		}
+	}
+
+	@Test
+	public void testRemovalThroughRecordedValues() {
+		String serialized = "script-src 'NONCE-a' 'nonce-a' 'nonce-b' 'SHA256-47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=' A.com a.com 'self'";
+		Nonce a = Nonce.parseNonce("'nonce-a'").get();
+		Hash hash = Hash.parseHash("'sha256-47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU='").get();
+		for (int i = 0; i < 2; ++i) {
+			Policy parsed = Policy.parseSerializedCSP(serialized, Policy.PolicyErrorConsumer.ignored);
+			// The second time round the values are recovered from a compacted, frozen copy
+			Policy p = i == 0 ? parsed : parsed.toImmutable().mutableCopy();
+			SourceExpressionDirective d = p.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+
+			assertTrue(d.removeNonce(a));
+			assertFalse(d.removeNonce(a));
+			assertEquals("script-src 'nonce-b' 'SHA256-47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=' A.com a.com 'self'", p.toString());
+			assertTrue(d.removeHash(hash));
+			assertTrue(d.removeHost(host("a.com")));
+			assertEquals("script-src 'nonce-b' 'self'", p.toString());
+
+			// Values added through the manipulation APIs are recorded too
+			d.addHash(hash, throwIfManipulationError);
+			d.addHost(host("b.com"), throwIfManipulationError);
+			assertTrue(d.removeHash(hash));
+			assertTrue(d.removeHosts(Arrays.asList(host("b.com"), host("c.com"))));
+			assertTrue(d.removeNonce(Nonce.parseNonce("'nonce-b'").get()));
+			d.setSelf(false);
+			assertEquals("script-src 'none'", p.toString());
+		}
+	}
+
 	@Test
 	public void testWarnings() {
 		inTurkey(() -> {
@@ -0,0 +1,280 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Directives.ReportUriDirective;
+import com.shapesecurity.salvation2.Directives.SourceExpressionDirective;
+import com.shapesecurity.salvation2.URLs.URI;
+import com.shapesecurity.salvation2.URLs.URLWithScheme;
+import com.shapesecurity.salvation2.Values.Host;
+import com.shapesecurity.salvation2.Values.MediaType;
+import com.shapesecurity.salvation2.Values.Nonce;
+import com.shapesecurity.salvation2.Values.RFC7230Token;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImmutablePolicyTest extends TestBase {
+	private static final String SERIALIZED = "default-src 'self'; script-src 'nonce-a' https://a.example.com; style-src 'unsafe-inline'; "
+		+ "frame-ancestors 'none'; plugin-types application/pdf; report-uri /csp; report-to group; sandbox allow-forms; upgrade-insecure-requests";
+
+	// SERIALIZED uses deprecated directives, which produce warnings
+	private static Policy parse(String serialized) {
+		return Policy.parseSerializedCSP(serialized, Policy.PolicyErrorConsumer.ignored);
+	}
+
+	private static void assertThrowsUnsupported(Runnable r) {
+		try {
+			r.run();
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testToImmutable() {
+		Policy policy = parse(SERIALIZED);
+		ImmutablePolicy immutable = policy.toImmutable();
+		assertEquals(SERIALIZED, immutable.toString());
+		assertSame(immutable, immutable.toImmutable());
+
+		// Changes to the original are not visible in the snapshot
+		policy.remove("style-src");
+		assertFalse(policy.allowsInlineStyle(Optional.empty(), Optional.empty()));
+		assertTrue(immutable.allowsInlineStyle(Optional.empty(), Optional.empty()));
+		assertEquals(SERIALIZED, immutable.toString());
+	}
+
+	@Test
+	public void testImmutablePolicyCannotBeModified() {
+		ImmutablePolicy immutable = parse(SERIALIZED).toImmutable();
+
+		assertThrowsUnsupported(() -> immutable.add("img-src", Collections.singletonList("*"), throwIfDirectiveError));
+		assertThrowsUnsupported(() -> immutable.remove("default-src"));
+		assertThrowsUnsupported(() -> immutable.setBlockAllMixedContent(true));
+		assertThrowsUnsupported(() -> immutable.setReportTo(RFC7230Token.parseRFC7230Token("other").get()));
+		assertThrowsUnsupported(() -> immutable.setUpgradeInsecureRequests(false));
+
+		SourceExpressionDirective scriptSrc = immutable.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+		assertThrowsUnsupported(() -> scriptSrc.addHost(Host.parseHost("b.example.com").get(), throwIfManipulationError));
+		assertThrowsUnsupported(() -> scriptSrc.removeHost(Host.parseHost("https://a.example.com").get()));
+		assertThrowsUnsupported(() -> scriptSrc.addNonce(Nonce.parseNonce("'nonce-b'").get(), throwIfManipulationError));
+		assertThrowsUnsupported(() -> scriptSrc.setSelf(true));
+		assertThrowsUnsupported(() -> scriptSrc.setUnsafeEval(true));
+		assertThrowsUnsupported(() -> immutable.getFetchDirective(FetchDirectiveKind.DefaultSrc).get().setSelf(false));
+		assertThrowsUnsupported(() -> immutable.frameAncestors().get().setSelf(true));
+		assertThrowsUnsupported(() -> immutable.pluginTypes().get().addMediaType(MediaType.parseMediaType("text/plain").get(), throwIfManipulationError));
+		assertThrowsUnsupported(() -> immutable.reportUri().get().addUri("/other", throwIfManipulationError));
+		assertThrowsUnsupported(() -> immutable.sandbox().get().setAllowScripts(true));
+
+		assertFalse(immutable.sandbox().get().allowScripts());
+		assertEquals(SERIALIZED, immutable.toString());
+	}
+
+	@Test
+	public void testMutableCopy() {
+		ImmutablePolicy immutable = parse(SERIALIZED).toImmutable();
+		Policy copy = immutable.mutableCopy();
+		assertFalse(copy instanceof ImmutablePolicy);
+		assertEquals(SERIALIZED, copy.toString());
+
+		copy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().addNonce(Nonce.parseNonce("'nonce-b'").get(), throwIfManipulationError);
+		copy.sandbox().get().setAllowScripts(true);
+		copy.setReportTo(RFC7230Token.parseRFC7230Token("other").get());
+		copy.setUpgradeInsecureRequests(false);
+		copy.remove("plugin-types");
+		copy.add("img-src", Collections.singletonList("data:"), throwIfDirectiveError);
+
+		assertEquals("default-src 'self'; script-src 'nonce-a' https://a.example.com 'nonce-b'; style-src 'unsafe-inline'; "
+			+ "frame-ancestors 'none'; report-uri /csp; report-to other; sandbox allow-forms allow-scripts; img-src data:", copy.toString());
+		assertEquals(SERIALIZED, immutable.toString());
+		assertTrue(copy.allowsInlineScript(Optional.of("b"), Optional.empty(), Optional.empty()));
+		assertFalse(immutable.allowsInlineScript(Optional.of("b"), Optional.empty(), Optional.empty()));
+
+		// Directives which were not handed out are still shared
+		ImmutablePolicy second = copy.toImmutable();
+		assertSame(immutable.getFetchDirective(FetchDirectiveKind.StyleSrc).get(), second.getFetchDirective(FetchDirectiveKind.StyleSrc).get());
+		assertSame(immutable.frameAncestors().get(), second.frameAncestors().get());
+		assertNotSame(immutable.getFetchDirective(FetchDirectiveKind.ScriptSrc).get(), second.getFetchDirective(FetchDirectiveKind.ScriptSrc).get());
+		assertNotSame(immutable.sandbox().get(), second.sandbox().get());
+
+		// A copy of a mutable policy is independent of it
+		Policy third = copy.mutableCopy();
+		third.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().setUnsafeEval(true);
+		assertTrue(third.allowsEval());
+		assertFalse(copy.allowsEval());
+	}
+
+	@Test
+	public void testCompactedDirectives() {
+		// Long enough that the mutable source list hashes its hosts; the compacted one does not
+		StringBuilder serialized = new StringBuilder("script-src 'unsafe-inline' 'strict-dynamic' 'report-sample' 'nonce-a' 'sha256-47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU='");
+		List<Host> hosts = new ArrayList<>();
+		for (int i = 0; i < 40; ++i) {
+			serialized.append(" https://h").append(i).append(".example.com");
+			hosts.add(Host.parseHost("https://h" + i + ".example.com").get());
+		}
+		serialized.append("; report-uri /a /b /a; img-src");
+		ImmutablePolicy immutable = parse(serialized.toString()).toImmutable();
+		assertEquals(serialized.toString(), immutable.toString());
+
+		SourceExpressionDirective scriptSrc = immutable.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+		assertTrue(scriptSrc.unsafeInline());
+		assertTrue(scriptSrc.strictDynamic());
+		assertTrue(scriptSrc.reportSample());
+		assertFalse(scriptSrc.unsafeEval());
+		assertFalse(scriptSrc.unsafeHashes());
+		assertFalse(scriptSrc.unsafeAllowRedirects());
+		assertEquals(hosts, scriptSrc.getHosts());
+		assertEquals(1, scriptSrc.getNonces().size());
+		assertEquals(1, scriptSrc.getHashes().size());
+		assertTrue(scriptSrc.getSchemes().isEmpty());
+		assertTrue(immutable.getFetchDirective(FetchDirectiveKind.ImgSrc).get().getValues().isEmpty());
+		assertEquals(Arrays.asList("/a", "/b", "/a"), immutable.reportUri().get().getUris());
+		assertTrue(Policy.doesUrlMatchSourceListInOrigin(URI.parseURI("https://h39.example.com/x.js").get(), scriptSrc, Optional.empty()));
+		assertFalse(Policy.doesUrlMatchSourceListInOrigin(URI.parseURI("https://h40.example.com/x.js").get(), scriptSrc, Optional.empty()));
+
+		// A mutable copy can grow again, duplicate checks included
+		Policy copy = immutable.mutableCopy();
+		SourceExpressionDirective copied = copy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+		List<String> warnings = new ArrayList<>();
+		copied.addHost(hosts.get(39), (severity, message) -> warnings.add(message));
+		assertEquals(Collections.singletonList("Duplicate host https://h39.example.com"), warnings);
+		copied.setUnsafeInline(false);
+		copied.setUnsafeEval(true);
+		assertFalse(copied.unsafeInline());
+		assertTrue(copied.unsafeEval());
+		assertTrue(copied.strictDynamic());
+		copy.reportUri().get().addUri("/c", throwIfManipulationError);
+		copy.getFetchDirective(FetchDirectiveKind.ImgSrc).get().setSelf(true);
+		assertTrue(copy.toString().endsWith("; report-uri /a /b /a /c; img-src 'self'"));
+		assertTrue(scriptSrc.unsafeInline());
+		assertEquals(serialized.toString(), immutable.toString());
+	}
+
+	@Test
+	public void testCompactedListsAreShared() {
+		ImmutablePolicy immutable = parse("script-src 'nonce-a' https://a.example.com; report-uri /a /b /a; img-src; plugin-types application/pdf").toImmutable();
+
+		// report-uri holds each URI once, and the getters hand out the frozen lists themselves
+		ReportUriDirective reportUri = immutable.reportUri().get();
+		assertSame(reportUri.getUris(), reportUri.getValues());
+		assertSame(reportUri.getValues(), reportUri.getValues());
+
+		// Empty lists all become the one shared empty list
+		SourceExpressionDirective imgSrc = immutable.getFetchDirective(FetchDirectiveKind.ImgSrc).get();
+		assertSame(Collections.emptyList(), imgSrc.getValues());
+		assertSame(Collections.emptyList(), imgSrc.getHosts());
+		assertSame(Collections.emptyList(), imgSrc.getSchemes());
+		assertSame(Collections.emptyList(), imgSrc.getNonces());
+		assertSame(Collections.emptyList(), imgSrc.getHashes());
+		SourceExpressionDirective scriptSrc = immutable.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+		assertSame(Collections.emptyList(), scriptSrc.getSchemes());
+		assertSame(Collections.emptyList(), scriptSrc.getHashes());
+
+		// Which is only safe because nothing can change them
+		Host other = Host.parseHost("https://b.example.com").get();
+		assertThrowsUnsupported(() -> scriptSrc.getHosts().set(0, other));
+		assertThrowsUnsupported(() -> scriptSrc.getValues().set(0, "'self'"));
+		assertThrowsUnsupported(() -> reportUri.getUris().set(0, "/c"));
+		assertThrowsUnsupported(() -> immutable.pluginTypes().get().getMediaTypes().clear());
+		assertEquals("script-src 'nonce-a' https://a.example.com; report-uri /a /b /a; img-src; plugin-types application/pdf", immutable.toString());
+
+		// Copies get lists of their own again
+		Policy copy = immutable.mutableCopy();
+		ReportUriDirective copied = copy.reportUri().get();
+		assertNotSame(copied.getUris(), copied.getValues());
+		copied.addUri("/c", throwIfManipulationError);
+		assertEquals(Arrays.asList("/a", "/b", "/a", "/c"), copied.getUris());
+		assertEquals(Arrays.asList("/a", "/b", "/a"), reportUri.getUris());
+	}
+
+	@Test
+	public void testCopiesRecoverParsedValues() {
+		ImmutablePolicy immutable = parse("script-src 'NONCE-a' A.com 'self' https: a.com").toImmutable();
+		Policy copy = immutable.mutableCopy();
+		SourceExpressionDirective scriptSrc = copy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+
+		// Values added to the copy before its first removal are recorded as usual, and the rest are recovered around them
+		scriptSrc.addHost(Host.parseHost("b.com").get(), throwIfManipulationError);
+		scriptSrc.addNonce(Nonce.parseNonce("'nonce-b'").get(), throwIfManipulationError);
+		assertTrue(scriptSrc.removeHost(Host.parseHost("a.com").get()));
+		assertEquals("script-src 'NONCE-a' 'self' https: b.com 'nonce-b'", copy.toString());
+		assertTrue(scriptSrc.removeNonce(Nonce.parseNonce("'nonce-a'").get()));
+		assertTrue(scriptSrc.removeHost(Host.parseHost("b.com").get()));
+		assertTrue(scriptSrc.removeNonce(Nonce.parseNonce("'nonce-b'").get()));
+		assertEquals("script-src 'self' https:", copy.toString());
+		assertEquals("script-src 'NONCE-a' A.com 'self' https: a.com", immutable.toString());
+	}
+
+	@Test
+	public void testCompilingDoesNotUnshare() {
+		ImmutablePolicy immutable = parse(SERIALIZED + "; navigate-to 'self'; form-action 'self'").toImmutable();
+		Policy copy = immutable.mutableCopy();
+		PolicyMatcher matcher = copy.compile();
+		assertFalse(matcher.allowsInlineScript(Optional.empty(), Optional.empty(), Optional.empty()));
+
+		// Only directives which were handed out are copied, so a snapshot of the copy still shares every one
+		ImmutablePolicy second = copy.toImmutable();
+		assertSame(immutable.sandbox().get(), second.sandbox().get());
+		assertSame(immutable.navigateTo().get(), second.navigateTo().get());
+		assertSame(immutable.formAction().get(), second.formAction().get());
+		assertSame(immutable.frameAncestors().get(), second.frameAncestors().get());
+		assertSame(immutable.pluginTypes().get(), second.pluginTypes().get());
+		assertSame(immutable.getFetchDirective(FetchDirectiveKind.ScriptSrc).get(), second.getFetchDirective(FetchDirectiveKind.ScriptSrc).get());
+	}
+
+	@Test
+	public void testGoverningDirectiveIsUnshared() {
+		ImmutablePolicy immutable = Policy.parseSerializedCSP("default-src 'self'", throwIfPolicyError).toImmutable();
+		Policy copy = immutable.mutableCopy();
+		copy.getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.ImgSrc).get().setStar(true);
+		assertEquals("default-src 'self' *", copy.toString());
+		assertEquals("default-src 'self'", immutable.toString());
+	}
+
+	@Test
+	public void testConcurrentQueriesAndCopies() throws Exception {
+		String serialized = "default-src 'self'; script-src 'nonce-a' https://a.example.com; img-src *";
+		ImmutablePolicy immutable = parse(serialized).toImmutable();
+		URLWithScheme origin = URI.parseURI("https://example.com").get();
+		URLWithScheme allowed = URI.parseURI("https://a.example.com/script.js").get();
+		URLWithScheme blocked = URI.parseURI("https://b.example.com/script.js").get();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; ++t) {
+				String nonce = "n" + t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 200; ++i) {
+						assertTrue(immutable.allowsExternalScript(Optional.empty(), Optional.empty(), Optional.of(allowed), Optional.empty(), Optional.of(origin)));
+						assertFalse(immutable.allowsExternalScript(Optional.empty(), Optional.empty(), Optional.of(blocked), Optional.empty(), Optional.of(origin)));
+						Policy copy = immutable.mutableCopy();
+						copy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().addNonce(Nonce.parseNonce("'nonce-" + nonce + "'").get(), throwIfManipulationError);
+						assertTrue(copy.allowsInlineScript(Optional.of(nonce), Optional.empty(), Optional.empty()));
+						assertFalse(immutable.allowsInlineScript(Optional.of(nonce), Optional.empty(), Optional.empty()));
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(serialized, immutable.toString());
+	}
+}
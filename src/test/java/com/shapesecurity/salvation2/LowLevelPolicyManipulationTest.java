@@ -2,6 +2,12 @@ package com.shapesecurity.salvation2;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -10,6 +16,7 @@ import java.util.List;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LowLevelPolicyManipulationTest extends TestBase {
 	@Test
@@ -258,6 +265,111 @@ public class LowLevelPolicyManipulationTest extends TestBase {
 		p.add("default-src", Collections.singletonList(";"), Directive.DirectiveErrorConsumer.ignored);
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddAssertsNoWhitespaceWithinNames() {
+		Policy p = Policy.parseSerializedCSP("", throwIfPolicyError);
+		p.add("default-src\tscript-src", Collections.emptyList(), Directive.DirectiveErrorConsumer.ignored);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddAssertsNoSemisWithinValues() {
+		Policy p = Policy.parseSerializedCSP("", throwIfPolicyError);
+		p.add("default-src", Collections.singletonList("'self'; script-src *"), Directive.DirectiveErrorConsumer.ignored);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddAssertsAsciiWithinValues() {
+		Policy p = Policy.parseSerializedCSP("default-src 'self'", throwIfPolicyError);
+		p.add("script-src", Collections.singletonList("a\u00e9"), Directive.DirectiveErrorConsumer.ignored);
+	}
+
+	@Test
+	public void testSerializationAfterChanges() throws IOException {
+		PolicyList list = Policy.parseSerializedCSPList("script-src a b; img-src; sandbox, default-src 'none'", Policy.PolicyListErrorConsumer.ignored);
+		assertEquals("script-src a b; img-src; sandbox, default-src 'none'", list.toString());
+		StringWriter writer = new StringWriter();
+		list.appendTo(writer);
+		assertEquals(list.toString(), writer.toString());
+
+		// Each change shows up even though the directives' serializations were cached above
+		Policy p = list.policies.get(0);
+		p.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().setSelf(true);
+		assertEquals("script-src a b 'self'; img-src; sandbox", p.toString());
+		p.getFetchDirective(FetchDirectiveKind.ImgSrc).get().setUnsafeInline(true);
+		p.sandbox().get().setAllowScripts(true);
+		assertEquals("script-src a b 'self'; img-src 'unsafe-inline'; sandbox allow-scripts", p.toString());
+		p.getFetchDirective(FetchDirectiveKind.ImgSrc).get().setUnsafeInline(false);
+		p.sandbox().get().setAllowScripts(false);
+		assertEquals("script-src a b 'self'; img-src 'none'; sandbox", p.toString());
+
+		// Copies start from the original's cache, and changing one does not affect the other
+		ImmutablePolicy immutable = p.toImmutable();
+		Policy copy = immutable.mutableCopy();
+		copy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().setSelf(false);
+		assertEquals("script-src a b; img-src 'none'; sandbox", copy.toString());
+		assertEquals("script-src a b 'self'; img-src 'none'; sandbox", immutable.toString());
+
+		StringBuilder out = new StringBuilder("x: ");
+		copy.appendTo(out);
+		assertEquals("x: script-src a b; img-src 'none'; sandbox", out.toString());
+	}
+
+	@Test
+	public void testWriteTo() throws IOException {
+		PolicyList list = Policy.parseSerializedCSPList("script-src a b; img-src; sandbox, , default-src 'none'", Policy.PolicyListErrorConsumer.ignored);
+		Policy p = list.policies.get(0);
+		for (Object serialized : new Object[] { p, list, Policy.parseSerializedCSP("", throwIfPolicyError), new PolicyList(Collections.emptyList()) }) {
+			String expected = serialized.toString();
+			int length = serialized instanceof Policy ? ((Policy) serialized).serializedLength() : ((PolicyList) serialized).serializedLength();
+			assertEquals(expected.length(), length);
+
+			// A heap buffer whose array starts before the buffer, and a direct buffer
+			for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.wrap(new byte[length + 6], 2, length + 4).slice(), ByteBuffer.allocateDirect(length + 4) }) {
+				buffer.put((byte) 'x');
+				if (serialized instanceof Policy) {
+					((Policy) serialized).writeTo(buffer);
+				} else {
+					((PolicyList) serialized).writeTo(buffer);
+				}
+				assertEquals(1 + length, buffer.position());
+				buffer.flip();
+				byte[] written = new byte[buffer.remaining()];
+				buffer.get(written);
+				assertEquals("x" + expected, new String(written, StandardCharsets.US_ASCII));
+			}
+
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			if (serialized instanceof Policy) {
+				((Policy) serialized).writeTo(stream);
+			} else {
+				((PolicyList) serialized).writeTo(stream);
+			}
+			assertEquals(expected, new String(stream.toByteArray(), StandardCharsets.US_ASCII));
+		}
+
+		ByteBuffer tooSmall = ByteBuffer.allocate(p.serializedLength() - 1);
+		try {
+			p.writeTo(tooSmall);
+			fail();
+		} catch (BufferOverflowException e) {
+			assertEquals(0, tooSmall.position());
+		}
+	}
+
+	@Test
+	public void testDirectiveNamePredicates() {
+		assertTrue(Directive.IS_DIRECTIVE_NAME.test("script-src"));
+		assertTrue(Directive.IS_DIRECTIVE_NAME.test("X-0"));
+		assertFalse(Directive.IS_DIRECTIVE_NAME.test(""));
+		assertFalse(Directive.IS_DIRECTIVE_NAME.test("script_src"));
+		assertFalse(Directive.IS_DIRECTIVE_NAME.test("script-src\u00e9"));
+		assertFalse(Directive.containsNonDirectiveCharacter.test("'self'"));
+		assertFalse(Directive.containsNonDirectiveCharacter.test(""));
+		assertTrue(Directive.containsNonDirectiveCharacter.test("a\fb"));
+		assertTrue(Directive.containsNonDirectiveCharacter.test("a,"));
+		assertTrue(Directive.containsNonDirectiveCharacter.test(" "));
+	}
+
 
 	private static void add(Policy p, String name, List<String> values, DirectiveError... errors) {
 		ArrayList<DirectiveError> observedErrors = new ArrayList<>();
@@ -1,12 +1,20 @@
 package com.shapesecurity.salvation2;
 
+import com.shapesecurity.salvation2.Directives.SourceExpressionDirective;
+import com.shapesecurity.salvation2.Values.Host;
 import com.shapesecurity.salvation2.Values.Scheme;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ParserTest extends TestBase {
 	@Test
@@ -425,6 +433,27 @@ public class ParserTest extends TestBase {
 				"default-src\na;\rscript-src\fb",
 				"default-src a; script-src b"
 		);
+
+		serializesTo(
+				"\t;\f default-src\t\ta  a ;",
+				"default-src a a",
+				e(Policy.Severity.Warning, "Duplicate host a", 1, 1)
+		);
+
+		serializesTo(
+				" ; ; img-src\r\n'not-keyword' ",
+				"img-src 'not-keyword'",
+				e(Policy.Severity.Error, "Unrecognized source-expression 'not-keyword'", 2, 0)
+		);
+
+		ArrayList<PolicyListError> observedErrors = new ArrayList<>();
+		Policy.PolicyListErrorConsumer consumer = (severity, message, policyIndex, directiveIndex, valueIndex) -> {
+			observedErrors.add(e(severity, message, policyIndex, directiveIndex, valueIndex));
+		};
+		PolicyList p = Policy.parseSerializedCSPList(" , ;, ;default-src a\ta ,", consumer);
+		assertEquals("default-src a a", p.toString());
+		assertEquals(1, observedErrors.size());
+		assertEquals(e(Policy.Severity.Warning, "Duplicate host a", 2, 1, 1), observedErrors.get(0));
 	}
 
 	@Test
@@ -642,6 +671,98 @@ public class ParserTest extends TestBase {
 		});
 	}
 
+	@Test
+	public void testLongSourceLists() {
+		// Long enough that duplicates are found by hashing rather than scanning
+		StringBuilder serialized = new StringBuilder("script-src");
+		List<Host> hosts = new ArrayList<>();
+		for (int i = 0; i < 40; ++i) {
+			serialized.append(" h").append(i).append(" 'nonce-").append(i).append("'");
+			hosts.add(Host.parseHost("h" + i).get());
+		}
+		serialized.append(" h7 'nonce-39' H0 h40");
+		hosts.add(Host.parseHost("h40").get());
+
+		ArrayList<PolicyError> observedErrors = new ArrayList<>();
+		Policy p = Policy.parseSerializedCSP(serialized.toString(), (severity, message, directiveIndex, valueIndex) -> {
+			observedErrors.add(e(severity, message, directiveIndex, valueIndex));
+		});
+		assertEquals(Arrays.asList(
+			e(Policy.Severity.Warning, "Duplicate host h7", 0, 80),
+			e(Policy.Severity.Warning, "Duplicate nonce 'nonce-39'", 0, 81),
+			e(Policy.Severity.Warning, "Duplicate host h0", 0, 82)
+		), observedErrors);
+
+		SourceExpressionDirective directive = p.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+		assertEquals(hosts, directive.getHosts());
+		assertEquals(40, directive.getNonces().size());
+
+		assertTrue(directive.removeHost(hosts.get(7)));
+		assertFalse(directive.removeHost(hosts.get(7)));
+		directive.addHost(hosts.get(7), throwIfManipulationError);
+		hosts.add(hosts.remove(7));
+		assertEquals(hosts, directive.getHosts());
+	}
+
+	@Test
+	public void testParsesBytesAndCharSequences() {
+		String serialized = "script-src 'self' 'self' https://a; FOO, img-src\t*; report-to";
+		List<PolicyListError> expectedErrors = new ArrayList<>();
+		PolicyList expected = Policy.parseSerializedCSPList(serialized, (severity, message, policyIndex, directiveIndex, valueIndex) -> expectedErrors.add(e(severity, message, policyIndex, directiveIndex, valueIndex)));
+		assertEquals(3, expectedErrors.size());
+
+		byte[] padded = ("xx" + serialized + "yy").getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer heap = ByteBuffer.wrap(padded, 2, serialized.length());
+		ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+		direct.put(padded).position(2).limit(2 + serialized.length());
+		for (int i = 0; i < 4; ++i) {
+			List<PolicyListError> errors = new ArrayList<>();
+			Policy.PolicyListErrorConsumer consumer = (severity, message, policyIndex, directiveIndex, valueIndex) -> errors.add(e(severity, message, policyIndex, directiveIndex, valueIndex));
+			PolicyList parsed;
+			switch (i) {
+				case 0:
+					parsed = Policy.parseSerializedCSPList(new StringBuilder(serialized), consumer);
+					break;
+				case 1:
+					parsed = Policy.parseSerializedCSPList(padded, 2, serialized.length(), consumer);
+					break;
+				case 2:
+					parsed = Policy.parseSerializedCSPList(heap, consumer);
+					assertEquals(2, heap.position());
+					break;
+				default:
+					parsed = Policy.parseSerializedCSPList(direct, consumer);
+					assertEquals(2, direct.position());
+					break;
+			}
+			assertEquals(expected.toString(), parsed.toString());
+			assertEquals(expectedErrors, errors);
+		}
+
+		Policy policy = Policy.parseSerializedCSP(ByteBuffer.wrap("default-src a b".getBytes(StandardCharsets.US_ASCII)), throwIfPolicyError);
+		assertEquals(Arrays.asList(Host.parseHost("a").get(), Host.parseHost("b").get()), policy.getFetchDirective(FetchDirectiveKind.DefaultSrc).get().getHosts());
+		assertEquals("", Policy.parseSerializedCSPList(new byte[0], 0, 0, throwIfPolicyListError).toString());
+
+		try {
+			Policy.parseSerializedCSPList(new byte[] { 'a', (byte) 0xC3, (byte) 0xA9 }, 0, 3, Policy.PolicyListErrorConsumer.ignored);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			Policy.parseSerializedCSP("a, b".getBytes(StandardCharsets.US_ASCII), 0, 4, Policy.PolicyErrorConsumer.ignored);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			Policy.parseSerializedCSPList(padded, 2, padded.length, Policy.PolicyListErrorConsumer.ignored);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void testAssertsAscii() {
 		Policy.parseSerializedCSP("\uD835\uDC9C", Policy.PolicyErrorConsumer.ignored);
@@ -0,0 +1,158 @@
+package com.shapesecurity.salvation2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PolicyCacheTest extends TestBase {
+	@Test
+	public void testHitsAndMisses() {
+		PolicyCache cache = new PolicyCache(100);
+		PolicyList first = cache.parseSerializedCSPList("default-src 'self', script-src a", throwIfPolicyListError);
+		assertEquals(2, first.policies.size());
+		assertEquals("default-src 'self', script-src a", first.toString());
+		assertEquals(0, cache.hitCount());
+		assertEquals(1, cache.missCount());
+
+		assertSame(first, cache.parseSerializedCSPList("default-src 'self', script-src a", throwIfPolicyListError));
+		assertEquals(1, cache.hitCount());
+		assertEquals(1, cache.missCount());
+
+		// Keys are exact strings
+		assertNotSame(first, cache.parseSerializedCSPList("default-src 'self',script-src a", throwIfPolicyListError));
+		assertEquals(1, cache.hitCount());
+		assertEquals(2, cache.missCount());
+		assertEquals(2, cache.size());
+
+		try {
+			first.policies.remove(0);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			first.policies.get(0).remove("default-src");
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		// Nor can their directives be, however they are reached, since every caller shares them
+		for (Policy policy : first.policies) {
+			assertTrue(policy instanceof ImmutablePolicy);
+		}
+		try {
+			first.policies.get(1).getFetchDirective(FetchDirectiveKind.ScriptSrc).get().setSelf(true);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			first.policies.get(0).getGoverningDirectiveForEffectiveDirective(FetchDirectiveKind.ImgSrc).get().setStar(true);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			first.policies.get(0).getFetchDirective(FetchDirectiveKind.DefaultSrc).get().getValues().clear();
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		assertSame(first, cache.parseSerializedCSPList("default-src 'self', script-src a", throwIfPolicyListError));
+		assertEquals("default-src 'self', script-src a", first.toString());
+		Policy copy = first.policies.get(1).mutableCopy();
+		copy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().setSelf(true);
+		assertEquals("script-src a 'self'", copy.toString());
+		assertEquals("default-src 'self', script-src a", first.toString());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertNotSame(first, cache.parseSerializedCSPList("default-src 'self', script-src a", throwIfPolicyListError));
+		assertEquals(0, cache.evictionCount());
+	}
+
+	@Test
+	public void testErrorsAreReplayed() {
+		PolicyCache cache = new PolicyCache(10);
+		String serialized = "script-src a a; frame-src b, script-src 'none' c";
+		List<PolicyListError> expected = new ArrayList<>();
+		Policy.parseSerializedCSPList(serialized, (severity, message, policyIndex, directiveIndex, valueIndex) -> {
+			expected.add(e(severity, message, policyIndex, directiveIndex, valueIndex));
+		});
+		assertEquals(2, expected.size());
+
+		for (int i = 0; i < 3; ++i) {
+			List<PolicyListError> observed = new ArrayList<>();
+			cache.parseSerializedCSPList(serialized, (severity, message, policyIndex, directiveIndex, valueIndex) -> {
+				observed.add(e(severity, message, policyIndex, directiveIndex, valueIndex));
+			});
+			assertEquals(expected, observed);
+		}
+		assertEquals(2, cache.hitCount());
+	}
+
+	@Test
+	public void testEviction() {
+		PolicyCache cache = new PolicyCache(3);
+		for (int i = 0; i < 10; ++i) {
+			cache.parseSerializedCSPList("script-src a" + i, throwIfPolicyListError);
+			assertTrue(cache.size() <= 3);
+		}
+		assertEquals(10, cache.size() + cache.evictionCount());
+
+		// With a single segment, eviction is strictly least-recently-used
+		cache = new PolicyCache(1);
+		PolicyList a = cache.parseSerializedCSPList("script-src a", throwIfPolicyListError);
+		assertSame(a, cache.parseSerializedCSPList("script-src a", throwIfPolicyListError));
+		cache.parseSerializedCSPList("script-src b", throwIfPolicyListError);
+		assertNotSame(a, cache.parseSerializedCSPList("script-src a", throwIfPolicyListError));
+		assertEquals(2, cache.evictionCount());
+
+		try {
+			new PolicyCache(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		PolicyCache cache = new PolicyCache(64);
+		List<String> headers = new ArrayList<>();
+		for (int i = 0; i < 100; ++i) {
+			headers.add("default-src 'self' a" + (i % 50) + ".example.com; img-src *");
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; ++t) {
+				List<String> shuffled = new ArrayList<>(headers);
+				Collections.shuffle(shuffled);
+				futures.add(executor.submit(() -> {
+					for (String header : shuffled) {
+						assertEquals(header, cache.parseSerializedCSPList(header, throwIfPolicyListError).toString());
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(800, cache.hitCount() + cache.missCount());
+		assertTrue(cache.size() <= 64);
+	}
+}
@@ -0,0 +1,123 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.URLs.URI;
+import com.shapesecurity.salvation2.URLs.URLWithScheme;
+import com.shapesecurity.salvation2.Values.Hash;
+import com.shapesecurity.salvation2.Values.MediaType;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PolicyListTest extends TestBase {
+	// sha256 of `alert(1)`
+	private static final String ALERT_SHA = "sha256-bhHHL3z2vDgxUt0W3dWQOrprscmda2Y5pLsLg4GF+pI=";
+
+	private static Optional<URLWithScheme> url(String url) {
+		return URI.parseURI(url).map(u -> u);
+	}
+
+	private static PolicyList parse(String serialized) {
+		return Policy.parseSerializedCSPList(serialized, Policy.PolicyListErrorConsumer.ignored);
+	}
+
+	// Checks that the list agrees with asking each of its policies in turn
+	private static void assertCombines(PolicyList list, String message, Predicate<Policy> query, boolean actual) {
+		boolean expected = true;
+		for (Policy policy : list.policies) {
+			expected &= query.test(policy);
+		}
+		assertEquals(message, expected, actual);
+		assertEquals(message, !expected, list.findBlocking(query).isPresent());
+	}
+
+	@Test
+	public void testCombinedVerdicts() {
+		String[] headers = {
+			"",
+			"default-src 'self'",
+			"default-src 'self', script-src 'unsafe-inline' https://a.example.com",
+			"script-src 'nonce-abc' 'strict-dynamic', script-src 'nonce-abc' https:, object-src 'none'",
+			"script-src '" + ALERT_SHA + "' 'unsafe-hashes', script-src 'unsafe-inline' 'unsafe-eval'",
+			"img-src *, img-src https://a.example.com, sandbox allow-scripts",
+			"style-src 'unsafe-inline', style-src 'self', navigate-to 'self', form-action https:",
+			"frame-ancestors 'self', connect-src wss://a.example.com, plugin-types application/pdf",
+		};
+		Optional<URLWithScheme> origin = url("https://example.com");
+		Optional<URLWithScheme> sameOrigin = url("https://example.com/a.js");
+		Optional<URLWithScheme> crossOrigin = url("https://a.example.com/a.js");
+		Optional<URLWithScheme> webSocket = url("wss://a.example.com/");
+		Optional<String> nonce = Optional.of("abc");
+		Optional<String> source = Optional.of("alert(1)");
+		Optional<String> integrity = Optional.of(ALERT_SHA);
+		Optional<MediaType> pdf = MediaType.parseMediaType("application/pdf");
+		for (String header : headers) {
+			PolicyList list = parse(header);
+			assertCombines(list, header, p -> p.allowsExternalScript(nonce, Optional.empty(), crossOrigin, Optional.of(false), origin), list.allowsExternalScript(nonce, Optional.empty(), crossOrigin, Optional.of(false), origin));
+			assertCombines(list, header, p -> p.allowsExternalScript(Optional.empty(), integrity, sameOrigin, Optional.empty(), origin), list.allowsExternalScript(Optional.empty(), integrity, sameOrigin, Optional.empty(), origin));
+			assertCombines(list, header, p -> p.allowsExternalScript(Optional.empty(), integrity, sameOrigin, Optional.empty(), origin), list.allowsExternalScript(Optional.empty(), new IntegrityMetadata(integrity.get()), sameOrigin, Optional.empty(), origin));
+			assertCombines(list, header, p -> p.allowsInlineScript(nonce, source, Optional.empty()), list.allowsInlineScript(nonce, source, Optional.empty()));
+			assertCombines(list, header, p -> p.allowsInlineScript(Optional.empty(), source, Optional.empty()), list.allowsInlineScript(Optional.empty(), new InlineSource(source.get()), Optional.empty()));
+			assertCombines(list, header, p -> p.allowsInlineScript(Optional.empty(), Optional.empty(), Optional.empty()), list.allowsInlineScript(Optional.empty(), Optional.empty(), Optional.empty()));
+			assertCombines(list, header, p -> p.allowsScriptAsAttribute(source), list.allowsScriptAsAttribute(source));
+			assertCombines(list, header, p -> p.allowsScriptAsAttribute(Optional.empty()), list.allowsScriptAsAttribute(Optional.empty()));
+			assertCombines(list, header, Policy::allowsEval, list.allowsEval());
+			assertCombines(list, header, p -> p.allowsNavigation(crossOrigin, Optional.empty(), Optional.empty(), origin), list.allowsNavigation(crossOrigin, Optional.empty(), Optional.empty(), origin));
+			assertCombines(list, header, p -> p.allowsFormAction(sameOrigin, Optional.of(false), Optional.empty(), origin), list.allowsFormAction(sameOrigin, Optional.of(false), Optional.empty(), origin));
+			assertCombines(list, header, p -> p.allowsJavascriptUrlNavigation(source, origin), list.allowsJavascriptUrlNavigation(source, origin));
+			assertCombines(list, header, p -> p.allowsExternalStyle(Optional.empty(), sameOrigin, origin), list.allowsExternalStyle(Optional.empty(), sameOrigin, origin));
+			assertCombines(list, header, p -> p.allowsInlineStyle(Optional.empty(), source), list.allowsInlineStyle(Optional.empty(), source));
+			assertCombines(list, header, p -> p.allowsStyleAsAttribute(source), list.allowsStyleAsAttribute(source));
+			assertCombines(list, header, p -> p.allowsFrame(crossOrigin, origin), list.allowsFrame(crossOrigin, origin));
+			assertCombines(list, header, p -> p.allowsFrameAncestor(crossOrigin, origin), list.allowsFrameAncestor(crossOrigin, origin));
+			assertCombines(list, header, p -> p.allowsConnection(webSocket, origin), list.allowsConnection(webSocket, origin));
+			assertCombines(list, header, p -> p.allowsFont(crossOrigin, origin), list.allowsFont(crossOrigin, origin));
+			assertCombines(list, header, p -> p.allowsImage(crossOrigin, origin), list.allowsImage(crossOrigin, origin));
+			assertCombines(list, header, p -> p.allowsApplicationManifest(sameOrigin, origin), list.allowsApplicationManifest(sameOrigin, origin));
+			assertCombines(list, header, p -> p.allowsMedia(crossOrigin, origin), list.allowsMedia(crossOrigin, origin));
+			assertCombines(list, header, p -> p.allowsObject(crossOrigin, origin), list.allowsObject(crossOrigin, origin));
+			assertCombines(list, header, p -> p.allowsPrefetch(crossOrigin, origin), list.allowsPrefetch(crossOrigin, origin));
+			assertCombines(list, header, p -> p.allowsWorker(sameOrigin, origin), list.allowsWorker(sameOrigin, origin));
+			assertCombines(list, header, p -> p.allowsPlugin(pdf), list.allowsPlugin(pdf));
+		}
+	}
+
+	@Test
+	public void testFindBlocking() {
+		PolicyList list = parse("img-src *, script-src 'self', script-src https://a.example.com");
+		Optional<URLWithScheme> origin = url("https://example.com");
+		Optional<URLWithScheme> script = url("https://a.example.com/a.js");
+		assertTrue(list.allowsImage(script, origin));
+		assertFalse(list.allowsExternalScript(Optional.empty(), Optional.empty(), script, Optional.empty(), origin));
+		assertSame(list.policies.get(1), list.findBlocking(p -> p.allowsExternalScript(Optional.empty(), Optional.empty(), script, Optional.empty(), origin)).get());
+		assertFalse(list.findBlocking(p -> p.allowsImage(script, origin)).isPresent());
+
+		// An empty list allows everything
+		PolicyList empty = new PolicyList(Collections.emptyList());
+		assertTrue(empty.allowsInlineScript(Optional.empty(), Optional.empty(), Optional.empty()));
+		assertFalse(empty.findBlocking(p -> false).isPresent());
+	}
+
+	@Test
+	public void testIntegrityMetadata() {
+		IntegrityMetadata integrity = new IntegrityMetadata(" " + ALERT_SHA + "\tsha999-abc md5-abc  sha384-AAAA ");
+		List<Hash> hashes = integrity.getHashes();
+		assertEquals(2, hashes.size());
+		assertSame(hashes, integrity.getHashes());
+		assertEquals(Hash.Algorithm.SHA256, hashes.get(0).algorithm);
+		assertEquals(Hash.Algorithm.SHA384, hashes.get(1).algorithm);
+
+		// Every well-formed integrity source must be allowed, and there must be at least one
+		assertTrue(integrity.matches(hashes));
+		assertFalse(integrity.matches(hashes.subList(0, 1)));
+		assertFalse(new IntegrityMetadata("md5-abc").matches(hashes));
+		assertFalse(new IntegrityMetadata("").matches(Collections.emptyList()));
+	}
+}
@@ -0,0 +1,213 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.URLs.GUID;
+import com.shapesecurity.salvation2.URLs.URI;
+import com.shapesecurity.salvation2.URLs.URLWithScheme;
+import com.shapesecurity.salvation2.Values.MediaType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PolicyMatcherTest extends TestBase {
+	private static final String[] POLICIES = {
+		"",
+		"default-src 'none'",
+		"default-src *",
+		"default-src 'self'",
+		"default-src http: ws:",
+		"default-src https://example.com:443 http://*.example.com:* ftp://example.com/ *.example.org",
+		"default-src example.com/a/b example.com/c/ example.com/%61/b/ example.com/a%2Fb",
+		"default-src example.com/",
+		"default-src 127.0.0.1 10.0.0.1 http://127.0.0.1:8080 localhost:*",
+		"default-src ftp://example.com http://*",
+		"default-src *.example.com example.com:8080 https://example.com/a/ ftp://example.com 127.0.0.1 10.0.0.1 http://127.0.0.1:8080 localhost:* *.evil.net",
+		"default-src 'self' *; script-src 'nonce-abc' 'sha256-UNhY4JhezH9gQYqvDMWrWH9CwlcKiECVqejMrND2VFw=' 'strict-dynamic'",
+		"script-src 'unsafe-inline' 'unsafe-hashes' 'sha512-O7Eu2jwpjbXeJVl/VNkk8uF+eKJq2JU+2CGO5oLwu76QIeLzAJ0VLJEb8fJexoOpAnFBZnZ6+9jlvQ+wEk7Lig=='; style-src 'unsafe-inline'",
+		"script-src-elem 'self'; script-src-attr 'unsafe-inline'; style-src-elem https:; style-src-attr 'none'",
+		"script-src 'unsafe-eval' 'unsafe-inline'; object-src 'none'; base-uri 'self'",
+		"default-src 'unsafe-eval'; script-src 'self'",
+		"child-src example.com; worker-src 'self'; frame-src *; connect-src http://example.com wss://example.com",
+		"connect-src https://example.com; img-src data: blob:; media-src 'self'; font-src *.example.com; manifest-src 'self'; prefetch-src http:",
+		"navigate-to example.com 'unsafe-allow-redirects'; form-action 'self'",
+		"navigate-to example.com",
+		"sandbox allow-scripts; frame-ancestors 'self' https://example.com",
+		"sandbox allow-forms",
+		"plugin-types a/b c/d",
+		"style-src 'nonce-abc' 'sha256-UNhY4JhezH9gQYqvDMWrWH9CwlcKiECVqejMrND2VFw='; script-src 'unsafe-hashes' 'sha256-3S/AGuStMnYaPRqBYmTSOPDq1Mi0Jp+Cpd5R7TgybtE='",
+		"default-src 'self' 'self' a a; script-src 'none' 'self'",
+		"default-src custom: wss: https://example.com/a+b/ ws://*.example.com custom://example.com:* example.com/a%20b/",
+	};
+
+	private static final String[] URLS = {
+		"http://example.com",
+		"https://example.com",
+		"http://example.com:80/a/b",
+		"https://example.com/a/b",
+		"https://example.com/a/b/",
+		"https://example.com/c/d",
+		"https://example.com/a%2Fb",
+		"https://example.com/a%2Fb/c",
+		"https://example.com/a/b/c",
+		"https://sub.example.com:8443/c",
+		"https://sub.example.com.evil.net",
+		"https://example.org",
+		"http://evil.example.org",
+		"ftp://example.com/a",
+		"ws://example.com",
+		"wss://example.com",
+		"http://127.0.0.1",
+		"http://127.0.0.1:8080",
+		"http://10.0.0.1",
+		"http://localhost:1234",
+		"HTTPS://EXAMPLE.COM/A/B",
+		"gopher://example.com",
+		"custom://example.com/x",
+		"https://example.com/a+b/c",
+		"https://example.com/a%20b/c",
+		"wss://sub.example.com:443/",
+		"file://example.com/a",
+	};
+
+	private static final URLWithScheme[] OTHER_URLS = {
+		new GUID("data", "text/plain,hello"),
+		new GUID("blob", "https://example.com/uuid"),
+		new GUID("javascript", "alert(1)"),
+	};
+
+	@Test
+	public void testMatchesPolicy() {
+		List<URLWithScheme> urls = new ArrayList<>();
+		for (String url : URLS) {
+			urls.add(URI.parseURI(url).get());
+		}
+		urls.addAll(Arrays.asList(OTHER_URLS));
+
+		List<Optional<URLWithScheme>> origins = new ArrayList<>();
+		origins.add(Optional.empty());
+		origins.add(Optional.of(URI.parseURI("https://example.com").get()));
+		origins.add(Optional.of(URI.parseURI("http://example.com").get()));
+		origins.add(Optional.of(URI.parseURI("http://example.com:8080").get()));
+		origins.add(Optional.of(new GUID("data", "")));
+
+		List<Optional<URLWithScheme>> optionalUrls = new ArrayList<>();
+		optionalUrls.add(Optional.empty());
+		for (URLWithScheme url : urls) {
+			optionalUrls.add(Optional.of(url));
+		}
+
+		List<Optional<String>> nonces = Arrays.asList(Optional.empty(), Optional.of(""), Optional.of("abc"), Optional.of("abd"));
+		List<Optional<String>> sources = Arrays.asList(Optional.empty(), Optional.of("example"), Optional.of("example2"), Optional.of("alert(1)"));
+		List<Optional<String>> integrities = Arrays.asList(Optional.empty(), Optional.of("sha256-UNhY4JhezH9gQYqvDMWrWH9CwlcKiECVqejMrND2VFw="), Optional.of("sha256-x sha384-y"), Optional.of("md5-z"));
+		List<Optional<Boolean>> booleans = Arrays.asList(Optional.empty(), Optional.of(true), Optional.of(false));
+
+		for (String serialized : POLICIES) {
+			Policy policy = Policy.parseSerializedCSP(serialized, Policy.PolicyErrorConsumer.ignored);
+			PolicyMatcher matcher = policy.compile();
+			String message = "policy " + serialized;
+
+			assertEquals(message, policy.allowsEval(), matcher.allowsEval());
+			for (Optional<String> source : sources) {
+				assertEquals(message, policy.allowsScriptAsAttribute(source), matcher.allowsScriptAsAttribute(source));
+				assertEquals(message, policy.allowsStyleAsAttribute(source), matcher.allowsStyleAsAttribute(source));
+				for (Optional<String> nonce : nonces) {
+					assertEquals(message, policy.allowsInlineStyle(nonce, source), matcher.allowsInlineStyle(nonce, source));
+					for (Optional<Boolean> parserInserted : booleans) {
+						assertEquals(message, policy.allowsInlineScript(nonce, source, parserInserted), matcher.allowsInlineScript(nonce, source, parserInserted));
+					}
+				}
+				if (source.isPresent()) {
+					InlineSource inlineSource = new InlineSource(source.get());
+					assertEquals(message, policy.allowsScriptAsAttribute(source), policy.allowsScriptAsAttribute(inlineSource));
+					assertEquals(message, policy.allowsScriptAsAttribute(source), matcher.allowsScriptAsAttribute(inlineSource));
+					assertEquals(message, policy.allowsStyleAsAttribute(source), matcher.allowsStyleAsAttribute(inlineSource));
+					for (Optional<String> nonce : nonces) {
+						assertEquals(message, policy.allowsInlineStyle(nonce, source), matcher.allowsInlineStyle(nonce, inlineSource));
+						assertEquals(message, policy.allowsInlineScript(nonce, source, Optional.empty()), matcher.allowsInlineScript(nonce, inlineSource, Optional.empty()));
+					}
+				}
+			}
+			for (Optional<String> mediaType : Arrays.asList(Optional.<String>empty(), Optional.of("a/b"), Optional.of("A/B"), Optional.of("b/a"))) {
+				Optional<MediaType> parsed = mediaType.flatMap(MediaType::parseMediaType);
+				assertEquals(message, policy.allowsPlugin(parsed), matcher.allowsPlugin(parsed));
+			}
+
+			for (Optional<URLWithScheme> origin : origins) {
+				for (Optional<String> source : sources) {
+					assertEquals(message, policy.allowsJavascriptUrlNavigation(source, origin), matcher.allowsJavascriptUrlNavigation(source, origin));
+				}
+				for (Optional<URLWithScheme> url : optionalUrls) {
+					String urlMessage = message + " url " + url + " origin " + origin;
+					assertEquals(urlMessage, policy.allowsFrame(url, origin), matcher.allowsFrame(url, origin));
+					assertEquals(urlMessage, policy.allowsFrameAncestor(url, origin), matcher.allowsFrameAncestor(url, origin));
+					assertEquals(urlMessage, policy.allowsConnection(url, origin), matcher.allowsConnection(url, origin));
+					assertEquals(urlMessage, policy.allowsFont(url, origin), matcher.allowsFont(url, origin));
+					assertEquals(urlMessage, policy.allowsImage(url, origin), matcher.allowsImage(url, origin));
+					assertEquals(urlMessage, policy.allowsApplicationManifest(url, origin), matcher.allowsApplicationManifest(url, origin));
+					assertEquals(urlMessage, policy.allowsMedia(url, origin), matcher.allowsMedia(url, origin));
+					assertEquals(urlMessage, policy.allowsObject(url, origin), matcher.allowsObject(url, origin));
+					assertEquals(urlMessage, policy.allowsPrefetch(url, origin), matcher.allowsPrefetch(url, origin));
+					assertEquals(urlMessage, policy.allowsWorker(url, origin), matcher.allowsWorker(url, origin));
+					for (Optional<String> nonce : nonces) {
+						assertEquals(urlMessage, policy.allowsExternalStyle(nonce, url, origin), matcher.allowsExternalStyle(nonce, url, origin));
+						for (Optional<String> integrity : integrities) {
+							for (Optional<Boolean> parserInserted : booleans) {
+								assertEquals(urlMessage, policy.allowsExternalScript(nonce, integrity, url, parserInserted, origin), matcher.allowsExternalScript(nonce, integrity, url, parserInserted, origin));
+							}
+						}
+					}
+					for (Optional<Boolean> redirected : booleans) {
+						for (Optional<URLWithScheme> redirectedTo : Arrays.asList(Optional.<URLWithScheme>empty(), optionalUrls.get(1), optionalUrls.get(10))) {
+							assertEquals(urlMessage, policy.allowsNavigation(url, redirected, redirectedTo, origin), matcher.allowsNavigation(url, redirected, redirectedTo, origin));
+							assertEquals(urlMessage, policy.allowsFormAction(url, redirected, redirectedTo, origin), matcher.allowsFormAction(url, redirected, redirectedTo, origin));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMatchableURL() {
+		List<URLWithScheme> urls = new ArrayList<>();
+		for (String url : URLS) {
+			urls.add(URI.parseURI(url).get());
+		}
+		urls.addAll(Arrays.asList(OTHER_URLS));
+		String[] schemes = { "ftp", "file", "gopher", "http", "https", "ws", "wss", "data", "custom" };
+		for (URLWithScheme url : urls) {
+			MatchableURL matchable = new MatchableURL(url);
+			for (String scheme : schemes) {
+				assertEquals(scheme + " " + url.scheme, Policy.schemePartMatches(scheme, url.scheme), matchable.schemePartMatches(MatchableURL.KnownScheme.of(scheme), scheme));
+			}
+			for (URLWithScheme origin : urls) {
+				assertEquals(url + " " + origin, Policy.doesUrlMatchSelf(url, origin), matchable.matchesSelf(new MatchableURL(origin)));
+			}
+		}
+
+		MatchableURL url = new MatchableURL(URI.parseURI("https://example.com/a%2Fb/c+d/").get());
+		assertEquals(MatchableURL.KnownScheme.HTTPS, url.knownScheme);
+		assertEquals(443, url.port);
+		assertEquals(443, url.defaultPort);
+		assertEquals(Arrays.asList("", "a/b", "c d", ""), Arrays.asList(url.decodedPathSegments()));
+		assertEquals(Constants.EMPTY_PORT, new MatchableURL(OTHER_URLS[0]).port);
+	}
+
+	@Test
+	public void testIsASnapshot() {
+		Policy policy = Policy.parseSerializedCSP("img-src 'none'", throwIfPolicyError);
+		PolicyMatcher matcher = policy.compile();
+		Optional<URLWithScheme> url = Optional.of(URI.parseURI("https://example.com").get());
+
+		policy.getFetchDirective(FetchDirectiveKind.ImgSrc).get().setStar(true);
+		assertTrue(policy.allowsImage(url, Optional.empty()));
+		assertFalse(matcher.allowsImage(url, Optional.empty()));
+		assertTrue(policy.compile().allowsImage(url, Optional.empty()));
+	}
+}
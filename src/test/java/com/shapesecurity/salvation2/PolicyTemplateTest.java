@@ -0,0 +1,128 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Values.Nonce;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PolicyTemplateTest extends TestBase {
+	private static final FetchDirectiveKind[] SCRIPT_AND_STYLE = { FetchDirectiveKind.ScriptSrc, FetchDirectiveKind.StyleSrc };
+
+	private static Policy parse(String serialized) {
+		return Policy.parseSerializedCSP(serialized, Policy.PolicyErrorConsumer.ignored);
+	}
+
+	// The template must agree with the slow path of adding the nonce to each governing directive and serializing
+	private static String renderSlowly(Policy policy, String nonce, FetchDirectiveKind... kinds) {
+		Policy copy = policy.mutableCopy();
+		for (FetchDirectiveKind kind : kinds) {
+			copy.getGoverningDirectiveForEffectiveDirective(kind).ifPresent(d -> d.addNonce(Nonce.parseNonce("'nonce-" + nonce + "'").get(), Directive.ManipulationErrorConsumer.ignored));
+		}
+		return copy.toString();
+	}
+
+	@Test
+	public void testRender() {
+		Policy policy = parse("default-src 'self'; script-src 'self' https://a.example.com; style-src 'unsafe-inline'; report-uri /csp");
+		PolicyTemplate template = new PolicyTemplate(policy, SCRIPT_AND_STYLE);
+		assertEquals(2, template.slotCount());
+		assertEquals("default-src 'self'; script-src 'self' https://a.example.com 'nonce-abc'; style-src 'unsafe-inline' 'nonce-abc'; report-uri /csp", template.render("abc"));
+		assertEquals(template.render("abc").length(), template.renderedLength(3));
+
+		// Later changes to the policy do not affect the template
+		policy.remove("report-uri");
+		assertEquals("default-src 'self'; script-src 'self' https://a.example.com 'nonce-xyz='; style-src 'unsafe-inline' 'nonce-xyz='; report-uri /csp", template.render("xyz="));
+	}
+
+	@Test
+	public void testMatchesAddNonce() {
+		String[] policies = {
+			"",
+			"img-src *",
+			"default-src 'self'",
+			"default-src 'none'",
+			"default-src 'none'; script-src 'none'; style-src 'NONE'",
+			"script-src 'none' 'self'",
+			"script-src a; script-src b; style-src c",
+			"default-src 'self'; script-src-elem 'self'; style-src-attr 'unsafe-inline'",
+			"Script-Src A  B;   style-src c; sandbox",
+			"object-src 'none'; base-uri 'self'; script-src 'strict-dynamic' 'unsafe-inline' https:",
+		};
+		FetchDirectiveKind[][] kindLists = {
+			{},
+			SCRIPT_AND_STYLE,
+			{ FetchDirectiveKind.ScriptSrcElem },
+			{ FetchDirectiveKind.StyleSrc, FetchDirectiveKind.StyleSrcAttr, FetchDirectiveKind.ScriptSrc },
+		};
+		for (String serialized : policies) {
+			Policy policy = parse(serialized);
+			for (FetchDirectiveKind[] kinds : kindLists) {
+				PolicyTemplate template = new PolicyTemplate(policy, kinds);
+				String expected = renderSlowly(policy, "r4nd0m+/-_==", kinds);
+				String message = serialized + " " + Arrays.toString(kinds);
+				assertEquals(message, expected, template.render("r4nd0m+/-_=="));
+				assertEquals(message, expected, template.appendTo(new StringBuilder(), "r4nd0m+/-_==").toString());
+				assertArrayEquals(message, expected.getBytes(StandardCharsets.US_ASCII), template.renderBytes("r4nd0m+/-_=="));
+				assertEquals(message, expected.length(), template.renderedLength(12));
+			}
+		}
+	}
+
+	@Test
+	public void testRenderToBytes() {
+		PolicyTemplate template = new PolicyTemplate(parse("script-src 'self'"), SCRIPT_AND_STYLE);
+		byte[] out = new byte[40];
+		Arrays.fill(out, (byte) '.');
+		int end = template.renderTo(out, 2, "abc");
+		assertEquals(2 + "script-src 'self' 'nonce-abc'".length(), end);
+		assertEquals("..script-src 'self' 'nonce-abc'.........", new String(out, StandardCharsets.US_ASCII));
+
+		StringBuilder existing = new StringBuilder("Content-Security-Policy: ");
+		assertEquals("Content-Security-Policy: script-src 'self' 'nonce-abc'", template.appendTo(existing, "abc").toString());
+
+		try {
+			template.renderTo(new byte[40], 20, "abc");
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		try {
+			template.renderTo(new byte[40], -1, "abc");
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testInvalidNonces() {
+		PolicyTemplate template = new PolicyTemplate(parse("script-src 'self'"), SCRIPT_AND_STYLE);
+		for (String nonce : new String[] { "", "=", "a===", "a b", "a'; script-src *", "a;", "ab=c", "é" }) {
+			assertFalse(nonce, Utils.IS_BASE64_VALUE.test(nonce));
+			assertFalse(nonce, Utils.isBase64Value(nonce));
+			try {
+				template.render(nonce);
+				fail(nonce);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			try {
+				template.renderTo(new byte[100], 0, nonce);
+				fail(nonce);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		for (String nonce : new String[] { "a", "a=", "a==", "AZaz09+/-_" }) {
+			assertTrue(nonce, Utils.IS_BASE64_VALUE.test(nonce));
+			assertTrue(nonce, Utils.isBase64Value(nonce));
+		}
+	}
+}
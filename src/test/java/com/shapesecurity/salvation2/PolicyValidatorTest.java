@@ -0,0 +1,72 @@
+package com.shapesecurity.salvation2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PolicyValidatorTest extends TestBase {
+	private static final String[] HEADERS = {
+		"",
+		"default-src 'self'",
+		"script-src 'self' 'self'; foo",
+		"script-src 'nonce-a' 'strict-dynamic', img-src *; img-src a",
+		"report-uri /csp; sandbox allow-nothing",
+		"script-src é",
+		"default-src 'none' 'self', ,",
+	};
+
+	@Test
+	public void testMatchesParsing() {
+		// Enough inputs to be split between several workers
+		List<String> inputs = new ArrayList<>();
+		for (int i = 0; i < PolicyValidator.LEAF_SIZE * 5 + 3; ++i) {
+			inputs.add(HEADERS[i % HEADERS.length] + (i % 2 == 0 ? "" : "; img-src " + i));
+		}
+		for (int parallelism : new int[] { 1, 2, 4 }) {
+			List<PolicyValidator.Result> results = PolicyValidator.validateAll(inputs, parallelism);
+			assertEquals(inputs.size(), results.size());
+			for (int i = 0; i < inputs.size(); ++i) {
+				PolicyValidator.Result result = results.get(i);
+				assertEquals(inputs.get(i), result.serialized);
+
+				List<PolicyValidator.Diagnostic> expected = new ArrayList<>();
+				try {
+					Policy.parseSerializedCSPList(inputs.get(i), (severity, message, policyIndex, directiveIndex, valueIndex) -> expected.add(new PolicyValidator.Diagnostic(severity, message, policyIndex, directiveIndex, valueIndex)));
+				} catch (IllegalArgumentException e) {
+					expected.add(new PolicyValidator.Diagnostic(Policy.Severity.Error, e.getMessage(), -1, -1, -1));
+				}
+				assertEquals(inputs.get(i), expected, result.diagnostics);
+			}
+		}
+	}
+
+	@Test
+	public void testResults() {
+		List<PolicyValidator.Result> results = PolicyValidator.validateAll(Arrays.asList(HEADERS), 2);
+		assertFalse(results.get(1).hasErrors());
+		assertTrue(results.get(1).diagnostics.isEmpty());
+		assertFalse(results.get(2).hasErrors());
+		assertEquals(Arrays.asList(
+			new PolicyValidator.Diagnostic(Policy.Severity.Warning, "Duplicate source-expression 'self'", 0, 0, 1),
+			new PolicyValidator.Diagnostic(Policy.Severity.Warning, "Unrecognized directive foo", 0, 1, -1)
+		), results.get(2).diagnostics);
+		assertTrue(results.get(5).hasErrors());
+		assertEquals(Collections.singletonList(new PolicyValidator.Diagnostic(Policy.Severity.Error, "string is not ascii: \"script-src é\"", -1, -1, -1)), results.get(5).diagnostics);
+
+		assertTrue(PolicyValidator.validateAll(Collections.emptyList(), 4).isEmpty());
+		try {
+			PolicyValidator.validateAll(Collections.emptyList(), 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
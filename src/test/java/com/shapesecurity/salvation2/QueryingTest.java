@@ -3,13 +3,23 @@ package com.shapesecurity.salvation2;
 import com.shapesecurity.salvation2.URLs.GUID;
 import com.shapesecurity.salvation2.URLs.URI;
 import com.shapesecurity.salvation2.URLs.URLWithScheme;
+import com.shapesecurity.salvation2.Values.Hash;
+import com.shapesecurity.salvation2.Values.Host;
 import com.shapesecurity.salvation2.Values.MediaType;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class QueryingTest extends TestBase {
 	static String EXAMPLE_SHA = "sha512-O7Eu2jwpjbXeJVl/VNkk8uF+eKJq2JU+2CGO5oLwu76QIeLzAJ0VLJEb8fJexoOpAnFBZnZ6+9jlvQ+wEk7Lig=="; // sha512 of 'example'
@@ -251,6 +261,12 @@ public class QueryingTest extends TestBase {
 		assertFalse("script hash is allowed", p.allowsExternalScript(Optional.empty(), Optional.of(
 				malformed + " sha257-b"), Optional.empty(), Optional.empty(), Optional.empty()));
 
+		// Integrity metadata is split on any ASCII whitespace
+		assertTrue("script hash is allowed", p.allowsExternalScript(Optional.empty(), Optional.of(
+				"\t" + malformed + "\n\f " + wellFormedMatching + "\r "), Optional.empty(), Optional.empty(), Optional.empty()));
+		assertFalse("script hash is not allowed", p.allowsExternalScript(Optional.empty(), Optional.of(
+				wellFormedMatching + "\t" + wellFormedNotMatching), Optional.empty(), Optional.empty(), Optional.empty()));
+
 		// All well-formed hashes are checked
 		assertFalse("script hash is allowed", p.allowsExternalScript(Optional.empty(), Optional.of(
 				wellFormedMatching + " " + wellFormedNotMatching), Optional.empty(), Optional.empty(), Optional.empty()));
@@ -282,6 +298,28 @@ public class QueryingTest extends TestBase {
 		assertTrue("style hash is allowed", p.allowsInlineStyle(Optional.empty(), Optional.of("example")));
 		assertFalse("style hash is not allowed", p.allowsInlineStyle(Optional.empty(), Optional.of("example2")));
 
+		// A single InlineSource can be checked against many policies
+		InlineSource example = new InlineSource("example");
+		InlineSource example2 = new InlineSource("example2");
+		Policy sha256 = parse("script-src 'sha256-UNhY4JhezH9gQYqvDMWrWH9CwlcKiECVqejMrND2VFw='; style-src 'unsafe-inline' '" + EXAMPLE_SHA + "'");
+		Policy sha384 = parse("script-src 'unsafe-hashes' 'sha384-/u6/iE9tq+bsqNaONz1r5IjNql63ZOiVKQM2/+n/lpaG8qnTYumou93257LhRV8t'");
+		assertTrue("script hash is allowed", sha256.allowsInlineScript(Optional.empty(), example, Optional.empty()));
+		assertTrue("script hash is allowed", sha384.allowsInlineScript(Optional.empty(), example, Optional.empty()));
+		assertTrue("style hash is allowed", sha256.allowsInlineStyle(Optional.empty(), example));
+		assertFalse("script hash is not allowed", sha256.allowsInlineScript(Optional.empty(), example2, Optional.empty()));
+		assertFalse("style hash is not allowed", sha256.allowsInlineStyle(Optional.empty(), example2));
+		assertFalse("script attribute hash is not allowed without unsafe-hashes", sha256.allowsScriptAsAttribute(example));
+		assertTrue("script attribute hash is allowed", sha384.allowsScriptAsAttribute(example));
+		assertFalse("script attribute hash is not allowed", sha384.allowsScriptAsAttribute(example2));
+		assertTrue("style attribute is allowed", sha384.allowsStyleAsAttribute(example2));
+		assertEquals("UNhY4JhezH9gQYqvDMWrWH9CwlcKiECVqejMrND2VFw=", example.digest(Hash.Algorithm.SHA256));
+
+		// Hashes added after a check are still found
+		sha256.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().addHash(Hash.parseHash("'sha256-X7FnnghnQFm3LicdiQLBGhJ7tTAbBV3Hf6A5Mq2lalY='").get(), Directive.ManipulationErrorConsumer.ignored);
+		assertTrue("script hash is allowed", sha256.allowsInlineScript(Optional.empty(), example2, Optional.empty()));
+		sha256.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().removeHash(Hash.parseHash("'sha256-UNhY4JhezH9gQYqvDMWrWH9CwlcKiECVqejMrND2VFw='").get());
+		assertFalse("script hash is not allowed", sha256.allowsInlineScript(Optional.empty(), example, Optional.empty()));
+
 		p = parse("default-src 'none'");
 		assertFalse("script hash is not allowed", p.allowsExternalScript(Optional.empty(), Optional.of(
 				"sha512-vSsar3708Jvp9Szi2NWZZ02Bqp1qRCFpbcTZPdBhnWgs5WtNZKnvCXdhztmeD2cmW192CF5bDufKRpayrW/isg=="), Optional.empty(), Optional.empty(), Optional.empty()));
@@ -511,6 +549,42 @@ public class QueryingTest extends TestBase {
 	}
 
 
+	@Test
+	public void testManyHosts() {
+		// Enough hosts that matching goes through the directive's host index
+		PolicyInOrigin p = parse("script-src http://*.example.com/a http://example.net/a http://EXAMPLE.ORG/a http://127.0.0.1/a http://192.168.1.1/a http://10.0.0.1/a http://*.b.example.com:8080 https://c.test d.test e.test", "http://example.com");
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://a.example.com/a").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://A.example.com/a").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://a.b.example.com/a").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://example.com/a").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://example.com.org/a").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://a.example.com/b").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://a.b.example.com:8080/b").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://b.example.com:8080/b").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://example.net/a").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://EXAMPLE.NET/a").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://a.example.net/a").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://example.org/a").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://127.0.0.1/a").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://192.168.1.1/a").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://10.0.0.1/a").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("https://c.test").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://c.test").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://d.test").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("https://e.test").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://f.test").orElse(null)));
+
+		// The index follows changes to the directive
+		p.policy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().addHost(Host.parseHost("f.test").get(), Directive.ManipulationErrorConsumer.ignored);
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://f.test").orElse(null)));
+		p.policy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().removeHost(Host.parseHost("d.test").get());
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://d.test").orElse(null)));
+		p.policy.getFetchDirective(FetchDirectiveKind.ScriptSrc).get().removeHost(Host.parseHost("http://*.example.com/a").get());
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://a.example.com/a").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://a.b.example.com:8080/b").orElse(null)));
+	}
+
+
 	@Test
 	public void testPaths() {
 		PolicyInOrigin p;
@@ -592,6 +666,19 @@ public class QueryingTest extends TestBase {
 		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://example.com/%EF/").orElse(null)));
 		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://example.com/%C3%AF/").orElse(null)));
 		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://example.com/%C3%AF/%65").orElse(null)));
+
+		// The same URL checked against several path-restricted sources
+		p = parse("script-src example.com/x/ example.com/a+b/c example.com/a%20b/ example.com/%2F/", "http://example.com");
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://example.com/a%20b/c").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://example.com/a+b/d").orElse(null)));
+		assertTrue(p.allowsScriptFromSource(URI.parseURI("http://example.com/%2f/d").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://example.com///d").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://example.com/a%2Bb/c").orElse(null)));
+		assertFalse(p.allowsScriptFromSource(URI.parseURI("http://example.com/y/").orElse(null)));
+
+		assertEquals(Arrays.asList("", "a b", "c", ""), Host.parseHost("example.com/a%20b/c/").get().decodedPathSegments);
+		assertEquals(Arrays.asList("", "/", ""), Host.parseHost("example.com/%2F/").get().decodedPathSegments);
+		assertNull(Host.parseHost("example.com").get().decodedPathSegments);
 	}
 
 
@@ -1475,6 +1562,77 @@ public class QueryingTest extends TestBase {
 	}
 
 
+	@Test
+	public void testAllowsFromSources() {
+		String[] policies = {
+			"img-src *",
+			"default-src 'none'",
+			"default-src 'self' https://a.example.com; script-src https://*.example.com 'strict-dynamic'",
+			"default-src 'self' https://a.example.com; script-src-elem https://b.example.com; style-src http:; sandbox allow-scripts",
+			"default-src 'self'; sandbox",
+			"connect-src 'self' https://a.example.com; worker-src https://a.example.com; child-src https://b.example.com",
+			"frame-src 'self' *.example.com; object-src 'none'; media-src data: blob:; font-src *; manifest-src 'self'; prefetch-src https:",
+		};
+		List<URLWithScheme> urls = new ArrayList<>();
+		for (String url : new String[] { "https://example.com", "https://example.com/a", "https://a.example.com/script.js", "https://b.example.com", "http://b.example.com", "ws://example.com/socket", "wss://a.example.com", "ftp://example.com", "data:text/plain,a", "blob:https://example.com/uuid" }) {
+			urls.add(URI.parseURI(url).map(u -> (URLWithScheme) u).orElseGet(() -> GUID.parseGUID(url).get()));
+		}
+		FetchDirectiveKind[] kinds = { FetchDirectiveKind.ScriptSrc, FetchDirectiveKind.ScriptSrcElem, FetchDirectiveKind.StyleSrc, FetchDirectiveKind.StyleSrcElem, FetchDirectiveKind.ConnectSrc, FetchDirectiveKind.FontSrc, FetchDirectiveKind.FrameSrc, FetchDirectiveKind.ImgSrc, FetchDirectiveKind.ManifestSrc, FetchDirectiveKind.MediaSrc, FetchDirectiveKind.ObjectSrc, FetchDirectiveKind.PrefetchSrc, FetchDirectiveKind.WorkerSrc };
+		for (String policy : policies) {
+			PolicyInOrigin p = parse(policy, "https://example.com");
+			for (FetchDirectiveKind kind : kinds) {
+				BitSet expected = new BitSet();
+				for (int i = 0; i < urls.size(); ++i) {
+					if (allowsFromSource(p, kind, urls.get(i))) {
+						expected.set(i);
+					}
+				}
+				assertEquals(policy + " " + kind.repr, expected, p.allowsFromSources(kind, urls));
+				assertEquals(policy + " " + kind.repr, expected, p.allowsFromSources(kind, urls.stream()));
+			}
+			for (FetchDirectiveKind kind : new FetchDirectiveKind[] { FetchDirectiveKind.ChildSrc, FetchDirectiveKind.DefaultSrc, FetchDirectiveKind.ScriptSrcAttr, FetchDirectiveKind.StyleSrcAttr }) {
+				try {
+					p.allowsFromSources(kind, urls);
+					fail(kind.repr);
+				} catch (IllegalArgumentException e) {
+					// expected
+				}
+			}
+		}
+		assertEquals(new BitSet(), parse("default-src 'none'", "https://example.com").allowsFromSources(FetchDirectiveKind.ImgSrc, Collections.emptyList()));
+	}
+
+	private static boolean allowsFromSource(PolicyInOrigin p, FetchDirectiveKind kind, URLWithScheme url) {
+		switch (kind) {
+			case ScriptSrc:
+			case ScriptSrcElem:
+				return p.allowsScriptFromSource(url);
+			case StyleSrc:
+			case StyleSrcElem:
+				return p.allowsStyleFromSource(url);
+			case ConnectSrc:
+				return p.allowsConnection(url);
+			case FontSrc:
+				return p.allowsFontFromSource(url);
+			case FrameSrc:
+				return p.allowsFrameFromSource(url);
+			case ImgSrc:
+				return p.allowsImageFromSource(url);
+			case ManifestSrc:
+				return p.allowsManifestFromSource(url);
+			case MediaSrc:
+				return p.allowsMediaFromSource(url);
+			case ObjectSrc:
+				return p.allowsObjectFromSource(url);
+			case PrefetchSrc:
+				return p.allowsPrefetchFromSource(url);
+			case WorkerSrc:
+				return p.allowsWorkerFromSource(url);
+			default:
+				throw new IllegalArgumentException(kind.repr);
+		}
+	}
+
 
 	private Policy parse(String policy) {
 		return Policy.parseSerializedCSP(policy, throwIfPolicyError);
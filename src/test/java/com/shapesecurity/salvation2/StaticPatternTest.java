@@ -0,0 +1,52 @@
+package com.shapesecurity.salvation2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Parsing and matching used to compile regexes on every call. Every pattern is now a static final field, compiled once;
+// this keeps it that way, since a per-call compile still works and only shows up as allocation in the benchmarks.
+public class StaticPatternTest {
+	private static final Path SOURCES = Paths.get("src", "main", "java");
+
+	// String.split, replaceAll, replaceFirst and matches, and Pattern.matches, all compile their regex on each call
+	// (split only skips it for single characters, which is easy to lose by editing the argument)
+	private static final Pattern PER_CALL_REGEX = Pattern.compile("\\.split\\(|\\.replaceAll\\(|\\.replaceFirst\\(|\\.matches\\(\\s*\"|Pattern\\.matches\\(");
+	private static final Pattern STATIC_PATTERN_FIELD = Pattern.compile("\\bstatic final Pattern \\w+ = Pattern\\.compile\\(");
+
+	@Test
+	public void testPatternsAreCompiledOnce() throws IOException {
+		assertTrue("run from the project root", Files.isDirectory(SOURCES));
+		List<String> violations = new ArrayList<>();
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(SOURCES)) {
+			files = walk.filter(p -> p.toString().endsWith(".java")).collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			for (int i = 0; i < lines.size(); ++i) {
+				String line = lines.get(i).trim();
+				if (line.startsWith("//") || line.startsWith("*")) {
+					continue;
+				}
+				boolean compiles = line.contains("Pattern.compile(") && !STATIC_PATTERN_FIELD.matcher(line).find();
+				if (compiles || PER_CALL_REGEX.matcher(line).find()) {
+					violations.add(SOURCES.relativize(file) + ":" + (i + 1) + ": " + line);
+				}
+			}
+		}
+		assertEquals(new ArrayList<String>(), violations);
+	}
+}
@@ -0,0 +1,60 @@
+package com.shapesecurity.salvation2;
+
+import com.shapesecurity.salvation2.Directives.SourceExpressionDirective;
+import com.shapesecurity.salvation2.Values.Host;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TokensTest extends TestBase {
+	@Test
+	public void testKnownTokensAreCanonical() {
+		String header = "xx script-src 'self' https: SANDBOX";
+		assertSame("script-src", Tokens.token(header, 3, 13));
+		assertSame("'self'", Tokens.token(header, 14, 20));
+		assertSame("https:", Tokens.token(new AsciiByteSequence(header.getBytes(), 0, header.length()), 21, 27));
+		assertEquals("SANDBOX", Tokens.token(header, 28, 35));
+		assertSame("sandbox", Tokens.lowercase(Tokens.token(header, 28, 35)));
+		assertSame("default-src", Tokens.lowercase(new String("Default-Src")));
+		assertEquals("unknown-src", Tokens.lowercase("UNKNOWN-src"));
+		assertSame("https", Tokens.intern(new String("https")));
+	}
+
+	@Test
+	public void testPool() {
+		String a = new String("pooled.example.com");
+		String b = new String("pooled.example.com");
+		assertSame(a, Tokens.intern(a));
+		assertSame(a, Tokens.intern(b));
+		assertSame(a, Tokens.token("x pooled.example.com", 2, 20));
+
+		// Nonces, hashes and long tokens are left alone
+		String nonce = new String("'nonce-abc'");
+		assertSame(nonce, Tokens.intern(nonce));
+		assertNotSame(nonce, Tokens.intern(new String(nonce)));
+		StringBuilder longToken = new StringBuilder();
+		for (int i = 0; i < 65; ++i) {
+			longToken.append('a');
+		}
+		assertNotSame(Tokens.intern(longToken.toString()), Tokens.intern(longToken.toString()));
+	}
+
+	@Test
+	public void testParsedPoliciesShareStrings() {
+		Policy first = Policy.parseSerializedCSP("script-src 'self' https://shared.example.com", throwIfPolicyError);
+		Policy second = Policy.parseSerializedCSP("SCRIPT-SRC 'self' https://Shared.example.com:443", throwIfPolicyError);
+		SourceExpressionDirective firstDirective = first.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+		SourceExpressionDirective secondDirective = second.getFetchDirective(FetchDirectiveKind.ScriptSrc).get();
+		assertSame(firstDirective.getValues().get(0), secondDirective.getValues().get(0));
+
+		List<Host> firstHosts = firstDirective.getHosts();
+		List<Host> secondHosts = secondDirective.getHosts();
+		assertSame(firstHosts.get(0).scheme, secondHosts.get(0).scheme);
+		assertSame(firstHosts.get(0).host, secondHosts.get(0).host);
+		assertEquals("SCRIPT-SRC 'self' https://Shared.example.com:443", second.toString());
+	}
+}